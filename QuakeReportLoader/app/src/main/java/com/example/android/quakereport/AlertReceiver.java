@@ -0,0 +1,103 @@
+package com.example.android.quakereport;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.support.v4.content.WakefulBroadcastReceiver;
+
+/**
+ * Starts an {@link AlertService} check on an inexact repeating alarm, which the system batches
+ * with the alarms of other apps so the radio and CPU wake up for all of them at once.
+ *
+ * Without a network the check is skipped, and a {@link ConnectivityReceiver} that is otherwise
+ * disabled runs it as soon as there is one, instead of waking up to fail.
+ */
+public class AlertReceiver extends WakefulBroadcastReceiver {
+
+    static final String ACTION_CHECK = "com.example.android.quakereport.action.CHECK_ALERTS";
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (Intent.ACTION_BOOT_COMPLETED.equals(intent.getAction())) {
+            // Alarms don't survive a reboot
+            schedule(context);
+            return;
+        }
+        if (!ACTION_CHECK.equals(intent.getAction())) {
+            return;
+        }
+        if (!isConnected(context)) {
+            setConnectivityReceiverEnabled(context, true);
+            return;
+        }
+        startWakefulService(context, new Intent(context, AlertService.class));
+    }
+
+    /**
+     * Start or stop the checks to match the settings. Reads the settings, call it off the main
+     * thread.
+     */
+    static void schedule(Context context) {
+        context = context.getApplicationContext();
+        SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(context);
+        boolean enabled = sharedPrefs.getBoolean(context.getString(R.string.settings_alerts_key),
+                context.getResources().getBoolean(R.bool.settings_alerts_default));
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        Intent check = new Intent(context, AlertReceiver.class).setAction(ACTION_CHECK);
+        if (enabled) {
+            if (PendingIntent.getBroadcast(context, 0, check, PendingIntent.FLAG_NO_CREATE) != null) {
+                // Already scheduled; setting it again would push the next check back
+                return;
+            }
+            PendingIntent alarm = PendingIntent.getBroadcast(context, 0, check, 0);
+            alarmManager.setInexactRepeating(AlarmManager.ELAPSED_REALTIME_WAKEUP,
+                    SystemClock.elapsedRealtime() + AlarmManager.INTERVAL_FIFTEEN_MINUTES,
+                    AlarmManager.INTERVAL_FIFTEEN_MINUTES, alarm);
+        } else {
+            PendingIntent alarm = PendingIntent.getBroadcast(context, 0, check, PendingIntent.FLAG_NO_CREATE);
+            if (alarm != null) {
+                alarmManager.cancel(alarm);
+                alarm.cancel();
+            }
+            setConnectivityReceiverEnabled(context, false);
+        }
+    }
+
+    private static boolean isConnected(Context context) {
+        ConnectivityManager connMgr = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo networkInfo = connMgr.getActiveNetworkInfo();
+        return networkInfo != null && networkInfo.isConnected();
+    }
+
+    private static void setConnectivityReceiverEnabled(Context context, boolean enabled) {
+        context.getPackageManager().setComponentEnabledSetting(
+                new ComponentName(context, ConnectivityReceiver.class),
+                enabled ? PackageManager.COMPONENT_ENABLED_STATE_ENABLED
+                        : PackageManager.COMPONENT_ENABLED_STATE_DISABLED,
+                PackageManager.DONT_KILL_APP);
+    }
+
+    /**
+     * Runs the check that was skipped for lack of a network once there is one, then disables
+     * itself so connectivity changes don't start the app otherwise.
+     */
+    public static class ConnectivityReceiver extends BroadcastReceiver {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (!isConnected(context)) {
+                return;
+            }
+            setConnectivityReceiverEnabled(context, false);
+            startWakefulService(context, new Intent(context, AlertService.class));
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.example.android.quakereport;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The rules an earthquake has to match to be alerted on, e.g. "M5 300km; M7" for magnitude 5
+ * and up within 300 km of home, or magnitude 7 and up anywhere.
+ *
+ * The rules are compiled into a step function of the magnitude: for each threshold, the largest
+ * radius of any rule at or below it. Matching an event is then a binary search and at most one
+ * distance, however many rules there are.
+ */
+public final class AlertRules {
+
+    /** "M5 300km", "M 6.5", "7": a magnitude, optionally followed by a radius */
+    private static final Pattern RULE = Pattern.compile(
+            "m?\\s*(\\d+(?:\\.\\d+)?)(?:\\s+(\\d+(?:\\.\\d+)?)\\s*km)?", Pattern.CASE_INSENSITIVE);
+
+    /** "35.68, 139.69" */
+    private static final Pattern LOCATION = Pattern.compile(
+            "\\s*(-?\\d+(?:\\.\\d+)?)\\s*,\\s*(-?\\d+(?:\\.\\d+)?)\\s*");
+
+    /** Thresholds of the rules, in ascending order */
+    private final double[] mMagnitudes;
+    /** Largest radius of the rules up to each threshold, infinite once a rule has none */
+    private final double[] mRadii;
+
+    private AlertRules(double[] magnitudes, double[] radii) {
+        mMagnitudes = magnitudes;
+        mRadii = radii;
+    }
+
+    /**
+     * @param rules separated by semicolons or new lines; malformed ones are ignored
+     */
+    public static AlertRules parse(String rules) {
+        List<double[]> parsed = new ArrayList<>();
+        for (String rule : rules.split("[;\\n]")) {
+            Matcher matcher = RULE.matcher(rule.trim());
+            if (matcher.matches()) {
+                double radius = matcher.group(2) != null ? Double.parseDouble(matcher.group(2))
+                        : Double.POSITIVE_INFINITY;
+                parsed.add(new double[]{Double.parseDouble(matcher.group(1)), radius});
+            }
+        }
+        Collections.sort(parsed, new Comparator<double[]>() {
+            @Override
+            public int compare(double[] a, double[] b) {
+                return Double.compare(a[0], b[0]);
+            }
+        });
+        double[] magnitudes = new double[parsed.size()];
+        double[] radii = new double[parsed.size()];
+        double radius = 0;
+        for (int i = 0; i < parsed.size(); i++) {
+            magnitudes[i] = parsed.get(i)[0];
+            // A larger event matches every rule a smaller one does
+            radius = Math.max(radius, parsed.get(i)[1]);
+            radii[i] = radius;
+        }
+        return new AlertRules(magnitudes, radii);
+    }
+
+    /**
+     * @param location "latitude, longitude"
+     * @return {latitude, longitude}, or null if the text isn't a location
+     */
+    public static double[] parseLocation(String location) {
+        Matcher matcher = LOCATION.matcher(location);
+        if (!matcher.matches()) {
+            return null;
+        }
+        double latitude = Double.parseDouble(matcher.group(1));
+        double longitude = Double.parseDouble(matcher.group(2));
+        if (Math.abs(latitude) > 90 || Math.abs(longitude) > 180) {
+            return null;
+        }
+        return new double[]{latitude, longitude};
+    }
+
+    public boolean isEmpty() {
+        return mMagnitudes.length == 0;
+    }
+
+    /**
+     * @param withLocation whether the rules with a radius can match, i.e. home is known
+     * @return the smallest magnitude any event can match at, or NaN if none can
+     */
+    public double getMinMagnitude(boolean withLocation) {
+        for (int i = 0; i < mMagnitudes.length; i++) {
+            if (withLocation || Double.isInfinite(mRadii[i])) {
+                return mMagnitudes[i];
+            }
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * @return the radius around home no matching event is outside of, infinite if some rule
+     * matches anywhere
+     */
+    public double getMaxRadiusKm() {
+        return mRadii.length > 0 ? mRadii[mRadii.length - 1] : 0;
+    }
+
+    /**
+     * @param home {latitude, longitude}, or null if it isn't known
+     * @return whether the event matches any of the rules
+     */
+    public boolean matches(double mag, double latitude, double longitude, double[] home) {
+        if (Double.isNaN(mag)) {
+            return false;
+        }
+        // Last threshold at or below the magnitude
+        int i = Arrays.binarySearch(mMagnitudes, mag);
+        if (i < 0) {
+            i = -i - 2;
+        } else {
+            // Several rules may share the threshold, take the last one
+            while (i + 1 < mMagnitudes.length && mMagnitudes[i + 1] == mag) {
+                i++;
+            }
+        }
+        if (i < 0) {
+            return false;
+        }
+        if (Double.isInfinite(mRadii[i])) {
+            return true;
+        }
+        if (home == null || Double.isNaN(latitude) || Double.isNaN(longitude)) {
+            return false;
+        }
+        return SpatialIndex.distanceKm(home[0], home[1], latitude, longitude) <= mRadii[i];
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.android.quakereport;
+
+import android.app.IntentService;
+import android.app.Notification;
+import android.app.PendingIntent;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.preference.PreferenceManager;
+import android.support.v4.app.NotificationCompat;
+import android.support.v4.app.NotificationManagerCompat;
+import android.support.v4.content.WakefulBroadcastReceiver;
+import android.util.Log;
+
+/**
+ * Checks the events that changed since the last check against the {@link AlertRules} and shows
+ * a notification for each one that matches, once per event.
+ *
+ * A check is one delta request: only the events updated since the previous check are fetched,
+ * filtered by USGS down to the smallest magnitude (and, if every rule has one, the largest
+ * radius) a rule can match. The stored events are never looked at. The {@link AlertReceiver}
+ * holds a wake lock for the duration of the check and no longer.
+ */
+public class AlertService extends IntentService {
+
+    private static final String LOG_TAG = AlertService.class.getSimpleName();
+
+    /** Key of the last check in the sync state table */
+    private static final String SYNC_KEY = "alerts";
+
+    /** How far back the first check looks, so turning alerts on doesn't alert on old events */
+    private static final long INITIAL_WINDOW_MS = 60 * 60 * 1000;
+
+    /** Older events aren't alerted on, even if USGS updates them */
+    private static final long MAX_EVENT_AGE_MS = 24 * 60 * 60 * 1000;
+
+    /** Alerted events are remembered this long, well past the age they can be alerted at */
+    private static final long ALERTED_RETENTION_MS = 7 * MAX_EVENT_AGE_MS;
+
+    public AlertService() {
+        super(LOG_TAG);
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        try {
+            check();
+        } finally {
+            WakefulBroadcastReceiver.completeWakefulIntent(intent);
+        }
+    }
+
+    private void check() {
+        SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(this);
+        AlertRules rules = AlertRules.parse(sharedPrefs.getString(getString(R.string.settings_alert_rules_key),
+                getString(R.string.settings_alert_rules_default)));
+        double[] home = AlertRules.parseLocation(sharedPrefs.getString(
+                getString(R.string.settings_alert_location_key), ""));
+        double minMagnitude = rules.getMinMagnitude(home != null);
+        if (Double.isNaN(minMagnitude)) {
+            // No rule can match, e.g. only distance rules without a home location
+            return;
+        }
+
+        HttpClient.getInstance().install(getCacheDir());
+        EarthquakeStore store = EarthquakeStore.getInstance(this);
+        // Take the check time before the request goes out, so nothing updated meanwhile is missed
+        long checkTime = System.currentTimeMillis();
+        long lastCheck = store.getLastSync(SYNC_KEY);
+        if (lastCheck == 0) {
+            lastCheck = checkTime - INITIAL_WINDOW_MS;
+        }
+
+        Uri.Builder builder = Uri.parse(FdsnEventSource.USGS.getQueryUrl()).buildUpon()
+                .appendQueryParameter("format", QueryUtils.FORMAT_CSV)
+                .appendQueryParameter("updatedafter", QueryUtils.formatQueryTime(lastCheck))
+                .appendQueryParameter("starttime", QueryUtils.formatQueryTime(checkTime - MAX_EVENT_AGE_MS))
+                .appendQueryParameter("minmag", String.valueOf(minMagnitude))
+                .appendQueryParameter("orderby", "time");
+        if (home != null && !Double.isInfinite(rules.getMaxRadiusKm())) {
+            builder.appendQueryParameter("latitude", String.valueOf(home[0]))
+                    .appendQueryParameter("longitude", String.valueOf(home[1]))
+                    .appendQueryParameter("maxradiuskm", String.valueOf(rules.getMaxRadiusKm()));
+        }
+
+        EarthquakeTable changed;
+        try {
+            changed = QueryUtils.requestEarthquakes(builder.build().toString(),
+                    LoadMetrics.REQUEST_ALERT, null, null);
+        } catch (FetchException e) {
+            // The next check asks for the same window again
+            Log.w(LOG_TAG, "Alert check failed", e);
+            return;
+        }
+        for (int row = 0; row < changed.size(); row++) {
+            if (rules.matches(changed.getMag(row), changed.getLatitude(row), changed.getLongitude(row), home)
+                    && store.markAlerted(changed.getId(row), checkTime)) {
+                notify(new Info(changed, row));
+            }
+        }
+        store.setLastSync(SYNC_KEY, checkTime);
+        store.pruneAlerted(checkTime - ALERTED_RETENTION_MS);
+    }
+
+    private void notify(Info earthquake) {
+        PendingIntent contentIntent = PendingIntent.getActivity(this, earthquake.getId().hashCode(),
+                DetailActivity.newIntent(this, earthquake), PendingIntent.FLAG_UPDATE_CURRENT);
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(this)
+                .setSmallIcon(R.mipmap.ic_launcher)
+                .setContentTitle(getString(R.string.alert_title, earthquake.getMag()))
+                .setContentText(earthquake.getLocation())
+                .setWhen(earthquake.getTimeInMilliseconds())
+                .setPriority(NotificationCompat.PRIORITY_HIGH)
+                .setDefaults(Notification.DEFAULT_ALL)
+                .setAutoCancel(true)
+                .setContentIntent(contentIntent);
+        // Tagged with the event id, so each event has its own notification
+        NotificationManagerCompat.from(this).notify(earthquake.getId(), 0, builder.build());
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.android.quakereport;
+
+/**
+ * Lets a load that is no longer needed be stopped from another thread. The request in flight
+ * is disconnected, which aborts a blocked socket read, and parsing stops at the next feature.
+ *
+ * Works like android.os.CancellationSignal, which needs API 16.
+ */
+public final class Cancellation {
+
+    /**
+     * Called on the thread that cancels.
+     */
+    public interface OnCancelListener {
+        void onCancel();
+    }
+
+    private volatile boolean mCanceled;
+    private OnCancelListener mListener;
+
+    public boolean isCanceled() {
+        return mCanceled;
+    }
+
+    public void cancel() {
+        OnCancelListener listener;
+        synchronized (this) {
+            if (mCanceled) {
+                return;
+            }
+            mCanceled = true;
+            listener = mListener;
+        }
+        if (listener != null) {
+            listener.onCancel();
+        }
+    }
+
+    /**
+     * Set the listener to call on cancellation, or null to remove it. It is called right away
+     * if the load was already canceled.
+     */
+    public void setOnCancelListener(OnCancelListener listener) {
+        synchronized (this) {
+            mListener = listener;
+            if (!mCanceled || listener == null) {
+                return;
+            }
+        }
+        listener.onCancel();
+    }
+}
@@ -0,0 +1,289 @@
+package com.example.android.quakereport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Reads delimited text, e.g. FDSN "csv" or "text" responses, one line at a time straight from
+ * the bytes of the stream.
+ *
+ * A line is split into field offsets within a reused buffer, and numbers and times are parsed
+ * from those bytes, so only the fields that are read as strings allocate anything. CSV quoting
+ * is understood: a field in double quotes may contain the delimiter, and "" stands for a quote.
+ */
+final class DelimitedReader {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Powers of ten that are exact doubles */
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    private final InputStream mIn;
+    private final byte mDelimiter;
+
+    private byte[] mBuffer = new byte[8192];
+    /** Start of the unread bytes in the buffer */
+    private int mPosition;
+    /** End of the valid bytes in the buffer */
+    private int mLimit;
+    private boolean mEndOfStream;
+
+    /** Fields of the current line, as offsets into the buffer */
+    private int[] mFieldStarts = new int[16];
+    private int[] mFieldEnds = new int[16];
+    /** Whether the field is quoted and contains "" */
+    private boolean[] mFieldEscaped = new boolean[16];
+    private int mFieldCount;
+
+    DelimitedReader(InputStream in, char delimiter) {
+        mIn = in;
+        mDelimiter = (byte) delimiter;
+    }
+
+    /**
+     * Move to the next line. Empty lines are skipped.
+     * @return false at the end of the stream
+     */
+    boolean nextLine() throws IOException {
+        while (true) {
+            int end = scanLine();
+            while (end < 0) {
+                // The line goes on past the buffer
+                if (!fill()) {
+                    if (mPosition == mLimit) {
+                        mFieldCount = 0;
+                        return false;
+                    }
+                    end = mLimit;
+                    break;
+                }
+                end = scanLine();
+            }
+            int lineEnd = end > mPosition && mBuffer[end - 1] == '\r' ? end - 1 : end;
+            if (lineEnd > mPosition) {
+                splitFields(mPosition, lineEnd);
+                mPosition = Math.min(end + 1, mLimit);
+                return true;
+            }
+            mPosition = Math.min(end + 1, mLimit);
+        }
+    }
+
+    /**
+     * @return number of fields of the current line
+     */
+    int getFieldCount() {
+        return mFieldCount;
+    }
+
+    /**
+     * @return whether the current line starts with the byte, e.g. '#' for a comment
+     */
+    boolean startsWith(char c) {
+        return mFieldCount > 0 && mFieldEnds[0] > mFieldStarts[0] && mBuffer[mFieldStarts[0]] == c;
+    }
+
+    /**
+     * @return the field, or null if the line doesn't have it
+     */
+    String getString(int field) {
+        if (field < 0 || field >= mFieldCount) {
+            return null;
+        }
+        String value = new String(mBuffer, mFieldStarts[field], mFieldEnds[field] - mFieldStarts[field], UTF_8);
+        return mFieldEscaped[field] ? value.replace("\"\"", "\"") : value;
+    }
+
+    /**
+     * @return the field as a number, or NaN if it is missing, empty or not a number
+     */
+    double getDouble(int field) {
+        if (field < 0 || field >= mFieldCount) {
+            return Double.NaN;
+        }
+        int i = mFieldStarts[field];
+        int end = mFieldEnds[field];
+        if (i == end) {
+            return Double.NaN;
+        }
+        boolean negative = mBuffer[i] == '-';
+        if (negative || mBuffer[i] == '+') {
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = -1;
+        for (; i < end; i++) {
+            byte b = mBuffer[i];
+            if (b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (fractionDigits >= 0) {
+                    fractionDigits++;
+                }
+            } else if (b == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else {
+                break;
+            }
+        }
+        if (digits == 0 || i < end || digits > 15 || fractionDigits >= POWERS_OF_TEN.length) {
+            // Exponents, long numbers and garbage take the slow path
+            return parseDoubleSlowly(field);
+        }
+        // Both are exact doubles, so the division rounds correctly
+        double value = fractionDigits > 0 ? mantissa / POWERS_OF_TEN[fractionDigits] : mantissa;
+        return negative ? -value : value;
+    }
+
+    /**
+     * @return the field as an ISO 8601 UTC time, e.g. "2016-09-12T10:30:00.123Z", in
+     * milliseconds since the epoch, or -1 if it is missing or malformed
+     */
+    long getTime(int field) {
+        if (field < 0 || field >= mFieldCount) {
+            return -1;
+        }
+        int start = mFieldStarts[field];
+        int end = mFieldEnds[field];
+        if (end - start < 19 || mBuffer[start + 4] != '-' || mBuffer[start + 7] != '-'
+                || (mBuffer[start + 10] != 'T' && mBuffer[start + 10] != ' ')
+                || mBuffer[start + 13] != ':' || mBuffer[start + 16] != ':') {
+            return -1;
+        }
+        int year = digits(start, 4);
+        int month = digits(start + 5, 2);
+        int day = digits(start + 8, 2);
+        int hour = digits(start + 11, 2);
+        int minute = digits(start + 14, 2);
+        int second = digits(start + 17, 2);
+        if ((year | month | day | hour | minute | second) < 0) {
+            return -1;
+        }
+        int millis = 0;
+        int i = start + 19;
+        if (i < end && mBuffer[i] == '.') {
+            // Only the first 3 digits of the fraction count
+            int scale = 100;
+            for (i++; i < end && mBuffer[i] >= '0' && mBuffer[i] <= '9'; i++) {
+                millis += (mBuffer[i] - '0') * scale;
+                scale /= 10;
+            }
+        }
+        return (QueryUtils.daysFromCivil(year, month, day) * 86400L + hour * 3600 + minute * 60 + second)
+                * 1000 + millis;
+    }
+
+    /**
+     * @return the decimal number of the given length at the offset, or -1 if it isn't one
+     */
+    private int digits(int offset, int length) {
+        int value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            byte b = mBuffer[i];
+            if (b < '0' || b > '9') {
+                return -1;
+            }
+            value = value * 10 + (b - '0');
+        }
+        return value;
+    }
+
+    private double parseDoubleSlowly(int field) {
+        try {
+            return Double.parseDouble(getString(field).trim());
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * @return the offset of the newline that ends the line at mPosition, or -1 if the buffer
+     * ends first. A newline inside quotes doesn't end the line.
+     */
+    private int scanLine() {
+        boolean quoted = false;
+        for (int i = mPosition; i < mLimit; i++) {
+            byte b = mBuffer[i];
+            if (b == '"') {
+                quoted = !quoted;
+            } else if (b == '\n' && !quoted) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void splitFields(int start, int end) {
+        mFieldCount = 0;
+        int i = start;
+        while (true) {
+            if (mFieldCount == mFieldStarts.length) {
+                mFieldStarts = Arrays.copyOf(mFieldStarts, mFieldCount * 2);
+                mFieldEnds = Arrays.copyOf(mFieldEnds, mFieldCount * 2);
+                mFieldEscaped = Arrays.copyOf(mFieldEscaped, mFieldCount * 2);
+            }
+            boolean escaped = false;
+            int fieldStart = i;
+            int fieldEnd;
+            if (i < end && mBuffer[i] == '"') {
+                fieldStart = ++i;
+                while (i < end && (mBuffer[i] != '"' || (i + 1 < end && mBuffer[i + 1] == '"'))) {
+                    if (mBuffer[i] == '"') {
+                        escaped = true;
+                        i++;
+                    }
+                    i++;
+                }
+                fieldEnd = i;
+                while (i < end && mBuffer[i] != mDelimiter) {
+                    i++;
+                }
+            } else {
+                while (i < end && mBuffer[i] != mDelimiter) {
+                    i++;
+                }
+                fieldEnd = i;
+            }
+            mFieldStarts[mFieldCount] = fieldStart;
+            mFieldEnds[mFieldCount] = fieldEnd;
+            mFieldEscaped[mFieldCount] = escaped;
+            mFieldCount++;
+            if (i >= end) {
+                return;
+            }
+            // Skip the delimiter
+            i++;
+        }
+    }
+
+    /**
+     * Read more bytes, moving the unread ones to the front and growing the buffer if a line
+     * doesn't fit.
+     * @return false if the stream has ended
+     */
+    private boolean fill() throws IOException {
+        if (mEndOfStream) {
+            return false;
+        }
+        if (mPosition > 0) {
+            System.arraycopy(mBuffer, mPosition, mBuffer, 0, mLimit - mPosition);
+            mLimit -= mPosition;
+            mPosition = 0;
+        }
+        if (mLimit == mBuffer.length) {
+            mBuffer = Arrays.copyOf(mBuffer, mBuffer.length * 2);
+        }
+        int read = mIn.read(mBuffer, mLimit, mBuffer.length - mLimit);
+        if (read < 0) {
+            mEndOfStream = true;
+            return false;
+        }
+        mLimit += read;
+        return true;
+    }
+}
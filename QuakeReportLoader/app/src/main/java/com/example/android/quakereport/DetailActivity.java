@@ -0,0 +1,165 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+import android.view.View;
+import android.widget.Button;
+import android.widget.TextView;
+
+/**
+ * Detail of a USGS event from its detail feed. The feed is usually in the {@link DetailCache}
+ * already, prefetched while the row was on screen, so the detail shows up right away; otherwise
+ * the row's own fields are shown while it loads.
+ */
+public class DetailActivity extends AppCompatActivity {
+
+    private static final String EXTRA_ID = "id";
+    private static final String EXTRA_URL = "url";
+    private static final String EXTRA_PLACE = "place";
+    private static final String EXTRA_MAG = "mag";
+    private static final String EXTRA_TIME = "time";
+
+    private TextView mDetailTextView;
+    private String mEventId;
+    private String mUrl;
+    private AsyncTask<Void, Void, EventDetail> mLoadTask;
+    private final Cancellation mCancellation = new Cancellation();
+
+    /**
+     * @return the intent that opens the detail of the row
+     */
+    public static Intent newIntent(Context context, Info info) {
+        return new Intent(context, DetailActivity.class)
+                .putExtra(EXTRA_ID, info.getId())
+                .putExtra(EXTRA_URL, info.getUrl())
+                .putExtra(EXTRA_PLACE, info.getLocation())
+                .putExtra(EXTRA_MAG, info.getMag())
+                .putExtra(EXTRA_TIME, info.getTimeInMilliseconds());
+    }
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.detail_activity);
+        mDetailTextView = (TextView) findViewById(R.id.detail_text);
+        mEventId = getIntent().getStringExtra(EXTRA_ID);
+        mUrl = getIntent().getStringExtra(EXTRA_URL);
+
+        Button websiteButton = (Button) findViewById(R.id.detail_website);
+        websiteButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                startActivity(new Intent(Intent.ACTION_VIEW, Uri.parse(mUrl)));
+            }
+        });
+
+        DetailCache.Entry cached = DetailCache.getInstance().get(mEventId);
+        if (cached != null) {
+            bind(cached.getDetail());
+            if (cached.isFresh()) {
+                return;
+            }
+        } else {
+            mDetailTextView.setText(formatRow(getString(R.string.detail_loading)));
+        }
+        load(cached != null);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mCancellation.cancel();
+        if (mLoadTask != null) {
+            mLoadTask.cancel(false);
+        }
+    }
+
+    /**
+     * Fetch the detail, retrying the way the list does.
+     * @param shown whether a stale detail is shown meanwhile, which is kept if the fetch fails
+     */
+    private void load(final boolean shown) {
+        mLoadTask = new AsyncTask<Void, Void, EventDetail>() {
+            @Override
+            protected EventDetail doInBackground(Void... params) {
+                try {
+                    EventDetail detail = RequestExecutor.getInstance().execute(
+                            new RequestExecutor.Attempt<EventDetail>() {
+                                @Override
+                                public EventDetail run(Cancellation cancellation) throws FetchException {
+                                    return EventDetail.fetch(mEventId, cancellation);
+                                }
+                            }, true, LoadMetrics.REQUEST_DETAIL, mCancellation);
+                    DetailCache.getInstance().put(detail);
+                    return detail;
+                } catch (FetchException e) {
+                    return null;
+                }
+            }
+
+            @Override
+            protected void onPostExecute(EventDetail detail) {
+                if (isFinishing()) {
+                    return;
+                }
+                if (detail != null) {
+                    bind(detail);
+                } else if (!shown) {
+                    mDetailTextView.setText(formatRow(getString(R.string.detail_failed)));
+                }
+            }
+        }.execute();
+    }
+
+    private void bind(EventDetail detail) {
+        mUrl = detail.getUrl().isEmpty() ? mUrl : detail.getUrl();
+        mDetailTextView.setText(format(detail));
+    }
+
+    /**
+     * @return the fields of the row the detail was opened from, followed by the status line
+     */
+    private String formatRow(String status) {
+        Intent intent = getIntent();
+        return getString(R.string.detail_magnitude, intent.getDoubleExtra(EXTRA_MAG, Double.NaN), "") + '\n'
+                + intent.getStringExtra(EXTRA_PLACE) + '\n'
+                + QueryUtils.formatTime(intent.getLongExtra(EXTRA_TIME, 0)) + "\n\n"
+                + status;
+    }
+
+    private String format(EventDetail detail) {
+        StringBuilder builder = new StringBuilder();
+        builder.append(getString(R.string.detail_magnitude, detail.getMag(),
+                detail.getMagType() != null ? detail.getMagType() : "")).append('\n');
+        builder.append(detail.getPlace()).append('\n');
+        builder.append(QueryUtils.formatTime(detail.getTimeInMilliseconds())).append("\n\n");
+        builder.append(getString(R.string.detail_location, detail.getLatitude(), detail.getLongitude(),
+                detail.getDepth())).append('\n');
+        if (detail.getFelt() > 0) {
+            builder.append(getString(R.string.detail_felt, detail.getFelt())).append('\n');
+        }
+        if (!Double.isNaN(detail.getCdi())) {
+            builder.append(getString(R.string.detail_cdi, detail.getCdi())).append('\n');
+        }
+        if (!Double.isNaN(detail.getMmi())) {
+            builder.append(getString(R.string.detail_mmi, detail.getMmi())).append('\n');
+        }
+        if (detail.getAlert() != null) {
+            builder.append(getString(R.string.detail_alert, detail.getAlert())).append('\n');
+        }
+        if (detail.isTsunami()) {
+            builder.append(getString(R.string.detail_tsunami)).append('\n');
+        }
+        if (detail.getSig() >= 0) {
+            builder.append(getString(R.string.detail_significance, detail.getSig())).append('\n');
+        }
+        if (detail.getStatus() != null) {
+            builder.append(getString(R.string.detail_status, detail.getStatus())).append('\n');
+        }
+        return builder.toString();
+    }
+}
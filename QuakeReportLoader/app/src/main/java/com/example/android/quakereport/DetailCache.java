@@ -0,0 +1,100 @@
+package com.example.android.quakereport;
+
+import android.os.SystemClock;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Process-wide cache of {@link EventDetail}s, filled ahead of time by the {@link DetailPrefetcher}
+ * so opening the detail of a row that was on screen doesn't wait for the network.
+ *
+ * Details are keyed by event id. They stay fresh for a TTL, after which they are still shown
+ * while they are fetched again, and the least recently used ones are evicted once the cache grows
+ * past its size limit.
+ */
+public final class DetailCache {
+
+    /** Default time a detail stays fresh, in milliseconds */
+    public static final long DEFAULT_TTL_MS = 10 * 60 * 1000;
+
+    /** Default estimated heap size of the cached details; a detail takes a few hundred bytes */
+    public static final long DEFAULT_MAX_BYTES = 512 * 1024;
+
+    private static DetailCache sInstance;
+
+    /** Access ordered, so the first entry is the least recently used one */
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private long mMaxBytes = DEFAULT_MAX_BYTES;
+    private long mBytes;
+
+    /**
+     * A cached detail.
+     */
+    public static final class Entry {
+        private final EventDetail mDetail;
+        private final long mBytes;
+        /** {@link SystemClock#elapsedRealtime()} at which the detail goes stale */
+        private final long mExpiresAt;
+
+        private Entry(EventDetail detail, long expiresAt) {
+            mDetail = detail;
+            mBytes = detail.estimateBytes();
+            mExpiresAt = expiresAt;
+        }
+
+        public EventDetail getDetail() {
+            return mDetail;
+        }
+
+        /**
+         * @return false if the detail should be fetched again before it is trusted
+         */
+        public boolean isFresh() {
+            return SystemClock.elapsedRealtime() < mExpiresAt;
+        }
+    }
+
+    private DetailCache() {
+    }
+
+    public static synchronized DetailCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new DetailCache();
+        }
+        return sInstance;
+    }
+
+    /**
+     * @param maxBytes estimated heap size the cached details may take up
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        mMaxBytes = maxBytes;
+        trim();
+    }
+
+    /**
+     * @return the cached detail of the event, fresh or stale, or null
+     */
+    public synchronized Entry get(String eventId) {
+        return mEntries.get(eventId);
+    }
+
+    public synchronized void put(EventDetail detail) {
+        Entry entry = new Entry(detail, SystemClock.elapsedRealtime() + DEFAULT_TTL_MS);
+        Entry previous = mEntries.put(detail.getId(), entry);
+        if (previous != null) {
+            mBytes -= previous.mBytes;
+        }
+        mBytes += entry.mBytes;
+        trim();
+    }
+
+    private void trim() {
+        Iterator<Entry> iterator = mEntries.values().iterator();
+        while (mBytes > mMaxBytes && iterator.hasNext()) {
+            mBytes -= iterator.next().mBytes;
+            iterator.remove();
+        }
+    }
+}
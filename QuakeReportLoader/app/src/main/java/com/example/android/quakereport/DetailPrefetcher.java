@@ -0,0 +1,157 @@
+package com.example.android.quakereport;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fetches the {@link EventDetail}s of the rows on screen into the {@link DetailCache} before
+ * they are opened.
+ *
+ * Only a few details are fetched at once. The rows that just scrolled into view go first, since
+ * the ones about to leave are the least likely to be opened, and a detail that is still waiting
+ * or downloading when its row leaves the screen is canceled. Everything runs on the main thread
+ * except the fetches themselves.
+ */
+final class DetailPrefetcher {
+
+    private static final String LOG_TAG = DetailPrefetcher.class.getSimpleName();
+
+    /** Details fetched at once, over all lists */
+    private static final int PARALLELISM = 2;
+
+    /** Shared by all lists, the waiting prefetch with the lowest rank runs next */
+    private static final ThreadPoolExecutor sExecutor = new ThreadPoolExecutor(PARALLELISM, PARALLELISM,
+            30, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>());
+
+    static {
+        // Don't keep threads around while nothing scrolls
+        sExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /** Prefetches of the visible rows, waiting, running or finished, by event id */
+    private final Map<String, Prefetch> mPending = new HashMap<>();
+    private int mFirstVisible = -1;
+    private int mLastVisible = -1;
+
+    /**
+     * Prefetch the details of the visible rows and cancel the prefetches of the rows that left.
+     * @param first position of the first visible row
+     * @param last position of the last visible row
+     * @param rows the visible rows, null for rows that aren't loaded yet
+     */
+    void onVisibleRange(int first, int last, List<Info> rows) {
+        // Until the list scrolls down, the rows at the top come first
+        boolean bottomFirst = mFirstVisible >= 0 && first > mFirstVisible;
+        mFirstVisible = first;
+        mLastVisible = last;
+
+        Set<String> visible = new HashSet<>();
+        List<Info> wanted = new ArrayList<>();
+        for (Info info : rows) {
+            if (info == null || !EventDetail.isAvailable(info)) {
+                continue;
+            }
+            visible.add(info.getId());
+            DetailCache.Entry cached = DetailCache.getInstance().get(info.getId());
+            if (cached == null || !cached.isFresh()) {
+                wanted.add(info);
+            }
+        }
+
+        // The rows that left the screen aren't worth their bytes anymore. A finished prefetch
+        // stays while its row is visible, so a failed one isn't repeated on every scroll.
+        Iterator<Prefetch> iterator = mPending.values().iterator();
+        while (iterator.hasNext()) {
+            Prefetch prefetch = iterator.next();
+            if (!visible.contains(prefetch.mEventId)) {
+                cancel(prefetch);
+                iterator.remove();
+            }
+        }
+
+        // Rank the rows at the edge the list scrolls towards first; the rows still waiting are
+        // ranked again, which takes them out of the queue and puts them back
+        for (int i = 0; i < wanted.size(); i++) {
+            Info info = wanted.get(bottomFirst ? wanted.size() - 1 - i : i);
+            Prefetch prefetch = mPending.get(info.getId());
+            if (prefetch != null) {
+                if (prefetch.mRank == i || !sExecutor.remove(prefetch)) {
+                    // Already in place, or already running or done
+                    continue;
+                }
+            }
+            prefetch = new Prefetch(info.getId(), i);
+            mPending.put(info.getId(), prefetch);
+            sExecutor.execute(prefetch);
+        }
+    }
+
+    /**
+     * @return whether the range differs from the last one passed to
+     * {@link #onVisibleRange(int, int, List)}
+     */
+    boolean isNewRange(int first, int last) {
+        return first != mFirstVisible || last != mLastVisible;
+    }
+
+    /**
+     * Cancel every prefetch, e.g. because the list is gone.
+     */
+    void cancelAll() {
+        for (Prefetch prefetch : mPending.values()) {
+            cancel(prefetch);
+        }
+        mPending.clear();
+        mFirstVisible = -1;
+        mLastVisible = -1;
+    }
+
+    private static void cancel(Prefetch prefetch) {
+        sExecutor.remove(prefetch);
+        prefetch.mCancellation.cancel();
+    }
+
+    /**
+     * The fetch of one detail. Lower ranks run first.
+     */
+    private static final class Prefetch implements Runnable, Comparable<Prefetch> {
+        final String mEventId;
+        final int mRank;
+        final Cancellation mCancellation = new Cancellation();
+
+        Prefetch(String eventId, int rank) {
+            mEventId = eventId;
+            mRank = rank;
+        }
+
+        @Override
+        public void run() {
+            if (mCancellation.isCanceled()) {
+                return;
+            }
+            try {
+                // A single attempt, a failed prefetch just means the detail loads when opened
+                DetailCache.getInstance().put(EventDetail.fetch(mEventId, mCancellation));
+            } catch (FetchException e) {
+                if (e.getReason() != FetchException.Reason.CANCELED) {
+                    Log.d(LOG_TAG, "Prefetch of " + mEventId + " failed", e);
+                }
+            }
+        }
+
+        @Override
+        public int compareTo(Prefetch other) {
+            return mRank < other.mRank ? -1 : (mRank == other.mRank ? 0 : 1);
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.AsyncTask;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Syncs the first page of the current query at process start, while the activity is still
+ * being created, and hands the sync in flight to the {@link InfoLoader} that asks for the same
+ * query URL.
+ *
+ * The query is built from the settings on a background thread, so nothing on the main thread
+ * waits for it, and the activity takes it from here with {@link #takeQuery()} rather than build
+ * it again. Rows parsed before the loader attaches are replayed to it, so a streamed first
+ * download loses nothing. A sync nobody claims still fills the store.
+ */
+final class EarlyFetch {
+
+    private static final String LOG_TAG = EarlyFetch.class.getSimpleName();
+
+    /** A sync nobody claimed by then is left alone */
+    private static final long CLAIM_TIMEOUT_MS = 60 * 1000;
+
+    /**
+     * The query of the sync, as the settings were at process start.
+     */
+    static final class Query {
+        /** Query URL without offset and limit */
+        final String url;
+        final int pageSize;
+
+        Query(String url, int pageSize) {
+            this.url = url;
+            this.pageSize = pageSize;
+        }
+    }
+
+    /** The sync in flight or finished, null once claimed */
+    private static EarlyFetch sInstance;
+
+    private final Cancellation mCancellation = new Cancellation();
+    private final Relay mRelay = new Relay();
+    private final FutureTask<Void> mTask;
+    private final long mStartedAt = SystemClock.uptimeMillis();
+    /** Query and URL of its first page, set on the background thread before the sync starts */
+    private volatile Query mQuery;
+    private volatile String mUrl;
+    private final CountDownLatch mUrlBuilt = new CountDownLatch(1);
+    /** Whether the query was handed to an activity */
+    private boolean mQueryTaken;
+
+    private EarlyFetch(final Context context) {
+        mTask = new FutureTask<>(new Callable<Void>() {
+            @Override
+            public Void call() throws FetchException {
+                String url;
+                try {
+                    Query query = new Query(EarthquakeActivity.buildQueryUrl(context),
+                            EarthquakeActivity.getPageSize(context));
+                    url = EarthquakePager.getPageUrl(query.url, query.pageSize, 0);
+                    mQuery = query;
+                    mUrl = url;
+                } finally {
+                    mUrlBuilt.countDown();
+                }
+                HttpClient.getInstance().install(context.getCacheDir());
+                EarthquakeStore.getInstance(context).sync(url, mCancellation, mRelay);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Start syncing the first page of the current query, unless there is no network.
+     */
+    static synchronized void start(Context context) {
+        if (sInstance != null) {
+            return;
+        }
+        context = context.getApplicationContext();
+        ConnectivityManager connMgr = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo networkInfo = connMgr.getActiveNetworkInfo();
+        if (networkInfo == null || !networkInfo.isConnected()) {
+            return;
+        }
+        sInstance = new EarlyFetch(context);
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(sInstance.mTask);
+    }
+
+    /**
+     * Take the query the early sync was built for, once; a later caller builds it from the
+     * settings, which may have changed since.
+     * @return the query, or null if there is no early sync to take it from
+     */
+    static synchronized Query takeQuery() {
+        EarlyFetch fetch = sInstance;
+        if (fetch == null || fetch.mQueryTaken) {
+            return null;
+        }
+        fetch.mQueryTaken = true;
+        try {
+            // Built first thing on the background thread, from settings read there
+            fetch.mUrlBuilt.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        return fetch.mQuery;
+    }
+
+    /**
+     * Take over the early sync if it is for the given query URL. Only one caller gets it.
+     * @return the sync, or null if there is none for the URL
+     */
+    static synchronized EarlyFetch claim(String url) {
+        EarlyFetch fetch = sInstance;
+        if (fetch == null) {
+            return null;
+        }
+        if (SystemClock.uptimeMillis() - fetch.mStartedAt > CLAIM_TIMEOUT_MS) {
+            sInstance = null;
+            return null;
+        }
+        try {
+            // The URL is built first thing, this doesn't wait for the network
+            fetch.mUrlBuilt.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        if (!url.equals(fetch.mUrl)) {
+            return null;
+        }
+        sInstance = null;
+        return fetch;
+    }
+
+    /**
+     * Wait for the sync to finish.
+     * @param cancellation cancels the sync, may be null
+     * @param listener gets the rows parsed so far right away, and the rest as they arrive;
+     *                 may be null
+     * @throws FetchException if the sync failed or was canceled
+     */
+    void await(Cancellation cancellation, QueryUtils.RowListener listener) throws FetchException {
+        mRelay.attach(listener);
+        if (cancellation != null) {
+            cancellation.setOnCancelListener(new Cancellation.OnCancelListener() {
+                @Override
+                public void onCancel() {
+                    mCancellation.cancel();
+                }
+            });
+        }
+        try {
+            mTask.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FetchException(FetchException.Reason.CANCELED, "Interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof FetchException) {
+                throw (FetchException) e.getCause();
+            }
+            Log.e(LOG_TAG, "The early sync failed", e);
+            throw new FetchException(FetchException.Reason.NETWORK, "The early sync failed", e.getCause());
+        } finally {
+            if (cancellation != null) {
+                cancellation.setOnCancelListener(null);
+            }
+            mRelay.attach(null);
+        }
+    }
+
+    /**
+     * Keeps the rows parsed while no listener is attached and replays them to the next one.
+     */
+    private static final class Relay implements QueryUtils.RowListener {
+        private EarthquakeTable mParsed = new EarthquakeTable();
+        private QueryUtils.RowListener mListener;
+
+        @Override
+        public synchronized void onRowsParsed(EarthquakeTable earthquakes, int from) {
+            if (mListener != null) {
+                mListener.onRowsParsed(earthquakes, from);
+            } else {
+                for (int row = from; row < earthquakes.size(); row++) {
+                    mParsed.add(earthquakes, row);
+                }
+            }
+        }
+
+        synchronized void attach(QueryUtils.RowListener listener) {
+            mListener = listener;
+            if (listener != null && mParsed.size() > 0) {
+                listener.onRowsParsed(mParsed, 0);
+                mParsed = new EarthquakeTable();
+            }
+        }
+    }
+}
@@ -26,27 +26,32 @@ import android.os.AsyncTask;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ArrayAdapter;
-import android.widget.ListView;
 import android.app.LoaderManager;
 import android.app.LoaderManager.LoaderCallbacks;
 import android.content.Loader;
 import android.widget.ProgressBar;
+import android.widget.SearchView;
 import android.widget.TextView;
+import android.widget.Toast;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 
 public class EarthquakeActivity extends AppCompatActivity implements LoaderCallbacks<List<Info>> {
 
     public static final String LOG_TAG = EarthquakeActivity.class.getName();
     //private static final String USGS_REQUEST_URL = "http://earthquake.usgs.gov/fdsnws/event/1/query?format=geojson&starttime=2016-01-01&minmag=6&limit=15";
 
-    private static final String USGS_REQUEST_URL = "http://earthquake.usgs.gov/fdsnws/event/1/query";
+    private static final String USGS_REQUEST_URL = FdsnEventSource.USGS.getQueryUrl();
 
 
     /**
@@ -57,25 +62,64 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderCallb
     /** TextView that is displayed when the list is empty */
     private TextView mEmptyStateTextView;
     private TextView mNoInternetTextView;
+    /** Whichever of the two views above is shown when the list is empty */
+    private View mEmptyView;
     private InfoAdapter adapter;
     private ProgressBar mbar;
+    /** Pages of the current query, the data behind {@link #adapter} */
+    private EarthquakePager mPager;
+    /** Polls for live changes while the activity is started, null if live updates are off */
+    private LiveFeed mLiveFeed;
+    /** USGS query URL of the list, without offset and limit */
+    private String mQueryUrl;
+    /** Filter and sort order of the current query */
+    private EarthquakeQuery mQuery;
+    /** Index over the places of the stored earthquakes of the query, built on the first search
+     * or nearby filter; the rows loaded and changed since are added to it */
+    private LocationIndex mLocationIndex;
+    /** Index over the locations of the rows of mLocationIndex, for the nearby filter */
+    private SpatialIndex mSpatialIndex;
+    private AsyncTask<String, Void, LocationIndex> mLocationIndexTask;
+    /** Live changes that came in while mLocationIndexTask was running, applied once it is done */
+    private final List<Runnable> mPendingIndexUpdates = new ArrayList<>();
+    /** Text in the search box */
+    private String mSearchText = "";
+    /** Whether the list is filtered to the earthquakes near home */
+    private boolean mNearbyOn;
+    /** Stored earthquakes of the query near home, shown while no search is typed, or null */
+    private List<Info> mNearby;
+    /** Fetches the details of the visible rows ahead of a tap, null without a network */
+    private DetailPrefetcher mDetailPrefetcher;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.earthquake_activity);
-        // Find a reference to the {@link ListView} in the layout
-        ListView earthquakeListView = (ListView) findViewById(R.id.list);
-        // Create a new {@link ArrayAdapter} of earthquakes
-        adapter = new InfoAdapter(this, new ArrayList<Info>());
-        // Set the adapter on the {@link ListView}
-        // so the list can be populated in the user interface
-        earthquakeListView.setAdapter(adapter);
-        earthquakeListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        // Find a reference to the {@link RecyclerView} in the layout
+        RecyclerView earthquakeListView = (RecyclerView) findViewById(R.id.list);
+        final LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        earthquakeListView.setLayoutManager(layoutManager);
+        // Create the pager for the current query and a new {@link InfoAdapter} over its pages. The
+        // early sync has built the query off the main thread at process start already.
+        EarlyFetch.Query early = EarlyFetch.takeQuery();
+        mQueryUrl = early != null ? early.url : buildQueryUrl(this);
+        int pageSize = early != null ? early.pageSize : getPageSize(this);
+        mQuery = EarthquakeQuery.fromUrl(mQueryUrl);
+        mPager = new EarthquakePager(mQueryUrl, pageSize, EarthquakePager.DEFAULT_MAX_PAGES,
+                new EarthquakePager.Listener() {
+                    @Override
+                    public void onPageLoaded(int positionStart, int itemCount, int previousCount) {
+                        adapter.onPageLoaded(positionStart, itemCount, previousCount);
+                    }
+                });
+        adapter = new InfoAdapter(this, mPager, new InfoAdapter.OnItemClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int position, long l) {
-                // Find the current earthquake that was clicked on
-                Info currentInfo = adapter.getItem(position);
+            public void onItemClick(Info currentInfo) {
+                // USGS events have a detail feed, which is likely prefetched already
+                if (EventDetail.isAvailable(currentInfo)) {
+                    startActivity(DetailActivity.newIntent(EarthquakeActivity.this, currentInfo));
+                    return;
+                }
                 // Convert the String URL into a URI object (to pass into the Intent constructor)
                 Uri earthquakeUri = Uri.parse(currentInfo.getUrl());
                 // Create a new intent to view the earthquake URI
@@ -84,7 +128,60 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderCallb
                 startActivity(websiteIntent);
             }
         });
+        // Set the adapter on the {@link RecyclerView}
+        // so the list can be populated in the user interface
+        earthquakeListView.setAdapter(adapter);
+        earthquakeListView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                // Prefetch the next page near the end and drop pages far off screen
+                int firstVisibleItem = layoutManager.findFirstVisibleItemPosition();
+                // Search results aren't paged
+                if (firstVisibleItem != RecyclerView.NO_POSITION && !adapter.isFiltered()) {
+                    mPager.onVisibleRange(firstVisibleItem, layoutManager.findLastVisibleItemPosition());
+                }
+                if (mDetailPrefetcher != null && mDetailPrefetcher.isNewRange(firstVisibleItem,
+                        layoutManager.findLastVisibleItemPosition())) {
+                    prefetchDetails(layoutManager);
+                }
+            }
+        });
+        // Rows that show up without a scroll, e.g. the first page, are prefetched once laid out
+        final RecyclerView listView = earthquakeListView;
+        final Runnable prefetchVisibleDetails = new Runnable() {
+            @Override
+            public void run() {
+                prefetchDetails(layoutManager);
+            }
+        };
+        // RecyclerView has no empty view of its own, so show it whenever the adapter is empty
+        adapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                updateEmptyView();
+                listView.post(prefetchVisibleDetails);
+            }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                updateEmptyView();
+                listView.post(prefetchVisibleDetails);
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+        });
+
 
+        // Show the result of the last run right away; the first paint doesn't wait for the
+        // connectivity check or the network. A single read of a small file, the loader replaces
+        // it with fresh rows.
+        Snapshot snapshot = Snapshot.read(Snapshot.getFile(this));
+        if (snapshot != null && snapshot.getUrl().equals(mPager.getPageUrl(0))) {
+            adapter.setFirstPage(snapshot.getEarthquakes());
+        }
 
         ConnectivityManager connMgr = (ConnectivityManager)
                 getSystemService(Context.CONNECTIVITY_SERVICE);
@@ -103,27 +200,280 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderCallb
 
             // set the screen to "No Earthquakes found" TextView when there is no data fetched from USGS
             mEmptyStateTextView = (TextView) findViewById(R.id.empty_view);
-            earthquakeListView.setEmptyView(mEmptyStateTextView);
+            mEmptyView = mEmptyStateTextView;
 
-            // show the progress bar during fetching data
+            mDetailPrefetcher = new DetailPrefetcher();
+
+            // show the progress bar during fetching data, unless the snapshot is already shown
             mbar = (ProgressBar) findViewById(R.id.progressBar);
+            if (adapter.getItemCount() > 0) {
+                mbar.setVisibility(View.GONE);
+            }
+
+            // merge live changes into the list while it is on screen
+            SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(this);
+            if (sharedPrefs.getBoolean(getString(R.string.settings_live_updates_key),
+                    getResources().getBoolean(R.bool.settings_live_updates_default))) {
+                mLiveFeed = new LiveFeed(this, new LiveFeed.Listener() {
+                    @Override
+                    public void onDelta(EarthquakeTable changed, Set<String> removedIds) {
+                        adapter.applyDelta(changed, removedIds, mQuery);
+                        updateLocationIndex(changed, removedIds);
+                        if (mNearbyOn) {
+                            updateNearby();
+                        }
+                        if (adapter.isFiltered()) {
+                            search(mSearchText);
+                        }
+                    }
+                });
+            }
         } else {
             // display error
             mNoInternetTextView = (TextView) findViewById(R.id.no_internet_view);
             mNoInternetTextView.setText("No Internet.");
-            earthquakeListView.setEmptyView(mNoInternetTextView);
+            mEmptyView = mNoInternetTextView;
 
             mbar = (ProgressBar) findViewById(R.id.progressBar);
             mbar.setVisibility(View.GONE);
         }
+        updateEmptyView();
+    }
+
+    /**
+     * Show the empty view in place of the list while it has no rows.
+     */
+    private void updateEmptyView() {
+        if (mEmptyView != null) {
+            mEmptyView.setVisibility(adapter.getItemCount() == 0 ? View.VISIBLE : View.GONE);
+        }
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        if (mLiveFeed != null) {
+            mLiveFeed.start();
+        }
+        if (mNearbyOn) {
+            // The home location or radius may have changed in the settings
+            if (!updateNearby()) {
+                mNearbyOn = false;
+                mNearby = null;
+                invalidateOptionsMenu();
+            }
+            search(mSearchText);
+        }
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        if (mLiveFeed != null) {
+            mLiveFeed.stop();
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // Don't keep loading pages for a list that is gone
+        mPager.clearPages();
+        if (mLocationIndexTask != null) {
+            mLocationIndexTask.cancel(false);
+        }
+        if (mDetailPrefetcher != null) {
+            mDetailPrefetcher.cancelAll();
+            // A prefetch posted by the list is dropped
+            mDetailPrefetcher = null;
+        }
+    }
+
+    /**
+     * Prefetch the details of the rows on screen, and stop prefetching the ones that left.
+     */
+    private void prefetchDetails(LinearLayoutManager layoutManager) {
+        if (mDetailPrefetcher == null) {
+            return;
+        }
+        int first = layoutManager.findFirstVisibleItemPosition();
+        int last = layoutManager.findLastVisibleItemPosition();
+        List<Info> rows = new ArrayList<>();
+        if (first != RecyclerView.NO_POSITION) {
+            for (int position = first; position <= last; position++) {
+                rows.add(adapter.getItem(position));
+            }
+        }
+        mDetailPrefetcher.onVisibleRange(first, last, rows);
+    }
+
+    /**
+     * Adds the load metrics to {@code adb shell dumpsys activity com.example.android.quakereport}.
+     */
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        LoadMetrics.dump(prefix, writer);
     }
 
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.main, menu);
+        menu.findItem(R.id.action_nearby).setChecked(mNearbyOn);
+        SearchView searchView = (SearchView) menu.findItem(R.id.action_search).getActionView();
+        searchView.setQueryHint(getString(R.string.search_hint));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String text) {
+                // The list is already filtered while typing
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String text) {
+                search(text);
+                return true;
+            }
+        });
         return true;
     }
 
+    /**
+     * Filter the list to the earthquakes whose place matches the text, or show every one again
+     * if it is empty.
+     */
+    private void search(String text) {
+        mSearchText = text.trim();
+        if (mSearchText.isEmpty()) {
+            // Back to the earthquakes near home if that filter is on, otherwise to every one
+            if (adapter.isFiltered() || mNearby != null) {
+                adapter.setFilter(mNearby);
+            }
+            return;
+        }
+        if (mLocationIndex == null) {
+            // The text is applied once the index is built
+            loadLocationIndex();
+            return;
+        }
+        // Rows added since the index was built come after the others in the table
+        List<Info> matches = new ArrayList<>(mLocationIndex.searchList(mSearchText));
+        Collections.sort(matches, mQuery.getComparator());
+        adapter.setFilter(matches);
+    }
+
+    /**
+     * Build the indexes over every stored earthquake of the query, not just the loaded pages.
+     * They are built once, the query of the activity doesn't change; loads and live changes are
+     * added to them.
+     */
+    private void loadLocationIndex() {
+        if (mLocationIndexTask != null) {
+            return;
+        }
+        mLocationIndexTask = new AsyncTask<String, Void, LocationIndex>() {
+            private SpatialIndex mSpatial;
+
+            @Override
+            protected LocationIndex doInBackground(String... urls) {
+                EarthquakeTable earthquakes = EarthquakeStore.getInstance(EarthquakeActivity.this).query(urls[0]);
+                // Rows the location index appends are picked up by the spatial index's update()
+                mSpatial = new SpatialIndex(earthquakes);
+                return new LocationIndex(earthquakes);
+            }
+
+            @Override
+            protected void onPostExecute(LocationIndex index) {
+                mLocationIndexTask = null;
+                mLocationIndex = index;
+                mSpatialIndex = mSpatial;
+                // The rows loaded meanwhile may not have been stored when the store was read
+                addToLocationIndex(mPager.getFirstPage());
+                for (Runnable update : mPendingIndexUpdates) {
+                    update.run();
+                }
+                mPendingIndexUpdates.clear();
+                if (mNearbyOn) {
+                    updateNearby();
+                }
+                search(mSearchText);
+            }
+        }.execute(mQueryUrl);
+    }
+
+    /**
+     * Add the delivered rows to the search index; the ones it has unchanged are skipped.
+     * @param earthquakes may be null
+     */
+    private void addToLocationIndex(List<Info> earthquakes) {
+        if (mLocationIndex == null || earthquakes == null) {
+            return;
+        }
+        for (int i = 0; i < earthquakes.size(); i++) {
+            Info earthquake = earthquakes.get(i);
+            mLocationIndex.put(earthquake.getTable(), earthquake.getRow());
+        }
+    }
+
+    /**
+     * Set the earthquakes near home, which {@link #search} shows while no text is typed, to the
+     * indexed earthquakes of the query within the nearby radius of the home location. They are
+     * looked up in the {@link SpatialIndex} on this thread, so a new radius or home applies at
+     * once; until the index is built it is built, and they are set then.
+     * @return false if no home location is set
+     */
+    private boolean updateNearby() {
+        SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(this);
+        double[] home = AlertRules.parseLocation(sharedPrefs.getString(
+                getString(R.string.settings_alert_location_key), ""));
+        if (home == null) {
+            return false;
+        }
+        if (mSpatialIndex == null) {
+            loadLocationIndex();
+            return true;
+        }
+        int[] rows = mSpatialIndex.queryRadius(home[0], home[1], getNearbyRadiusKm(this));
+        EarthquakeTable table = mSpatialIndex.getTable();
+        List<Info> nearby = new ArrayList<>(rows.length);
+        for (int row : rows) {
+            // Rows of events that were replaced or removed stay in the spatial index
+            if (mLocationIndex.isLatest(row)) {
+                nearby.add(table.get(row));
+            }
+        }
+        Collections.sort(nearby, mQuery.getComparator());
+        mNearby = nearby;
+        return true;
+    }
+
+    /**
+     * Keep the search index in step with live changes.
+     */
+    private void updateLocationIndex(final EarthquakeTable changed, final Set<String> removedIds) {
+        if (mLocationIndex == null) {
+            if (mLocationIndexTask != null) {
+                mPendingIndexUpdates.add(new Runnable() {
+                    @Override
+                    public void run() {
+                        updateLocationIndex(changed, removedIds);
+                    }
+                });
+            }
+            return;
+        }
+        for (int row = 0; row < changed.size(); row++) {
+            if (mQuery.matches(changed.get(row))) {
+                mLocationIndex.put(changed, row);
+            } else {
+                mLocationIndex.remove(changed.getId(row));
+            }
+        }
+        for (String eventId : removedIds) {
+            mLocationIndex.remove(eventId);
+        }
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         int id = item.getItemId();
@@ -132,6 +482,27 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderCallb
             startActivity(settingsIntent);
             return true;
         }
+        if (id == R.id.action_stats) {
+            startActivity(new Intent(this, StatsActivity.class));
+            return true;
+        }
+        if (id == R.id.action_nearby) {
+            mNearbyOn = !item.isChecked();
+            if (mNearbyOn && !updateNearby()) {
+                mNearbyOn = false;
+                Toast.makeText(this, R.string.nearby_no_home, Toast.LENGTH_LONG).show();
+            }
+            if (!mNearbyOn) {
+                mNearby = null;
+            }
+            item.setChecked(mNearbyOn);
+            search(mSearchText);
+            return true;
+        }
+        if (id == R.id.action_map) {
+            startActivity(new Intent(this, MapActivity.class));
+            return true;
+        }
         return super.onOptionsItemSelected(item);
     }
 
@@ -145,26 +516,80 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderCallb
 
     @Override
     public Loader<List<Info>> onCreateLoader(int i, Bundle bundle) {
+        // The loader takes care of the first page, the pager of the ones after it
+        return new InfoLoader(this, mPager.getPageUrl(0), getExtraSources());
+    }
 
+    /**
+     * @return the networks besides USGS whose events the settings ask for
+     */
+    private List<EventSource> getExtraSources() {
         SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(this);
+        List<EventSource> sources = new ArrayList<>();
+        if (sharedPrefs.getBoolean(getString(R.string.settings_extra_sources_key),
+                getResources().getBoolean(R.bool.settings_extra_sources_default))) {
+            sources.add(FdsnEventSource.EMSC);
+        }
+        return sources;
+    }
+
+    /**
+     * @return the USGS query URL for the current settings, without offset and limit
+     */
+    static String buildQueryUrl(Context context) {
+
+        SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(context);
         String minMagnitude = sharedPrefs.getString(
-                getString(R.string.settings_min_magnitude_key),
-                getString(R.string.settings_min_magnitude_default));
+                context.getString(R.string.settings_min_magnitude_key),
+                context.getString(R.string.settings_min_magnitude_default));
 
         String orderBy = sharedPrefs.getString(
-                getString(R.string.settings_order_by_key),
-                getString(R.string.settings_order_by_default)
+                context.getString(R.string.settings_order_by_key),
+                context.getString(R.string.settings_order_by_default)
         );
 
         Uri baseUri = Uri.parse(USGS_REQUEST_URL);
         Uri.Builder uriBuilder = baseUri.buildUpon();
 
-        uriBuilder.appendQueryParameter("format", "geojson");
-        uriBuilder.appendQueryParameter("limit", "10");
+        // csv carries only the fields the list shows; QueryUtils falls back to GeoJSON
+        uriBuilder.appendQueryParameter("format", sharedPrefs.getString(
+                context.getString(R.string.settings_format_key),
+                context.getString(R.string.settings_format_default)));
         uriBuilder.appendQueryParameter("minmag", minMagnitude);
         uriBuilder.appendQueryParameter("orderby", orderBy);
 
-        return new InfoLoader(this, uriBuilder.toString());
+        return uriBuilder.toString();
+    }
+
+    /**
+     * @return the radius of the "near home" filter from the settings
+     */
+    static double getNearbyRadiusKm(Context context) {
+        SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String radius = sharedPrefs.getString(
+                context.getString(R.string.settings_nearby_radius_key),
+                context.getString(R.string.settings_nearby_radius_default));
+        try {
+            return Math.max(Double.parseDouble(radius.trim()), 0);
+        } catch (NumberFormatException e) {
+            return Double.parseDouble(context.getString(R.string.settings_nearby_radius_default));
+        }
+    }
+
+    /**
+     * @return the number of earthquakes per page from the settings
+     */
+    static int getPageSize(Context context) {
+        SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String pageSize = sharedPrefs.getString(
+                context.getString(R.string.settings_page_size_key),
+                context.getString(R.string.settings_page_size_default));
+        try {
+            // USGS won't return more than 20000 events per query
+            return Math.min(Math.max(Integer.parseInt(pageSize.trim()), 1), 20000);
+        } catch (NumberFormatException e) {
+            return Integer.parseInt(context.getString(R.string.settings_page_size_default));
+        }
     }
 
 
@@ -172,22 +597,25 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderCallb
     @Override
     public void onLoadFinished(Loader<List<Info>> loader, List<Info> earthquakes) {
         mbar.setVisibility(View.GONE);
-        // Set empty state text to display "No earthquakes found"
-        mEmptyStateTextView.setText(R.string.empty_string);
-        // Clear the adapter of previous earthquake data
-        adapter.clear();
-
-        // If there is a valid list of {@link Info}s, then add them to the adapter's data set.
-        // This will trigger the ListView to update
-        if (earthquakes != null && !earthquakes.isEmpty()) {
-            adapter.addAll(earthquakes);
+        // Set empty state text to display "No earthquakes found", unless they couldn't be fetched
+        mEmptyStateTextView.setText(((InfoLoader) loader).getError() != null
+                ? R.string.fetch_failed : R.string.empty_string);
+        // Replace the first page with the delivered one; the pages the user scrolled to stay.
+        // Only the rows whose event changed get rebound.
+        adapter.setFirstPage(earthquakes);
+        addToLocationIndex(earthquakes);
+        if (mNearbyOn) {
+            updateNearby();
+        }
+        if (mLocationIndex != null && adapter.isFiltered()) {
+            search(mSearchText);
         }
     }
 
     @Override
     public void onLoaderReset(Loader<List<Info>> loader) {
         // Loader reset, so we can clear out our existing data.
-        adapter.clear();
+        adapter.setFirstPage(null);
     }
 
 
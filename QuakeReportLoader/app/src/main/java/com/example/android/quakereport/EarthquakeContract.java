@@ -0,0 +1,82 @@
+package com.example.android.quakereport;
+
+import android.provider.BaseColumns;
+
+/**
+ * API Contract for the on-device earthquake store.
+ */
+public final class EarthquakeContract {
+
+    // To prevent someone from accidentally instantiating the contract class,
+    // give it an empty constructor.
+    private EarthquakeContract() {}
+
+    /**
+     * Inner class that defines constant values for the earthquakes database table.
+     * Each entry in the table represents a single USGS event, keyed by its event id.
+     */
+    public static final class EarthquakeEntry implements BaseColumns {
+
+        /** Name of database table for earthquakes */
+        public final static String TABLE_NAME = "earthquakes";
+
+        /** USGS event id, e.g. "us10006jxs". Type: TEXT, unique */
+        public final static String COLUMN_EVENT_ID = "event_id";
+
+        /** Place description, e.g. "85km SSW of Tokyo, Japan". Type: TEXT */
+        public final static String COLUMN_PLACE = "place";
+
+        /** Magnitude of the earthquake. Type: REAL */
+        public final static String COLUMN_MAG = "mag";
+
+        /** Origin time in milliseconds since the epoch. Type: INTEGER */
+        public final static String COLUMN_TIME = "time";
+
+        /** Time USGS last updated the event, in milliseconds since the epoch. Type: INTEGER */
+        public final static String COLUMN_UPDATED = "updated";
+
+        /** USGS event page. Type: TEXT */
+        public final static String COLUMN_URL = "url";
+
+        /** Latitude in degrees. Type: REAL */
+        public final static String COLUMN_LATITUDE = "latitude";
+
+        /** Longitude in degrees. Type: REAL */
+        public final static String COLUMN_LONGITUDE = "longitude";
+
+        /** Depth in km. Type: REAL */
+        public final static String COLUMN_DEPTH = "depth";
+    }
+
+    /**
+     * Inner class that defines constant values for the sync state table.
+     * Each entry remembers when a query was last synced with USGS.
+     */
+    public static final class SyncEntry implements BaseColumns {
+
+        /** Name of database table for sync state */
+        public final static String TABLE_NAME = "sync_state";
+
+        /** Query URL, without the updatedafter parameter. Type: TEXT, unique */
+        public final static String COLUMN_QUERY = "query";
+
+        /** Time of the last successful sync, in milliseconds since the epoch. Type: INTEGER */
+        public final static String COLUMN_LAST_SYNC = "last_sync";
+    }
+
+    /**
+     * Inner class that defines constant values for the alerted events table.
+     * Each entry remembers an event that a notification was shown for.
+     */
+    public static final class AlertEntry implements BaseColumns {
+
+        /** Name of database table for alerted events */
+        public final static String TABLE_NAME = "alerted";
+
+        /** USGS event id. Type: TEXT, unique */
+        public final static String COLUMN_EVENT_ID = "event_id";
+
+        /** Time of the alert, in milliseconds since the epoch. Type: INTEGER */
+        public final static String COLUMN_ALERTED_AT = "alerted_at";
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import com.example.android.quakereport.EarthquakeContract.AlertEntry;
+import com.example.android.quakereport.EarthquakeContract.EarthquakeEntry;
+import com.example.android.quakereport.EarthquakeContract.SyncEntry;
+
+/**
+ * Database helper for the earthquake store. Manages database creation and version management.
+ */
+public class EarthquakeDbHelper extends SQLiteOpenHelper {
+
+    /** Name of the database file */
+    private static final String DATABASE_NAME = "earthquakes.db";
+
+    /**
+     * Database version. If you change the database schema, you must increment the database version.
+     */
+    private static final int DATABASE_VERSION = 3;
+
+    public EarthquakeDbHelper(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    /**
+     * This is called when the database is created for the first time.
+     */
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + EarthquakeEntry.TABLE_NAME + " ("
+                + EarthquakeEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + EarthquakeEntry.COLUMN_EVENT_ID + " TEXT NOT NULL UNIQUE, "
+                + EarthquakeEntry.COLUMN_PLACE + " TEXT, "
+                + EarthquakeEntry.COLUMN_MAG + " REAL, "
+                + EarthquakeEntry.COLUMN_TIME + " INTEGER NOT NULL, "
+                + EarthquakeEntry.COLUMN_UPDATED + " INTEGER NOT NULL, "
+                + EarthquakeEntry.COLUMN_URL + " TEXT, "
+                + EarthquakeEntry.COLUMN_LATITUDE + " REAL, "
+                + EarthquakeEntry.COLUMN_LONGITUDE + " REAL, "
+                + EarthquakeEntry.COLUMN_DEPTH + " REAL);");
+
+        // Indices for the sort orders and filters the app queries with
+        db.execSQL("CREATE INDEX idx_earthquakes_time ON " + EarthquakeEntry.TABLE_NAME
+                + " (" + EarthquakeEntry.COLUMN_TIME + ");");
+        db.execSQL("CREATE INDEX idx_earthquakes_mag ON " + EarthquakeEntry.TABLE_NAME
+                + " (" + EarthquakeEntry.COLUMN_MAG + ");");
+        db.execSQL("CREATE INDEX idx_earthquakes_updated ON " + EarthquakeEntry.TABLE_NAME
+                + " (" + EarthquakeEntry.COLUMN_UPDATED + ");");
+
+        db.execSQL("CREATE TABLE " + SyncEntry.TABLE_NAME + " ("
+                + SyncEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + SyncEntry.COLUMN_QUERY + " TEXT NOT NULL UNIQUE, "
+                + SyncEntry.COLUMN_LAST_SYNC + " INTEGER NOT NULL);");
+
+        db.execSQL("CREATE TABLE " + AlertEntry.TABLE_NAME + " ("
+                + AlertEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + AlertEntry.COLUMN_EVENT_ID + " TEXT NOT NULL UNIQUE, "
+                + AlertEntry.COLUMN_ALERTED_AT + " INTEGER NOT NULL);");
+    }
+
+    /**
+     * This is called when the database needs to be upgraded.
+     */
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // The store only caches USGS data, so it can simply be rebuilt. Forgetting the alerted
+        // events at worst repeats an alert.
+        db.execSQL("DROP TABLE IF EXISTS " + EarthquakeEntry.TABLE_NAME);
+        db.execSQL("DROP TABLE IF EXISTS " + SyncEntry.TABLE_NAME);
+        db.execSQL("DROP TABLE IF EXISTS " + AlertEntry.TABLE_NAME);
+        onCreate(db);
+    }
+}
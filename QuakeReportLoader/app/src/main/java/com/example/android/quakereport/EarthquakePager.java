@@ -0,0 +1,358 @@
+package com.example.android.quakereport;
+
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.util.SparseArray;
+
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * Pages through a USGS query with the FDSN offset/limit parameters.
+ *
+ * The pager is the list backing {@link InfoAdapter}: its size is the number of rows loaded so
+ * far, and {@link #get(int)} returns null for rows whose page has been evicted (the page is
+ * fetched again in the background). The next page is prefetched when the list scrolls near the
+ * end, and only a bounded number of pages around the visible rows are kept in memory.
+ *
+ * The first page may hold more rows than a page, the events of other sources merged into it;
+ * the later pages start that many rows further down.
+ */
+public class EarthquakePager extends AbstractList<Info> {
+
+    /**
+     * Called on the main thread when a page is loaded, so the adapter can refresh its rows.
+     */
+    public interface Listener {
+        /**
+         * @param positionStart first row of the page
+         * @param itemCount number of rows in the page
+         * @param previousCount number of rows before the page was loaded
+         */
+        void onPageLoaded(int positionStart, int itemCount, int previousCount);
+    }
+
+    /** Default number of pages kept in memory */
+    public static final int DEFAULT_MAX_PAGES = 5;
+
+    /** Query URL without offset and limit */
+    private final String mBaseUrl;
+    private final int mPageSize;
+    private final int mMaxPages;
+    private final Listener mListener;
+
+    /** Loaded pages by page index */
+    private final SparseArray<List<Info>> mPages = new SparseArray<>();
+    /** Pages with a load in flight */
+    private final SparseArray<PageTask> mLoading = new SparseArray<>();
+
+    /** Number of rows known so far, including the ones on evicted pages */
+    private int mCount;
+    /** Rows of the first page beyond the page size */
+    private int mFirstPageExtra;
+    /** Whether the last page of the query has been seen */
+    private boolean mEndReached;
+
+    private int mFirstVisiblePage;
+    private int mLastVisiblePage;
+
+    public EarthquakePager(String baseUrl, int pageSize, int maxPages, Listener listener) {
+        mBaseUrl = baseUrl;
+        mPageSize = Math.max(1, pageSize);
+        mMaxPages = Math.max(2, maxPages);
+        mListener = listener;
+    }
+
+    /**
+     * @return the query URL for the given page (0-based)
+     */
+    public String getPageUrl(int page) {
+        return getPageUrl(mBaseUrl, mPageSize, page);
+    }
+
+    /**
+     * @return the query URL for the given page (0-based) of a query, without a pager
+     */
+    public static String getPageUrl(String baseUrl, int pageSize, int page) {
+        return Uri.parse(baseUrl).buildUpon()
+                .appendQueryParameter("offset", String.valueOf(page * pageSize + 1))
+                .appendQueryParameter("limit", String.valueOf(pageSize))
+                .build().toString();
+    }
+
+    /**
+     * Replace the first page with a newly delivered one, e.g. after the loader refreshed it,
+     * keeping the pages the user scrolled to. If the first page now holds other events, the rows
+     * of the later pages may have shifted, so the ones in memory are fetched again and stay
+     * shown until then. Null drops every page, e.g. because the query changed.
+     */
+    public void setFirstPage(List<Info> earthquakes) {
+        if (earthquakes == null) {
+            clearPages();
+            return;
+        }
+        PageTask loading = mLoading.get(0);
+        if (loading != null) {
+            loading.cancelLoad();
+            mLoading.remove(0);
+        }
+        List<Info> oldFirstPage = mPages.get(0);
+        mPages.put(0, earthquakes);
+        int oldExtra = mFirstPageExtra;
+        mFirstPageExtra = Math.max(0, earthquakes.size() - mPageSize);
+
+        if (earthquakes.size() < mPageSize) {
+            // The query ends on the first page
+            for (int i = mLoading.size() - 1; i >= 0; i--) {
+                mLoading.valueAt(i).cancelLoad();
+            }
+            mLoading.clear();
+            for (int i = mPages.size() - 1; i >= 0; i--) {
+                if (mPages.keyAt(i) > 0) {
+                    mPages.removeAt(i);
+                }
+            }
+            mCount = earthquakes.size();
+            mEndReached = true;
+            return;
+        }
+
+        if (mCount <= mPageSize + oldExtra) {
+            // Nothing is known past the first page yet
+            mEndReached = false;
+        }
+        // The later pages move with the end of the first one
+        mCount = Math.max(mCount + mFirstPageExtra - oldExtra, earthquakes.size());
+        if (!hasSameEvents(oldFirstPage, earthquakes)) {
+            for (int i = 0; i < mPages.size(); i++) {
+                int page = mPages.keyAt(i);
+                if (page > 0 && mLoading.get(page) == null) {
+                    startLoad(page);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return whether both pages hold the same events in the same order
+     */
+    private static boolean hasSameEvents(List<Info> a, List<Info> b) {
+        if (a == null || a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            String id = a.get(i).getId();
+            if (id == null || !id.equals(b.get(i).getId())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Replace the first page in place, e.g. after live updates were merged into it. Inserts and
+     * removals shift the offsets of every later page, so those are dropped and fetched again
+     * when they are next on screen; the number of rows stays the same.
+     */
+    public void replaceFirstPage(List<Info> earthquakes) {
+        // A first page that lost rows while more pages exist is missing the rows that moved up
+        // from the second page, so it is fetched again to fill it
+        boolean shortened = earthquakes.size() < mPageSize && mCount > earthquakes.size();
+
+        for (int i = 0; i < mLoading.size(); i++) {
+            mLoading.valueAt(i).cancelLoad();
+        }
+        mLoading.clear();
+        mPages.clear();
+        mPages.put(0, earthquakes);
+        int oldExtra = mFirstPageExtra;
+        mFirstPageExtra = Math.max(0, earthquakes.size() - mPageSize);
+        if (shortened) {
+            startLoad(0);
+        } else {
+            mEndReached = earthquakes.size() < mPageSize;
+            mCount = mEndReached ? earthquakes.size()
+                    : Math.max(mCount + mFirstPageExtra - oldExtra, earthquakes.size());
+        }
+    }
+
+    /**
+     * @return the rows of the first page, or null if it isn't loaded
+     */
+    public List<Info> getFirstPage() {
+        return mPages.get(0);
+    }
+
+    public int getPageSize() {
+        return mPageSize;
+    }
+
+    /**
+     * Drop every page and cancel the loads in flight.
+     */
+    public void clearPages() {
+        for (int i = 0; i < mLoading.size(); i++) {
+            mLoading.valueAt(i).cancelLoad();
+        }
+        mLoading.clear();
+        mPages.clear();
+        mCount = 0;
+        mFirstPageExtra = 0;
+        mEndReached = false;
+        mFirstVisiblePage = 0;
+        mLastVisiblePage = 0;
+    }
+
+    /**
+     * Tell the pager which rows are on screen. Prefetches the next page when the list is near
+     * the end and evicts pages far from the visible ones.
+     */
+    public void onVisibleRange(int firstVisible, int lastVisible) {
+        mFirstVisiblePage = getPage(firstVisible, mPageSize, mFirstPageExtra);
+        mLastVisiblePage = Math.max(mFirstVisiblePage, getPage(lastVisible, mPageSize, mFirstPageExtra));
+
+        // Prefetch once the user is within half a page of the end
+        if (!mEndReached && mCount > 0 && lastVisible >= mCount - mPageSize / 2 - 1) {
+            loadPage(getPage(mCount - 1, mPageSize, mFirstPageExtra) + 1);
+        }
+        evictPages();
+    }
+
+    /**
+     * @return the earthquake at the given position, or null if its page is not in memory yet
+     */
+    @Override
+    public Info get(int position) {
+        int page = getPage(position, mPageSize, mFirstPageExtra);
+        List<Info> rows = mPages.get(page);
+        if (rows == null) {
+            loadPage(page);
+            return null;
+        }
+        int index = position - getPageStart(page, mPageSize, mFirstPageExtra);
+        return index < rows.size() ? rows.get(index) : null;
+    }
+
+    /**
+     * Like {@link #get(int)}, but doesn't load the page if it isn't in memory.
+     */
+    public Info peek(int position) {
+        int page = getPage(position, mPageSize, mFirstPageExtra);
+        List<Info> rows = mPages.get(page);
+        int index = position - getPageStart(page, mPageSize, mFirstPageExtra);
+        return rows != null && index < rows.size() ? rows.get(index) : null;
+    }
+
+    /**
+     * @param firstPageExtra rows of the first page beyond the page size
+     * @return the page the row at the position is on
+     */
+    static int getPage(int position, int pageSize, int firstPageExtra) {
+        return position < pageSize + firstPageExtra ? 0 : (position - firstPageExtra) / pageSize;
+    }
+
+    /**
+     * @param firstPageExtra rows of the first page beyond the page size
+     * @return the position of the first row of the page
+     */
+    static int getPageStart(int page, int pageSize, int firstPageExtra) {
+        return page == 0 ? 0 : page * pageSize + firstPageExtra;
+    }
+
+    @Override
+    public int size() {
+        return mCount;
+    }
+
+    private void loadPage(int page) {
+        if (mPages.get(page) != null || mLoading.get(page) != null) {
+            return;
+        }
+        startLoad(page);
+    }
+
+    private void startLoad(int page) {
+        PageTask task = new PageTask(page);
+        mLoading.put(page, task);
+        task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, getPageUrl(page));
+    }
+
+    private void putPage(int page, List<Info> earthquakes) {
+        mPages.put(page, earthquakes);
+        mCount = Math.max(mCount, getPageStart(page, mPageSize, mFirstPageExtra) + earthquakes.size());
+        if (earthquakes.size() < mPageSize) {
+            mEndReached = true;
+        }
+        evictPages();
+    }
+
+    /**
+     * Evict the pages farthest from the visible ones until at most mMaxPages are left.
+     */
+    private void evictPages() {
+        while (mPages.size() > mMaxPages) {
+            int farthest = -1;
+            int farthestDistance = -1;
+            for (int i = 0; i < mPages.size(); i++) {
+                int page = mPages.keyAt(i);
+                if (page == 0 && mFirstPageExtra > 0) {
+                    // Fetched again it would lack the merged rows the later pages are shifted by
+                    continue;
+                }
+                int distance = page < mFirstVisiblePage ? mFirstVisiblePage - page
+                        : (page > mLastVisiblePage ? page - mLastVisiblePage : 0);
+                if (distance > farthestDistance) {
+                    farthest = page;
+                    farthestDistance = distance;
+                }
+            }
+            if (farthestDistance <= 0) {
+                // Every page left is on screen
+                return;
+            }
+            mPages.remove(farthest);
+        }
+    }
+
+    /**
+     * Loads one page off the main thread.
+     */
+    private class PageTask extends AsyncTask<String, Void, List<Info>> {
+        private final int mPage;
+        private final Cancellation mCancellation = new Cancellation();
+
+        PageTask(int page) {
+            mPage = page;
+        }
+
+        /**
+         * Cancel the task and abort its request, which an interrupt alone doesn't.
+         */
+        void cancelLoad() {
+            cancel(true);
+            mCancellation.cancel();
+        }
+
+        @Override
+        protected List<Info> doInBackground(String... urls) {
+            return QueryUtils.fetchEarthquakeUpdates(urls[0], mCancellation);
+        }
+
+        @Override
+        protected void onPostExecute(List<Info> earthquakes) {
+            if (mLoading.get(mPage) != this) {
+                // Superseded by clearPages() or a newer load of the page
+                return;
+            }
+            mLoading.remove(mPage);
+            if (earthquakes == null) {
+                // The request failed, the page will be asked for again on the next scroll
+                return;
+            }
+            int previousCount = mCount;
+            putPage(mPage, earthquakes);
+            mListener.onPageLoaded(getPageStart(mPage, mPageSize, mFirstPageExtra),
+                    earthquakes.size(), previousCount);
+        }
+    }
+}
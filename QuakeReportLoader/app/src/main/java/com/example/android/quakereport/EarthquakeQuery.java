@@ -0,0 +1,76 @@
+package com.example.android.quakereport;
+
+import android.net.Uri;
+
+import java.util.Comparator;
+
+/**
+ * The filter and sort order of a USGS query URL, for applying them to events on the device.
+ */
+public final class EarthquakeQuery {
+
+    private final double mMinMagnitude;
+    private final String mOrderBy;
+
+    private EarthquakeQuery(double minMagnitude, String orderBy) {
+        mMinMagnitude = minMagnitude;
+        mOrderBy = orderBy;
+    }
+
+    /**
+     * Read the minmag and orderby parameters of a query URL.
+     */
+    public static EarthquakeQuery fromUrl(String requestUrl) {
+        Uri uri = Uri.parse(requestUrl);
+        double minMagnitude = Double.NEGATIVE_INFINITY;
+        String minMagnitudeParam = uri.getQueryParameter("minmag");
+        if (minMagnitudeParam != null) {
+            try {
+                minMagnitude = Double.parseDouble(minMagnitudeParam);
+            } catch (NumberFormatException e) {
+                // USGS would reject the query; don't filter on the device either
+            }
+        }
+        String orderBy = uri.getQueryParameter("orderby");
+        return new EarthquakeQuery(minMagnitude, orderBy != null ? orderBy : "time");
+    }
+
+    public double getMinMagnitude() {
+        return mMinMagnitude;
+    }
+
+    /**
+     * @return "time", "time-asc", "magnitude" or "magnitude-asc"
+     */
+    public String getOrderBy() {
+        return mOrderBy;
+    }
+
+    /**
+     * @return true if the event passes the filters of the query
+     */
+    public boolean matches(Info earthquake) {
+        // Like USGS, an event without a magnitude doesn't pass a minmag filter
+        return mMinMagnitude == Double.NEGATIVE_INFINITY || earthquake.getMag() >= mMinMagnitude;
+    }
+
+    /**
+     * @return the sort order of the query
+     */
+    public Comparator<Info> getComparator() {
+        final boolean byMagnitude = mOrderBy.startsWith("magnitude");
+        final boolean ascending = mOrderBy.endsWith("-asc");
+        return new Comparator<Info>() {
+            @Override
+            public int compare(Info a, Info b) {
+                int result = byMagnitude ? Double.compare(a.getMag(), b.getMag())
+                        : compareLongs(a.getTimeInMilliseconds(), b.getTimeInMilliseconds());
+                return ascending ? result : -result;
+            }
+        };
+    }
+
+    private static int compareLongs(long a, long b) {
+        return a < b ? -1 : (a > b ? 1 : 0);
+    }
+}
@@ -0,0 +1,360 @@
+package com.example.android.quakereport;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.util.Log;
+
+import com.example.android.quakereport.EarthquakeContract.AlertEntry;
+import com.example.android.quakereport.EarthquakeContract.EarthquakeEntry;
+import com.example.android.quakereport.EarthquakeContract.SyncEntry;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * On-device copy of the USGS events, so a load can show rows right away and then only ask
+ * USGS for the events that changed since the last sync.
+ */
+public final class EarthquakeStore {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = EarthquakeStore.class.getSimpleName();
+
+    /** USGS only returns the last 30 days unless a starttime is given, so the store does the same. */
+    private static final long QUERY_WINDOW_MS = 30L * 24 * 60 * 60 * 1000;
+
+    /** Largest result USGS will return for a single query. */
+    private static final int MAX_LIMIT = 20000;
+
+    private static EarthquakeStore sInstance;
+
+    private final EarthquakeDbHelper mDbHelper;
+
+    /** Statistics over every stored event, built on first use and then kept up to date */
+    private QuakeStats mStats;
+
+    private EarthquakeStore(Context context) {
+        mDbHelper = new EarthquakeDbHelper(context.getApplicationContext());
+    }
+
+    public static synchronized EarthquakeStore getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new EarthquakeStore(context);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Return the stored earthquakes matching the minmag, orderby and limit parameters of a
+     * USGS query URL.
+     */
+    public EarthquakeTable query(String requestUrl) {
+        Uri uri = Uri.parse(requestUrl);
+
+        String selection = EarthquakeEntry.COLUMN_TIME + " >= ?";
+        List<String> selectionArgs = new ArrayList<>();
+        selectionArgs.add(String.valueOf(System.currentTimeMillis() - QUERY_WINDOW_MS));
+        String minMagnitude = uri.getQueryParameter("minmag");
+        if (minMagnitude != null) {
+            selection += " AND " + EarthquakeEntry.COLUMN_MAG + " >= ?";
+            selectionArgs.add(minMagnitude);
+        }
+
+        String orderBy;
+        String orderByParam = uri.getQueryParameter("orderby");
+        if ("magnitude".equals(orderByParam)) {
+            orderBy = EarthquakeEntry.COLUMN_MAG + " DESC";
+        } else if ("magnitude-asc".equals(orderByParam)) {
+            orderBy = EarthquakeEntry.COLUMN_MAG + " ASC";
+        } else if ("time-asc".equals(orderByParam)) {
+            orderBy = EarthquakeEntry.COLUMN_TIME + " ASC";
+        } else {
+            orderBy = EarthquakeEntry.COLUMN_TIME + " DESC";
+        }
+
+        String limit = uri.getQueryParameter("limit");
+        if (limit == null) {
+            limit = String.valueOf(MAX_LIMIT);
+        }
+
+        String[] projection = {
+                EarthquakeEntry.COLUMN_EVENT_ID,
+                EarthquakeEntry.COLUMN_PLACE,
+                EarthquakeEntry.COLUMN_MAG,
+                EarthquakeEntry.COLUMN_TIME,
+                EarthquakeEntry.COLUMN_URL,
+                EarthquakeEntry.COLUMN_UPDATED,
+                EarthquakeEntry.COLUMN_LATITUDE,
+                EarthquakeEntry.COLUMN_LONGITUDE,
+                EarthquakeEntry.COLUMN_DEPTH};
+
+        EarthquakeTable earthquakes = new EarthquakeTable();
+        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+        Cursor cursor = db.query(EarthquakeEntry.TABLE_NAME, projection, selection,
+                selectionArgs.toArray(new String[selectionArgs.size()]), null, null, orderBy, limit);
+        try {
+            while (cursor.moveToNext()) {
+                earthquakes.add(cursor.getString(0), cursor.getString(1),
+                        getDouble(cursor, 2), cursor.getLong(3),
+                        cursor.getString(4), cursor.getLong(5), getDouble(cursor, 6),
+                        getDouble(cursor, 7), getDouble(cursor, 8));
+            }
+        } finally {
+            cursor.close();
+        }
+        return earthquakes;
+    }
+
+    /**
+     * @return the statistics of the stored events. The first call reads every stored event,
+     * call it off the main thread.
+     */
+    public synchronized QuakeStats getStats() {
+        if (mStats == null) {
+            QuakeStats stats = new QuakeStats();
+            String[] projection = {
+                    EarthquakeEntry.COLUMN_EVENT_ID,
+                    EarthquakeEntry.COLUMN_PLACE,
+                    EarthquakeEntry.COLUMN_MAG,
+                    EarthquakeEntry.COLUMN_TIME};
+            Cursor cursor = mDbHelper.getReadableDatabase().query(EarthquakeEntry.TABLE_NAME,
+                    projection, null, null, null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    stats.put(cursor.getString(0), getDouble(cursor, 2), cursor.getLong(3),
+                            getRegion(cursor.getString(1)));
+                }
+            } finally {
+                cursor.close();
+            }
+            stats.expire(System.currentTimeMillis() - QUERY_WINDOW_MS);
+            mStats = stats;
+        }
+        return mStats;
+    }
+
+    /**
+     * @return the place without its distance part, e.g. "Tokyo, Japan"
+     */
+    private static String getRegion(String place) {
+        if (place == null) {
+            return null;
+        }
+        int index = place.indexOf(" of ");
+        return index >= 0 ? place.substring(index + 4) : place;
+    }
+
+    /**
+     * @return the REAL column, NaN if it is null
+     */
+    private static double getDouble(Cursor cursor, int column) {
+        return cursor.isNull(column) ? Double.NaN : cursor.getDouble(column);
+    }
+
+    /**
+     * Insert new events and replace the ones that are already stored, in one transaction.
+     */
+    public void upsert(List<Info> earthquakes) {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            for (Info earthquake : earthquakes) {
+                if (earthquake.getId() == null) {
+                    continue;
+                }
+                values.clear();
+                values.put(EarthquakeEntry.COLUMN_EVENT_ID, earthquake.getId());
+                values.put(EarthquakeEntry.COLUMN_PLACE, earthquake.getLocation());
+                if (!Double.isNaN(earthquake.getMag())) {
+                    values.put(EarthquakeEntry.COLUMN_MAG, earthquake.getMag());
+                }
+                values.put(EarthquakeEntry.COLUMN_TIME, earthquake.getTimeInMilliseconds());
+                values.put(EarthquakeEntry.COLUMN_UPDATED, earthquake.getUpdated());
+                values.put(EarthquakeEntry.COLUMN_URL, earthquake.getUrl());
+                if (!Double.isNaN(earthquake.getLatitude()) && !Double.isNaN(earthquake.getLongitude())) {
+                    values.put(EarthquakeEntry.COLUMN_LATITUDE, earthquake.getLatitude());
+                    values.put(EarthquakeEntry.COLUMN_LONGITUDE, earthquake.getLongitude());
+                }
+                if (!Double.isNaN(earthquake.getDepth())) {
+                    values.put(EarthquakeEntry.COLUMN_DEPTH, earthquake.getDepth());
+                }
+                db.insertWithOnConflict(EarthquakeEntry.TABLE_NAME, null, values,
+                        SQLiteDatabase.CONFLICT_REPLACE);
+            }
+            // Drop events that fell out of the query window so the store doesn't grow forever
+            db.delete(EarthquakeEntry.TABLE_NAME, EarthquakeEntry.COLUMN_TIME + " < ?",
+                    new String[]{String.valueOf(System.currentTimeMillis() - QUERY_WINDOW_MS)});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        synchronized (this) {
+            if (mStats != null) {
+                for (Info earthquake : earthquakes) {
+                    if (earthquake.getId() != null) {
+                        mStats.put(earthquake.getId(), earthquake.getMag(),
+                                earthquake.getTimeInMilliseconds(), earthquake.getPrimaryLocation());
+                    }
+                }
+                mStats.expire(System.currentTimeMillis() - QUERY_WINDOW_MS);
+            }
+        }
+    }
+
+    /**
+     * Delete the events with the given ids, e.g. ones USGS deleted.
+     */
+    public void delete(Collection<String> eventIds) {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (String eventId : eventIds) {
+                db.delete(EarthquakeEntry.TABLE_NAME, EarthquakeEntry.COLUMN_EVENT_ID + " = ?",
+                        new String[]{eventId});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        synchronized (this) {
+            if (mStats != null) {
+                for (String eventId : eventIds) {
+                    mStats.remove(eventId);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return when the given query was last synced, or 0 if it never was
+     */
+    public long getLastSync(String requestUrl) {
+        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+        Cursor cursor = db.query(SyncEntry.TABLE_NAME, new String[]{SyncEntry.COLUMN_LAST_SYNC},
+                SyncEntry.COLUMN_QUERY + " = ?", new String[]{requestUrl}, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void setLastSync(String requestUrl, long timeInMilliseconds) {
+        ContentValues values = new ContentValues();
+        values.put(SyncEntry.COLUMN_QUERY, requestUrl);
+        values.put(SyncEntry.COLUMN_LAST_SYNC, timeInMilliseconds);
+        mDbHelper.getWritableDatabase().insertWithOnConflict(SyncEntry.TABLE_NAME, null, values,
+                SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    /**
+     * Remember that an alert was shown for the event.
+     * @return false if one was shown for it before
+     */
+    public boolean markAlerted(String eventId, long timeInMilliseconds) {
+        ContentValues values = new ContentValues();
+        values.put(AlertEntry.COLUMN_EVENT_ID, eventId);
+        values.put(AlertEntry.COLUMN_ALERTED_AT, timeInMilliseconds);
+        return mDbHelper.getWritableDatabase().insertWithOnConflict(AlertEntry.TABLE_NAME, null, values,
+                SQLiteDatabase.CONFLICT_IGNORE) != -1;
+    }
+
+    /**
+     * Forget the events alerted before the given time.
+     */
+    public void pruneAlerted(long beforeMilliseconds) {
+        mDbHelper.getWritableDatabase().delete(AlertEntry.TABLE_NAME, AlertEntry.COLUMN_ALERTED_AT + " < ?",
+                new String[]{String.valueOf(beforeMilliseconds)});
+    }
+
+    /**
+     * Fetch the events of the given query that changed since it was last synced and merge them
+     * into the store. The first sync of a query downloads the whole result.
+     * @return true if the sync succeeded
+     */
+    public boolean sync(String requestUrl) {
+        return sync(requestUrl, null);
+    }
+
+    /**
+     * Like {@link #sync(String)}, but stops as soon as it is canceled; nothing is stored then.
+     * @param cancellation may be null
+     */
+    public boolean sync(String requestUrl, Cancellation cancellation) {
+        try {
+            sync(requestUrl, cancellation, null);
+            return true;
+        } catch (FetchException e) {
+            if (e.getReason() != FetchException.Reason.CANCELED) {
+                Log.e(LOG_TAG, "Sync failed, keeping the stored earthquakes", e);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Like {@link #sync(String, Cancellation)}, and hands the rows of a first sync to the
+     * listener while they are downloaded. A later sync only fetches changes, which aren't the
+     * result of the query, so the listener isn't called then.
+     * @param listener may be null
+     * @throws FetchException if the sync failed or was canceled; the stored earthquakes are kept
+     */
+    public void sync(String requestUrl, Cancellation cancellation, QueryUtils.RowListener listener)
+            throws FetchException {
+        long lastSync = getLastSync(requestUrl);
+        // Take the sync time before the request goes out, so nothing updated meanwhile is missed
+        long syncTime = System.currentTimeMillis();
+        if (lastSync > 0) {
+            syncChanges(requestUrl, lastSync, cancellation);
+        } else {
+            upsert(QueryUtils.requestEarthquakes(requestUrl, cancellation, listener));
+        }
+        setLastSync(requestUrl, syncTime);
+    }
+
+    /**
+     * Fetch every event of the query that changed since the last sync, however many pages that
+     * takes, and merge them into the store. The changes keep the minmag of the query; an event
+     * revised below it keeps its stored row, which {@link #query} filters out, since the store
+     * is shared with queries of a lower minmag that still list it.
+     */
+    private void syncChanges(String requestUrl, long lastSync, Cancellation cancellation)
+            throws FetchException {
+        Uri uri = Uri.parse(requestUrl);
+        // The page of the query doesn't limit the changes; oldest first, so the pages don't
+        // shift while events keep coming in
+        Uri.Builder builder = uri.buildUpon().clearQuery();
+        for (String name : uri.getQueryParameterNames()) {
+            if (name.equals("offset") || name.equals("limit") || name.equals("orderby")) {
+                continue;
+            }
+            for (String value : uri.getQueryParameters(name)) {
+                builder.appendQueryParameter(name, value);
+            }
+        }
+        builder.appendQueryParameter("updatedafter", QueryUtils.formatQueryTime(lastSync))
+                .appendQueryParameter("orderby", "time-asc")
+                .appendQueryParameter("limit", String.valueOf(MAX_LIMIT));
+        String changesUrl = builder.build().toString();
+
+        for (int offset = 1; ; offset += MAX_LIMIT) {
+            String pageUrl = Uri.parse(changesUrl).buildUpon()
+                    .appendQueryParameter("offset", String.valueOf(offset))
+                    .build().toString();
+            EarthquakeTable page = QueryUtils.requestEarthquakes(pageUrl, cancellation, null);
+            // Each page is stored as it comes; if a later one fails, the next sync fetches
+            // this one again, which changes nothing
+            upsert(page);
+            if (page.size() < MAX_LIMIT) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package com.example.android.quakereport;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * Column-oriented container for a result set of earthquakes.
+ *
+ * Times, magnitudes and coordinates live in primitive arrays, the two halves of each place
+ * ("85km SSW of" / "Tokyo, Japan") are shared through a string pool, and URLs that are the
+ * common event page prefix followed by the event id are not stored at all. {@link #get(int)} returns a lightweight
+ * {@link Info} view over a row; its time is only formatted when asked for.
+ */
+public final class EarthquakeTable extends AbstractList<Info> {
+
+    private static final int NO_STRING = -1;
+
+    private int mSize;
+    private String[] mIds;
+    private double[] mMags;
+    private long[] mTimes;
+    private long[] mUpdated;
+    /** Coordinates from the GeoJSON geometry, NaN when missing */
+    private double[] mLatitudes;
+    private double[] mLongitudes;
+    private double[] mDepths;
+    /** Pool index of the "85km SSW of" part of the place, or NO_STRING */
+    private int[] mPlacePrefixes;
+    /** Pool index of the "Tokyo, Japan" part of the place, or NO_STRING */
+    private int[] mPlaceSuffixes;
+    /** URLs that aren't mUrlPrefix followed by the event id, null for the rows that are */
+    private String[] mUrls;
+    /** Event page prefix shared by the URLs, taken from the first URL that ends with its event id */
+    private String mUrlPrefix;
+    /** When the server generated the result, from the GeoJSON metadata, 0 if unknown */
+    private long mGenerated;
+
+    /** Rows in ascending order of magnitude and of time, built on first use */
+    private int[] mRowsByMagnitude;
+    private int[] mRowsByTime;
+
+    private final HashMap<String, Integer> mPoolIndex = new HashMap<>();
+    private String[] mPool = new String[16];
+    private int mPoolSize;
+
+    public EarthquakeTable() {
+        this(16);
+    }
+
+    public EarthquakeTable(int capacity) {
+        capacity = Math.max(capacity, 1);
+        mIds = new String[capacity];
+        mMags = new double[capacity];
+        mTimes = new long[capacity];
+        mUpdated = new long[capacity];
+        mLatitudes = new double[capacity];
+        mLongitudes = new double[capacity];
+        mDepths = new double[capacity];
+        mPlacePrefixes = new int[capacity];
+        mPlaceSuffixes = new int[capacity];
+        mUrls = new String[capacity];
+    }
+
+    /**
+     * Append an earthquake.
+     * @param latitude in degrees, NaN if unknown
+     * @param longitude in degrees, NaN if unknown
+     * @param depth in km, NaN if unknown
+     * @return the row of the earthquake
+     */
+    public int add(String id, String place, double mag, long time, String url, long updated,
+                   double latitude, double longitude, double depth) {
+        if (mSize == mIds.length) {
+            grow();
+        }
+        int row = mSize++;
+        mRowsByMagnitude = null;
+        mRowsByTime = null;
+        mIds[row] = id;
+        mMags[row] = mag;
+        mTimes[row] = time;
+        mUpdated[row] = updated;
+        mLatitudes[row] = latitude;
+        mLongitudes[row] = longitude;
+        mDepths[row] = depth;
+
+        int index = place != null ? place.indexOf(" of ") : -1;
+        if (index >= 0) {
+            mPlacePrefixes[row] = intern(place.substring(0, index + 3));
+            mPlaceSuffixes[row] = intern(place.substring(index + 4));
+        } else {
+            mPlacePrefixes[row] = NO_STRING;
+            mPlaceSuffixes[row] = place != null ? intern(place) : NO_STRING;
+        }
+
+        if (mUrlPrefix == null && id != null && url != null && url.endsWith(id)) {
+            mUrlPrefix = url.substring(0, url.length() - id.length());
+        }
+        if (url == null) {
+            url = "";
+        }
+        mUrls[row] = mUrlPrefix != null && id != null && url.length() == mUrlPrefix.length() + id.length()
+                && url.startsWith(mUrlPrefix) && url.endsWith(id) ? null : url;
+        return row;
+    }
+
+    /**
+     * Append a row of another table.
+     */
+    public int add(EarthquakeTable table, int row) {
+        return add(table.getId(row), table.getPlace(row), table.getMag(row), table.getTime(row),
+                table.getUrl(row), table.getUpdated(row), table.getLatitude(row),
+                table.getLongitude(row), table.getDepth(row));
+    }
+
+    @Override
+    public Info get(int row) {
+        if (row < 0 || row >= mSize) {
+            throw new IndexOutOfBoundsException("row " + row + ", size " + mSize);
+        }
+        return new Info(this, row);
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @return when the server generated the result, by its own clock, or 0 if it didn't say
+     */
+    public long getGenerated() {
+        return mGenerated;
+    }
+
+    public void setGenerated(long timeInMilliseconds) {
+        mGenerated = timeInMilliseconds;
+    }
+
+    public String getId(int row) {
+        return mIds[row];
+    }
+
+    public double getMag(int row) {
+        return mMags[row];
+    }
+
+    public long getTime(int row) {
+        return mTimes[row];
+    }
+
+    public long getUpdated(int row) {
+        return mUpdated[row];
+    }
+
+    public double getLatitude(int row) {
+        return mLatitudes[row];
+    }
+
+    public double getLongitude(int row) {
+        return mLongitudes[row];
+    }
+
+    /**
+     * @return the depth in km
+     */
+    public double getDepth(int row) {
+        return mDepths[row];
+    }
+
+    /**
+     * @return the full place, e.g. "85km SSW of Tokyo, Japan"
+     */
+    public String getPlace(int row) {
+        String prefix = getPlacePrefix(row);
+        String suffix = getPlaceSuffix(row);
+        if (prefix == null) {
+            return suffix != null ? suffix : "";
+        }
+        return prefix + " " + suffix;
+    }
+
+    /**
+     * @return the distance part of the place, e.g. "85km SSW of", or null if there is none
+     */
+    public String getPlacePrefix(int row) {
+        int index = mPlacePrefixes[row];
+        return index == NO_STRING ? null : mPool[index];
+    }
+
+    /**
+     * @return the region part of the place, e.g. "Tokyo, Japan"
+     */
+    public String getPlaceSuffix(int row) {
+        int index = mPlaceSuffixes[row];
+        return index == NO_STRING ? null : mPool[index];
+    }
+
+    public String getUrl(int row) {
+        String url = mUrls[row];
+        return url != null ? url : mUrlPrefix + mIds[row];
+    }
+
+    /**
+     * @return the rows in ascending order of magnitude, NaN last. Kept until a row is added, so
+     * the table can be re-sorted and filtered without comparing rows again.
+     */
+    public synchronized int[] getRowsByMagnitude() {
+        if (mRowsByMagnitude == null) {
+            mRowsByMagnitude = sortRows(new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return Double.compare(mMags[a], mMags[b]);
+                }
+            });
+        }
+        return mRowsByMagnitude;
+    }
+
+    /**
+     * @return the rows in ascending order of time, kept until a row is added
+     */
+    public synchronized int[] getRowsByTime() {
+        if (mRowsByTime == null) {
+            mRowsByTime = sortRows(new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return mTimes[a] < mTimes[b] ? -1 : (mTimes[a] > mTimes[b] ? 1 : 0);
+                }
+            });
+        }
+        return mRowsByTime;
+    }
+
+    private int[] sortRows(Comparator<Integer> comparator) {
+        Integer[] rows = new Integer[mSize];
+        for (int row = 0; row < mSize; row++) {
+            rows[row] = row;
+        }
+        Arrays.sort(rows, comparator);
+        int[] result = new int[mSize];
+        for (int i = 0; i < mSize; i++) {
+            result[i] = rows[i];
+        }
+        return result;
+    }
+
+    /**
+     * @return a rough size of the table on the heap, in bytes
+     */
+    public long estimateBytes() {
+        // Per row: 6 numeric columns, 2 pool indices and 2 references
+        long bytes = (long) mIds.length * (6 * 8 + 2 * 4 + 2 * 4);
+        for (int row = 0; row < mSize; row++) {
+            bytes += stringBytes(mIds[row]) + stringBytes(mUrls[row]);
+        }
+        // Pool strings and their HashMap entries
+        for (int i = 0; i < mPoolSize; i++) {
+            bytes += stringBytes(mPool[i]) + 32;
+        }
+        return bytes;
+    }
+
+    private static long stringBytes(String value) {
+        return value == null ? 0 : 40 + 2 * value.length();
+    }
+
+    private int intern(String value) {
+        Integer index = mPoolIndex.get(value);
+        if (index != null) {
+            return index;
+        }
+        if (mPoolSize == mPool.length) {
+            mPool = Arrays.copyOf(mPool, mPoolSize * 2);
+        }
+        mPool[mPoolSize] = value;
+        mPoolIndex.put(value, mPoolSize);
+        return mPoolSize++;
+    }
+
+    private void grow() {
+        int capacity = mIds.length * 2;
+        mIds = Arrays.copyOf(mIds, capacity);
+        mMags = Arrays.copyOf(mMags, capacity);
+        mTimes = Arrays.copyOf(mTimes, capacity);
+        mUpdated = Arrays.copyOf(mUpdated, capacity);
+        mLatitudes = Arrays.copyOf(mLatitudes, capacity);
+        mLongitudes = Arrays.copyOf(mLongitudes, capacity);
+        mDepths = Arrays.copyOf(mDepths, capacity);
+        mPlacePrefixes = Arrays.copyOf(mPlacePrefixes, capacity);
+        mPlaceSuffixes = Arrays.copyOf(mPlaceSuffixes, capacity);
+        mUrls = Arrays.copyOf(mUrls, capacity);
+    }
+}
@@ -0,0 +1,234 @@
+package com.example.android.quakereport;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queries several {@link EventSource}s at once and merges their events into one list.
+ *
+ * Networks report the same earthquake under their own ids, with slightly different times,
+ * locations and magnitudes, so events within {@link #TIME_TOLERANCE_MS},
+ * {@link #DISTANCE_TOLERANCE_KM} and {@link #MAGNITUDE_TOLERANCE} of an event already in the
+ * list are dropped. Results are merged in the order they arrive, and a source that doesn't
+ * answer within its timeout is canceled instead of holding up the others.
+ *
+ * The given events are never dropped. When they fill the limit, the events of the other sources
+ * are only kept where they fall between them in the order of the query, since the events past
+ * them come with the next page.
+ */
+public final class EventAggregator {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = EventAggregator.class.getSimpleName();
+
+    public static final long TIME_TOLERANCE_MS = 16 * 1000;
+    public static final double DISTANCE_TOLERANCE_KM = 100;
+    public static final double MAGNITUDE_TOLERANCE = 0.5;
+
+    /**
+     * Called on the thread that called fetch, each time a source's events were merged.
+     */
+    public interface Listener {
+        void onMerged(EventSource source, EarthquakeTable merged);
+    }
+
+    private final ThreadPoolExecutor mExecutor;
+
+    /**
+     * @param parallelism number of sources fetched at once
+     */
+    public EventAggregator(int parallelism) {
+        parallelism = Math.max(1, parallelism);
+        mExecutor = new ThreadPoolExecutor(parallelism, parallelism, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        // Don't keep threads around between refreshes
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Fetch the query from every source concurrently and merge the events into the given ones.
+     * This blocks until every source answered or timed out, call it off the main thread.
+     * @param base events already known, e.g. from the primary source; they win over duplicates
+     * @param timeoutMs time each source gets to answer, in milliseconds
+     * @param cancellation cancels every source, may be null
+     * @param listener told about each intermediate result, may be null
+     * @param limit number of events each source is asked for
+     * @return every event of base plus the merged events of the sources, in the order of the query
+     */
+    public EarthquakeTable fetch(EarthquakeTable base, List<? extends EventSource> sources,
+                                 final EarthquakeQuery query, final int limit, long timeoutMs,
+                                 Cancellation cancellation, Listener listener) {
+        final List<Cancellation> cancellations = new ArrayList<>();
+        ExecutorCompletionService<EarthquakeTable> completion = new ExecutorCompletionService<>(mExecutor);
+        final List<Future<EarthquakeTable>> futures = new ArrayList<>();
+        final List<EventSource> pending = new ArrayList<>();
+        for (final EventSource source : sources) {
+            final Cancellation sourceCancellation = new Cancellation();
+            cancellations.add(sourceCancellation);
+            pending.add(source);
+            futures.add(completion.submit(new Callable<EarthquakeTable>() {
+                @Override
+                public EarthquakeTable call() {
+                    return source.fetch(query, limit, sourceCancellation);
+                }
+            }));
+        }
+        if (cancellation != null) {
+            cancellation.setOnCancelListener(new Cancellation.OnCancelListener() {
+                @Override
+                public void onCancel() {
+                    for (Cancellation sourceCancellation : cancellations) {
+                        sourceCancellation.cancel();
+                    }
+                }
+            });
+        }
+
+        EarthquakeTable merged = base;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                Future<EarthquakeTable> future = completion.poll(
+                        Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                if (future == null) {
+                    // The rest are too slow, don't wait for them
+                    for (int j = 0; j < futures.size(); j++) {
+                        if (!futures.get(j).isDone()) {
+                            Log.w(LOG_TAG, pending.get(j).getName() + " timed out");
+                            cancellations.get(j).cancel();
+                        }
+                    }
+                    break;
+                }
+                EventSource source = pending.get(futures.indexOf(future));
+                EarthquakeTable earthquakes;
+                try {
+                    earthquakes = future.get();
+                } catch (ExecutionException e) {
+                    // The other sources still get merged
+                    Log.e(LOG_TAG, source.getName() + " failed", e);
+                    continue;
+                }
+                if (earthquakes == null) {
+                    Log.w(LOG_TAG, source.getName() + " failed");
+                    continue;
+                }
+                merged = sort(merge(merged, earthquakes), merged.size(), base.size() >= limit, query);
+                if (listener != null) {
+                    listener.onMerged(source, merged);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (cancellation != null) {
+                cancellation.setOnCancelListener(null);
+            }
+        }
+        return merged == base ? sort(base, base.size(), false, query) : merged;
+    }
+
+    /**
+     * @return the events of both tables, without the events of other that are already in table
+     */
+    public static EarthquakeTable merge(EarthquakeTable table, EarthquakeTable other) {
+        EarthquakeTable merged = new EarthquakeTable(Math.max(1, table.size() + other.size()));
+        for (int row = 0; row < table.size(); row++) {
+            merged.add(table, row);
+        }
+        int[] byTime = table.getRowsByTime();
+        for (int row = 0; row < other.size(); row++) {
+            if (!containsSameEvent(table, byTime, other, row)) {
+                merged.add(other, row);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * @return true if the two rows are most likely the same earthquake
+     */
+    public static boolean isSameEvent(EarthquakeTable a, int rowA, EarthquakeTable b, int rowB) {
+        if (Math.abs(a.getTime(rowA) - b.getTime(rowB)) > TIME_TOLERANCE_MS) {
+            return false;
+        }
+        double magA = a.getMag(rowA);
+        double magB = b.getMag(rowB);
+        if (!Double.isNaN(magA) && !Double.isNaN(magB) && Math.abs(magA - magB) > MAGNITUDE_TOLERANCE) {
+            return false;
+        }
+        if (Double.isNaN(a.getLatitude(rowA)) || Double.isNaN(b.getLatitude(rowB))) {
+            // Without a location, time and magnitude have to do
+            return true;
+        }
+        return SpatialIndex.distanceKm(a.getLatitude(rowA), a.getLongitude(rowA),
+                b.getLatitude(rowB), b.getLongitude(rowB)) <= DISTANCE_TOLERANCE_KM;
+    }
+
+    /**
+     * @param byTime rows of table in ascending order of time
+     */
+    private static boolean containsSameEvent(EarthquakeTable table, int[] byTime, EarthquakeTable other, int row) {
+        long time = other.getTime(row);
+        // First row that isn't too early to match
+        int low = 0;
+        int high = byTime.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (table.getTime(byTime[middle]) < time - TIME_TOLERANCE_MS) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        for (int i = low; i < byTime.length && table.getTime(byTime[i]) <= time + TIME_TOLERANCE_MS; i++) {
+            if (isSameEvent(table, byTime[i], other, row)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param keptRows number of rows at the start of the table that are kept, the ones that were
+     *                 merged into, as {@link #merge} puts them first
+     * @param full whether the base events filled the limit, so the next page starts after the
+     *             last of them and the other rows past it are left out
+     * @return the rows of the table in the order of the query
+     */
+    private static EarthquakeTable sort(EarthquakeTable table, int keptRows, boolean full, EarthquakeQuery query) {
+        boolean byMagnitude = query.getOrderBy().startsWith("magnitude");
+        boolean ascending = query.getOrderBy().endsWith("-asc");
+        int[] rows = byMagnitude ? table.getRowsByMagnitude() : table.getRowsByTime();
+        int count = rows.length;
+        if (full) {
+            count = 0;
+            for (int i = 0; i < rows.length; i++) {
+                if (rows[ascending ? i : rows.length - 1 - i] < keptRows) {
+                    count = i + 1;
+                }
+            }
+        }
+        EarthquakeTable sorted = new EarthquakeTable(Math.max(1, count));
+        for (int i = 0; i < count; i++) {
+            sorted.add(table, rows[ascending ? i : rows.length - 1 - i]);
+        }
+        return sorted;
+    }
+
+    /**
+     * Stop the executor. The aggregator can't be used afterwards.
+     */
+    public void shutdown() {
+        mExecutor.shutdownNow();
+    }
+}
@@ -0,0 +1,353 @@
+package com.example.android.quakereport;
+
+import android.net.Uri;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.MalformedJsonException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.Charset;
+
+/**
+ * What the USGS detail feed of a single event says about it beyond the row in the list: felt
+ * reports, intensities, the PAGER alert level and the tsunami flag.
+ *
+ * Only the summary properties are kept. The "products" of the feed (ShakeMaps, moment tensors
+ * and so on) make up most of its bytes and are skipped while the body streams by.
+ */
+public final class EventDetail {
+
+    private final String mId;
+    private String mTitle = "";
+    private String mPlace = "";
+    private double mMag = Double.NaN;
+    private String mMagType;
+    private long mTime;
+    private long mUpdated;
+    private double mLatitude = Double.NaN;
+    private double mLongitude = Double.NaN;
+    private double mDepth = Double.NaN;
+    /** Number of "Did You Feel It?" reports, or -1 */
+    private int mFelt = -1;
+    /** Community and instrumental intensity, NaN if there is none */
+    private double mCdi = Double.NaN;
+    private double mMmi = Double.NaN;
+    /** PAGER alert level, e.g. "green", or null */
+    private String mAlert;
+    private boolean mTsunami;
+    /** Significance, 0 to 1000 and more, or -1 */
+    private int mSig = -1;
+    /** "automatic" or "reviewed" */
+    private String mStatus;
+    private String mUrl = "";
+
+    private EventDetail(String id) {
+        mId = id;
+    }
+
+    /**
+     * @return the detail feed of the USGS event
+     */
+    public static String getFeedUrl(String eventId) {
+        return Uri.parse(FdsnEventSource.USGS.getQueryUrl()).buildUpon()
+                .appendQueryParameter("eventid", eventId)
+                .appendQueryParameter("format", QueryUtils.FORMAT_GEOJSON)
+                .build().toString();
+    }
+
+    /**
+     * @return whether the row is a USGS event, which has a detail feed; the events of other
+     * networks only have their web page
+     */
+    public static boolean isAvailable(Info info) {
+        return info.getUrl().contains("earthquake.usgs.gov/");
+    }
+
+    /**
+     * Download and parse the detail feed of the event, in a single attempt.
+     * @param cancellation may be null
+     * @throws FetchException if the request failed or was canceled
+     */
+    public static EventDetail fetch(String eventId, Cancellation cancellation) throws FetchException {
+        URL url;
+        try {
+            url = new URL(getFeedUrl(eventId));
+        } catch (MalformedURLException e) {
+            throw new FetchException(FetchException.Reason.REJECTED, "Malformed event id: " + eventId, e);
+        }
+        HttpClient.Response response = null;
+        try {
+            response = HttpClient.getInstance().get(url, QueryUtils.DEFAULT_CONNECT_TIMEOUT_MS,
+                    QueryUtils.DEFAULT_READ_TIMEOUT_MS, cancellation);
+            if (!response.isSuccessful()) {
+                throw FetchException.forStatus(response.getCode(), response.getRetryAfterMs());
+            }
+            EventDetail detail = read(response.getBody(), eventId);
+            if (cancellation != null && cancellation.isCanceled()) {
+                throw new FetchException(FetchException.Reason.CANCELED, "Request canceled: " + url);
+            }
+            return detail;
+        } catch (IOException e) {
+            if (cancellation != null && cancellation.isCanceled()) {
+                throw new FetchException(FetchException.Reason.CANCELED, "Request canceled: " + url, e);
+            }
+            if (e instanceof FetchException) {
+                throw (FetchException) e;
+            }
+            throw new FetchException(FetchException.Reason.NETWORK, "Problem retrieving the event detail", e);
+        } finally {
+            if (cancellation != null) {
+                cancellation.setOnCancelListener(null);
+            }
+            if (response != null) {
+                if (cancellation != null && cancellation.isCanceled()) {
+                    response.disconnect();
+                } else {
+                    // Reading to the end lets the body be cached and the connection be reused
+                    try {
+                        response.close();
+                    } catch (IOException e) {
+                        // The detail was parsed already
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Parse a detail feed, a single GeoJSON feature. The caller is responsible for closing the
+     * stream.
+     * @throws FetchException if the JSON is malformed (FORMAT)
+     */
+    static EventDetail read(InputStream inputStream, String eventId) throws IOException {
+        EventDetail detail = new EventDetail(eventId);
+        JsonReader reader = new JsonReader(new InputStreamReader(inputStream, Charset.forName("UTF-8")));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equals("properties") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                    detail.readProperties(reader);
+                } else if (name.equals("geometry") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                    detail.readGeometry(reader);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IllegalStateException | NumberFormatException | MalformedJsonException e) {
+            throw new FetchException(FetchException.Reason.FORMAT, "Malformed event detail", e);
+        }
+        return detail;
+    }
+
+    private void readProperties(JsonReader reader) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            // Null values are treated like missing ones
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                continue;
+            }
+            switch (name) {
+                case "title":
+                    mTitle = reader.nextString();
+                    break;
+                case "place":
+                    mPlace = reader.nextString();
+                    break;
+                case "mag":
+                    mMag = reader.nextDouble();
+                    break;
+                case "magType":
+                    mMagType = reader.nextString();
+                    break;
+                case "time":
+                    mTime = reader.nextLong();
+                    break;
+                case "updated":
+                    mUpdated = reader.nextLong();
+                    break;
+                case "felt":
+                    mFelt = reader.nextInt();
+                    break;
+                case "cdi":
+                    mCdi = reader.nextDouble();
+                    break;
+                case "mmi":
+                    mMmi = reader.nextDouble();
+                    break;
+                case "alert":
+                    mAlert = reader.nextString();
+                    break;
+                case "tsunami":
+                    mTsunami = reader.nextInt() != 0;
+                    break;
+                case "sig":
+                    mSig = reader.nextInt();
+                    break;
+                case "status":
+                    mStatus = reader.nextString();
+                    break;
+                case "url":
+                    mUrl = reader.nextString();
+                    break;
+                default:
+                    // Most of all "products"
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Read the point of the geometry, "coordinates": [longitude, latitude, depth].
+     */
+    private void readGeometry(JsonReader reader) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("coordinates") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                for (int i = 0; reader.hasNext(); i++) {
+                    if (reader.peek() != JsonToken.NUMBER) {
+                        reader.skipValue();
+                    } else if (i == 0) {
+                        mLongitude = reader.nextDouble();
+                    } else if (i == 1) {
+                        mLatitude = reader.nextDouble();
+                    } else if (i == 2) {
+                        mDepth = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    public String getId() {
+        return mId;
+    }
+
+    /**
+     * @return e.g. "M 6.2 - 85km SSW of Tokyo, Japan"
+     */
+    public String getTitle() {
+        return mTitle;
+    }
+
+    public String getPlace() {
+        return mPlace;
+    }
+
+    public double getMag() {
+        return mMag;
+    }
+
+    /**
+     * @return how the magnitude was measured, e.g. "mww", or null
+     */
+    public String getMagType() {
+        return mMagType;
+    }
+
+    public long getTimeInMilliseconds() {
+        return mTime;
+    }
+
+    public long getUpdated() {
+        return mUpdated;
+    }
+
+    public double getLatitude() {
+        return mLatitude;
+    }
+
+    public double getLongitude() {
+        return mLongitude;
+    }
+
+    /**
+     * @return the depth in km
+     */
+    public double getDepth() {
+        return mDepth;
+    }
+
+    /**
+     * @return number of felt reports, or -1 if nobody reported it
+     */
+    public int getFelt() {
+        return mFelt;
+    }
+
+    /**
+     * @return the maximum reported intensity, or NaN
+     */
+    public double getCdi() {
+        return mCdi;
+    }
+
+    /**
+     * @return the maximum estimated instrumental intensity, or NaN
+     */
+    public double getMmi() {
+        return mMmi;
+    }
+
+    /**
+     * @return the PAGER alert level ("green", "yellow", "orange" or "red"), or null
+     */
+    public String getAlert() {
+        return mAlert;
+    }
+
+    public boolean isTsunami() {
+        return mTsunami;
+    }
+
+    /**
+     * @return how significant the event is, or -1
+     */
+    public int getSig() {
+        return mSig;
+    }
+
+    /**
+     * @return "automatic" or "reviewed", or null
+     */
+    public String getStatus() {
+        return mStatus;
+    }
+
+    /**
+     * @return the web page of the event
+     */
+    public String getUrl() {
+        return mUrl;
+    }
+
+    /**
+     * @return roughly how many bytes of heap the detail takes up
+     */
+    long estimateBytes() {
+        // Object header and fields, plus two bytes per character of the strings
+        long bytes = 128;
+        for (String value : new String[]{mId, mTitle, mPlace, mMagType, mAlert, mStatus, mUrl}) {
+            if (value != null) {
+                bytes += 40 + 2 * value.length();
+            }
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,20 @@
+package com.example.android.quakereport;
+
+/**
+ * A provider of earthquake events, e.g. an FDSN event web service.
+ */
+public interface EventSource {
+
+    /**
+     * @return a short name for the logs, e.g. "USGS"
+     */
+    String getName();
+
+    /**
+     * Fetch the events matching the query. This blocks, call it off the main thread.
+     * @param limit largest number of events to return
+     * @param cancellation may be null
+     * @return the events in the order of the query, or null if the fetch failed
+     */
+    EarthquakeTable fetch(EarthquakeQuery query, int limit, Cancellation cancellation);
+}
@@ -0,0 +1,76 @@
+package com.example.android.quakereport;
+
+import android.net.Uri;
+
+/**
+ * An event service implementing the FDSN web service specification, the interface USGS, EMSC
+ * and most other networks offer. Responses are GeoJSON for USGS and the FDSN text format for
+ * the others, since that is the format every FDSN service supports.
+ */
+public final class FdsnEventSource implements EventSource {
+
+    public static final String FORMAT_GEOJSON = "geojson";
+    public static final String FORMAT_TEXT = "text";
+
+    /** Without a start time USGS returns the last 30 days, ask the others for the same */
+    private static final long DEFAULT_WINDOW_MS = 30L * 24 * 60 * 60 * 1000;
+
+    public static final FdsnEventSource USGS = new FdsnEventSource("USGS",
+            "http://earthquake.usgs.gov/fdsnws/event/1/query", FORMAT_GEOJSON, null);
+
+    public static final FdsnEventSource EMSC = new FdsnEventSource("EMSC",
+            "http://www.seismicportal.eu/fdsnws/event/1/query", FORMAT_TEXT,
+            "http://www.seismicportal.eu/eventdetails.html?unid=");
+
+    private final String mName;
+    private final String mQueryUrl;
+    private final String mFormat;
+    private final String mEventUrlPrefix;
+
+    /**
+     * @param queryUrl URL of the service's query method, ending in /fdsnws/event/1/query
+     * @param format {@link #FORMAT_GEOJSON} or {@link #FORMAT_TEXT}
+     * @param eventUrlPrefix prepended to an event id to link to its page, null if there is none.
+     *                       GeoJSON responses carry their own links.
+     */
+    public FdsnEventSource(String name, String queryUrl, String format, String eventUrlPrefix) {
+        mName = name;
+        mQueryUrl = queryUrl;
+        mFormat = format;
+        mEventUrlPrefix = eventUrlPrefix;
+    }
+
+    @Override
+    public String getName() {
+        return mName;
+    }
+
+    public String getQueryUrl() {
+        return mQueryUrl;
+    }
+
+    /**
+     * @return the request for the query
+     */
+    public String buildQueryUrl(EarthquakeQuery query, int limit) {
+        Uri.Builder builder = Uri.parse(mQueryUrl).buildUpon();
+        builder.appendQueryParameter("format", mFormat);
+        if (query.getMinMagnitude() != Double.NEGATIVE_INFINITY) {
+            builder.appendQueryParameter("minmag", String.valueOf(query.getMinMagnitude()));
+        }
+        builder.appendQueryParameter("orderby", query.getOrderBy());
+        builder.appendQueryParameter("starttime",
+                QueryUtils.formatQueryTime(System.currentTimeMillis() - DEFAULT_WINDOW_MS));
+        builder.appendQueryParameter("limit", String.valueOf(limit));
+        return builder.build().toString();
+    }
+
+    @Override
+    public EarthquakeTable fetch(EarthquakeQuery query, int limit, Cancellation cancellation) {
+        String requestUrl = buildQueryUrl(query, limit);
+        if (FORMAT_TEXT.equals(mFormat)) {
+            return QueryUtils.fetchEarthquakeText(requestUrl, mEventUrlPrefix, cancellation);
+        }
+        return QueryUtils.fetchEarthquakeUpdates(requestUrl, cancellation);
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.android.quakereport;
+
+import java.io.IOException;
+
+/**
+ * Why a request for earthquakes failed, so a failed fetch can be told apart from a query
+ * without results, and a failure worth retrying from one that isn't.
+ */
+public class FetchException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public enum Reason {
+        /** The connection failed, timed out or broke off while reading */
+        NETWORK,
+        /** The service answered with an error that may go away, e.g. 503 or 429 */
+        SERVER,
+        /** The service refused the request, e.g. 400 for a bad query; retrying won't help */
+        REJECTED,
+        /** The body isn't in the requested format */
+        FORMAT,
+        /** The request was canceled */
+        CANCELED
+    }
+
+    private final Reason mReason;
+    /** HTTP status code, or -1 */
+    private final int mStatusCode;
+    /** How long the service asked to wait before retrying, or -1 */
+    private final long mRetryAfterMs;
+
+    public FetchException(Reason reason, String message) {
+        this(reason, message, null, -1, -1);
+    }
+
+    public FetchException(Reason reason, String message, Throwable cause) {
+        this(reason, message, cause, -1, -1);
+    }
+
+    private FetchException(Reason reason, String message, Throwable cause, int statusCode, long retryAfterMs) {
+        super(message);
+        if (cause != null) {
+            initCause(cause);
+        }
+        mReason = reason;
+        mStatusCode = statusCode;
+        mRetryAfterMs = retryAfterMs;
+    }
+
+    /**
+     * @param retryAfterMs value of the Retry-After header, or -1
+     * @return the failure for an HTTP error status
+     */
+    public static FetchException forStatus(int statusCode, long retryAfterMs) {
+        boolean temporary = statusCode >= 500 || statusCode == 408 || statusCode == 429;
+        return new FetchException(temporary ? Reason.SERVER : Reason.REJECTED,
+                "Error response code: " + statusCode, null, statusCode, retryAfterMs);
+    }
+
+    public Reason getReason() {
+        return mReason;
+    }
+
+    /**
+     * @return the HTTP status code, or -1 if the service didn't answer with one
+     */
+    public int getStatusCode() {
+        return mStatusCode;
+    }
+
+    /**
+     * @return how long the service asked to wait before retrying, in milliseconds, or -1
+     */
+    public long getRetryAfterMs() {
+        return mRetryAfterMs;
+    }
+
+    /**
+     * @return whether the same request may succeed if it is sent again
+     */
+    public boolean isRetryable() {
+        return mReason == Reason.NETWORK || mReason == Reason.SERVER;
+    }
+}
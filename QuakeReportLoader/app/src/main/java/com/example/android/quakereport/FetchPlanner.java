@@ -0,0 +1,226 @@
+package com.example.android.quakereport;
+
+import android.net.Uri;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Fetches a large time range by splitting it into sub-windows that are queried concurrently.
+ *
+ * USGS caps a single query at 20,000 events, and one big response is read over a single
+ * connection. The planner either splits the range into a fixed number of windows or sizes the
+ * windows with the /count endpoint, runs the sub-queries on a bounded executor and merges the
+ * results newest first, dropping events that show up in two windows. A window that comes back
+ * with as many events as a query can return was cut off, so it is fetched again in two halves.
+ *
+ * The {@link MapActivity} uses it to show a year of events.
+ */
+public final class FetchPlanner {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = FetchPlanner.class.getSimpleName();
+
+    /** Largest result USGS will return for a single query */
+    public static final int MAX_EVENTS_PER_QUERY = 20000;
+
+    /** Windows are never split below one minute */
+    private static final long MIN_WINDOW_MS = 60 * 1000;
+
+    private final ExecutorService mExecutor;
+    private final int mEventsPerWindow;
+
+    /**
+     * @param parallelism number of sub-queries in flight at once
+     * @param eventsPerWindow target size of a window when planning with the count endpoint,
+     *                        at most {@link #MAX_EVENTS_PER_QUERY}
+     */
+    public FetchPlanner(int parallelism, int eventsPerWindow) {
+        mExecutor = Executors.newFixedThreadPool(Math.max(1, parallelism));
+        mEventsPerWindow = Math.max(1, Math.min(eventsPerWindow, MAX_EVENTS_PER_QUERY));
+    }
+
+    /**
+     * Fetch the events of the query between the two times, with windows sized through the
+     * /count endpoint.
+     * @param queryUrl USGS query URL with the filters (minmag, ...); time, order and paging
+     *                 parameters are replaced per window
+     * @return the events, newest first, or null if a request failed
+     */
+    public EarthquakeTable fetch(String queryUrl, long startTime, long endTime) {
+        List<long[]> windows = planWindows(queryUrl, startTime, endTime);
+        return windows != null ? fetchWindows(queryUrl, windows) : null;
+    }
+
+    /**
+     * Fetch the events of the query between the two times, split into equal windows.
+     * @return the events, newest first, or null if a request failed
+     */
+    public EarthquakeTable fetch(String queryUrl, long startTime, long endTime, int windowCount) {
+        List<long[]> windows = new ArrayList<>();
+        windowCount = Math.max(1, windowCount);
+        long span = Math.max(1, (endTime - startTime) / windowCount);
+        for (long start = startTime; start < endTime; start += span) {
+            windows.add(new long[]{start, Math.min(start + span, endTime)});
+        }
+        return fetchWindows(queryUrl, windows);
+    }
+
+    /**
+     * Stop the executor. The planner can't be used afterwards.
+     */
+    public void shutdown() {
+        mExecutor.shutdownNow();
+    }
+
+    /**
+     * Split the range until every window holds at most mEventsPerWindow events. Each round
+     * counts all the windows that are still too big concurrently.
+     * @return the windows as {start, end} pairs, or null if a count failed
+     */
+    private List<long[]> planWindows(final String queryUrl, long startTime, long endTime) {
+        List<long[]> planned = new ArrayList<>();
+        List<long[]> pending = new ArrayList<>();
+        pending.add(new long[]{startTime, endTime});
+
+        while (!pending.isEmpty()) {
+            List<Future<Integer>> counts = new ArrayList<>();
+            for (final long[] window : pending) {
+                counts.add(mExecutor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        return QueryUtils.fetchEarthquakeCount(buildWindowUrl(queryUrl, window, true));
+                    }
+                }));
+            }
+
+            List<long[]> next = new ArrayList<>();
+            for (int i = 0; i < pending.size(); i++) {
+                long[] window = pending.get(i);
+                Integer count = await(counts.get(i));
+                if (count == null || count < 0) {
+                    return null;
+                }
+                long span = window[1] - window[0];
+                if (count <= mEventsPerWindow || span <= MIN_WINDOW_MS) {
+                    if (count > MAX_EVENTS_PER_QUERY) {
+                        Log.w(LOG_TAG, "Window still holds " + count + " events, the result will be cut off");
+                    }
+                    planned.add(window);
+                } else {
+                    long middle = window[0] + span / 2;
+                    next.add(new long[]{window[0], middle});
+                    next.add(new long[]{middle, window[1]});
+                }
+            }
+            pending = next;
+        }
+        return planned;
+    }
+
+    /**
+     * Query the windows concurrently and merge the results.
+     */
+    private EarthquakeTable fetchWindows(final String queryUrl, List<long[]> windows) {
+        // Newest window first, so concatenating the (newest first) results keeps them in order
+        Collections.sort(windows, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] a, long[] b) {
+                return a[0] < b[0] ? 1 : (a[0] > b[0] ? -1 : 0);
+            }
+        });
+
+        List<Future<EarthquakeTable>> results = new ArrayList<>();
+        for (final long[] window : windows) {
+            results.add(mExecutor.submit(new Callable<EarthquakeTable>() {
+                @Override
+                public EarthquakeTable call() {
+                    return QueryUtils.fetchEarthquakeUpdates(buildWindowUrl(queryUrl, window, false));
+                }
+            }));
+        }
+
+        EarthquakeTable merged = new EarthquakeTable();
+        // Both ends of a window are inclusive, so an event on a boundary comes back twice
+        HashSet<String> ids = new HashSet<>();
+        for (int i = 0; i < windows.size(); i++) {
+            long[] window = windows.get(i);
+            EarthquakeTable earthquakes = await(results.get(i));
+            if (earthquakes != null && earthquakes.size() >= MAX_EVENTS_PER_QUERY
+                    && window[1] - window[0] > MIN_WINDOW_MS) {
+                // Cut off at the cap, the halves hold the rest
+                long middle = window[0] + (window[1] - window[0]) / 2;
+                List<long[]> halves = new ArrayList<>();
+                halves.add(new long[]{window[0], middle});
+                halves.add(new long[]{middle, window[1]});
+                earthquakes = fetchWindows(queryUrl, halves);
+            }
+            if (earthquakes == null) {
+                for (Future<EarthquakeTable> other : results) {
+                    other.cancel(true);
+                }
+                return null;
+            }
+            for (int row = 0; row < earthquakes.size(); row++) {
+                String id = earthquakes.getId(row);
+                if (id == null || ids.add(id)) {
+                    merged.add(earthquakes, row);
+                }
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * @return the query URL limited to the window, ordered by time with the largest limit
+     */
+    private static String buildWindowUrl(String queryUrl, long[] window, boolean count) {
+        Uri uri = Uri.parse(queryUrl);
+        Uri.Builder builder = uri.buildUpon().clearQuery();
+        if (count) {
+            String path = uri.getPath();
+            builder.path(path.substring(0, path.lastIndexOf('/') + 1) + "count");
+        }
+        for (String name : uri.getQueryParameterNames()) {
+            if (name.equals("starttime") || name.equals("endtime") || name.equals("orderby")
+                    || name.equals("limit") || name.equals("offset")
+                    || (count && name.equals("format"))) {
+                continue;
+            }
+            for (String value : uri.getQueryParameters(name)) {
+                builder.appendQueryParameter(name, value);
+            }
+        }
+        builder.appendQueryParameter("starttime", QueryUtils.formatQueryTime(window[0]));
+        builder.appendQueryParameter("endtime", QueryUtils.formatQueryTime(window[1]));
+        if (count) {
+            // The count is only returned as JSON in this format, whatever the query uses
+            builder.appendQueryParameter("format", "geojson");
+        } else {
+            builder.appendQueryParameter("orderby", "time");
+            builder.appendQueryParameter("limit", String.valueOf(MAX_EVENTS_PER_QUERY));
+        }
+        return builder.build().toString();
+    }
+
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            Log.e(LOG_TAG, "Problem fetching a window", e);
+            return null;
+        }
+    }
+}
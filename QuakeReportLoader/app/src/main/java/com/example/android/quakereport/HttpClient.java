@@ -0,0 +1,530 @@
+package com.example.android.quakereport;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Small HTTP client for the USGS queries.
+ *
+ * Connections are left open after a response is read so {@link HttpURLConnection} can reuse
+ * them, responses are requested gzip-compressed, and when a cache directory is installed the
+ * last body of each URL is kept on disk so the next request can be made conditional
+ * (If-None-Match / If-Modified-Since). A 304 response is then served from the cached body.
+ * Requests for the changes since a time are never the same twice, so they aren't cached.
+ */
+public final class HttpClient {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = HttpClient.class.getSimpleName();
+
+    /** Upper bound for the cached bodies on disk */
+    private static final long MAX_CACHE_BYTES = 4 * 1024 * 1024;
+
+    /**
+     * Most of an unread body {@link Response#close()} reads to keep the connection; past that,
+     * opening a new connection is cheaper than downloading the rest
+     */
+    private static final int MAX_DRAIN_BYTES = 16 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final HttpClient sInstance = new HttpClient();
+
+    /** Directory with the cached bodies and their validators, null if caching is off */
+    private volatile File mCacheDir;
+
+    private HttpClient() {
+    }
+
+    public static HttpClient getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Turn on conditional requests, keeping the cached bodies in the given directory.
+     */
+    public void install(File cacheDir) {
+        if (mCacheDir != null) {
+            return;
+        }
+        File dir = new File(cacheDir, "http");
+        if (dir.isDirectory() || dir.mkdirs()) {
+            mCacheDir = dir;
+        } else {
+            Log.e(LOG_TAG, "Can't create the HTTP cache directory " + dir);
+        }
+    }
+
+    /**
+     * Send a GET request to the given URL.
+     * The caller must {@link Response#close()} the response once done with it.
+     * @param connectTimeout in milliseconds
+     * @param readTimeout in milliseconds
+     */
+    public Response get(URL url, int connectTimeout, int readTimeout) throws IOException {
+        return get(url, connectTimeout, readTimeout, null);
+    }
+
+    /**
+     * Like {@link #get(URL, int, int)}, but canceling disconnects the request, also while it
+     * connects or reads the body. The caller removes the cancel listener once done with the
+     * response, so a reused connection isn't disconnected later.
+     * @param cancellation may be null
+     */
+    public Response get(URL url, int connectTimeout, int readTimeout, Cancellation cancellation)
+            throws IOException {
+        File cacheDir = mCacheDir;
+        CacheEntry entry = cacheDir != null && isCacheable(url) ? new CacheEntry(cacheDir, url) : null;
+
+        final HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        if (cancellation != null) {
+            cancellation.setOnCancelListener(new Cancellation.OnCancelListener() {
+                @Override
+                public void onCancel() {
+                    urlConnection.disconnect();
+                }
+            });
+        }
+        urlConnection.setReadTimeout(readTimeout);
+        urlConnection.setConnectTimeout(connectTimeout);
+        urlConnection.setRequestMethod("GET");
+        // Asking for gzip explicitly means the body has to be inflated here
+        urlConnection.setRequestProperty("Accept-Encoding", "gzip");
+        if (entry != null && entry.readValidators()) {
+            if (entry.eTag != null) {
+                urlConnection.setRequestProperty("If-None-Match", entry.eTag);
+            }
+            if (entry.lastModified != null) {
+                urlConnection.setRequestProperty("If-Modified-Since", entry.lastModified);
+            }
+        }
+
+        try {
+            long start = LoadMetrics.now();
+            urlConnection.connect();
+            LoadMetrics.CONNECT.recordSince(start);
+            start = LoadMetrics.now();
+            int code = urlConnection.getResponseCode();
+            LoadMetrics.FIRST_BYTE.recordSince(start);
+            if (code == HttpURLConnection.HTTP_NOT_MODIFIED && entry != null && entry.body.isFile()) {
+                // Read the (empty) body so the connection can go back to the pool
+                drain(urlConnection.getInputStream());
+                entry.body.setLastModified(System.currentTimeMillis());
+                return new Response(urlConnection, code, new FileInputStream(entry.body), true, -1,
+                        cancellation);
+            }
+            if (code != HttpURLConnection.HTTP_OK) {
+                InputStream errorStream = urlConnection.getErrorStream();
+                if (errorStream != null) {
+                    drain(errorStream);
+                }
+                return new Response(urlConnection, code, null, false, readRetryAfter(urlConnection),
+                        cancellation);
+            }
+
+            InputStream body = new WireCountingInputStream(urlConnection.getInputStream());
+            if ("gzip".equalsIgnoreCase(urlConnection.getContentEncoding())) {
+                body = new GZIPInputStream(body);
+            }
+            String eTag = urlConnection.getHeaderField("ETag");
+            String lastModified = urlConnection.getHeaderField("Last-Modified");
+            if (entry != null && (eTag != null || lastModified != null)) {
+                body = new CachingInputStream(body, entry, eTag, lastModified);
+            }
+            return new Response(urlConnection, code, body, false, -1, cancellation);
+        } catch (IOException e) {
+            // Don't keep a half-open connection around
+            urlConnection.disconnect();
+            throw e;
+        }
+    }
+
+    /**
+     * @return false for URLs that are unlikely to be requested again, e.g. the changes since the
+     * last sync
+     */
+    private static boolean isCacheable(URL url) {
+        String query = url.getQuery();
+        return query == null || !query.contains("updatedafter=");
+    }
+
+    /**
+     * @return the wait the server asked for with Retry-After, either in seconds or as a date,
+     * in milliseconds; -1 if there is none
+     */
+    private static long readRetryAfter(HttpURLConnection connection) {
+        String retryAfter = connection.getHeaderField("Retry-After");
+        if (retryAfter == null) {
+            return -1;
+        }
+        try {
+            return Math.max(0, Long.parseLong(retryAfter.trim()) * 1000);
+        } catch (NumberFormatException e) {
+            long date = connection.getHeaderFieldDate("Retry-After", -1);
+            return date < 0 ? -1 : Math.max(0, date - System.currentTimeMillis());
+        }
+    }
+
+    private static void drain(InputStream inputStream) throws IOException {
+        try {
+            byte[] buffer = new byte[4096];
+            while (inputStream.read(buffer) != -1) {
+                // discard
+            }
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Remove the least recently used bodies until the cache fits in {@link #MAX_CACHE_BYTES}.
+     */
+    private static void trimCache(File cacheDir) {
+        File[] files = cacheDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= MAX_CACHE_BYTES) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long diff = a.lastModified() - b.lastModified();
+                return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+            }
+        });
+        for (File file : files) {
+            if (total <= MAX_CACHE_BYTES) {
+                break;
+            }
+            total -= file.length();
+            file.delete();
+        }
+    }
+
+    /**
+     * Response of a {@link #get(URL, int, int)} request.
+     */
+    public static final class Response {
+        private final HttpURLConnection mConnection;
+        private final int mCode;
+        private final InputStream mBody;
+        private final boolean mFromCache;
+        private final long mRetryAfterMs;
+        private final Cancellation mCancellation;
+
+        private Response(HttpURLConnection connection, int code, InputStream body, boolean fromCache,
+                         long retryAfterMs, Cancellation cancellation) {
+            mConnection = connection;
+            mCode = code;
+            mBody = body;
+            mFromCache = fromCache;
+            mRetryAfterMs = retryAfterMs;
+            mCancellation = cancellation;
+        }
+
+        /**
+         * @return the HTTP status code, 304 if the body comes from the cache
+         */
+        public int getCode() {
+            return mCode;
+        }
+
+        /**
+         * @return true if there is a body to read, either fresh or from the cache
+         */
+        public boolean isSuccessful() {
+            return mBody != null;
+        }
+
+        public boolean isFromCache() {
+            return mFromCache;
+        }
+
+        /**
+         * @return how long the server asked to wait before trying again, in milliseconds, or -1
+         */
+        public long getRetryAfterMs() {
+            return mRetryAfterMs;
+        }
+
+        /**
+         * @return the decompressed body, or null if the request wasn't successful
+         */
+        public InputStream getBody() {
+            return mBody;
+        }
+
+        /**
+         * Finish reading the body and close it, so the connection stays open for reuse. A canceled
+         * response, or one with much of its body left, is disconnected instead.
+         */
+        public void close() throws IOException {
+            if (mBody == null) {
+                return;
+            }
+            if (mCancellation != null && mCancellation.isCanceled()) {
+                disconnect();
+                return;
+            }
+            byte[] buffer = new byte[4096];
+            int drained = 0;
+            while (drained < MAX_DRAIN_BYTES) {
+                int n = mBody.read(buffer);
+                if (n == -1) {
+                    mBody.close();
+                    return;
+                }
+                drained += n;
+            }
+            disconnect();
+        }
+
+        /**
+         * Close the body without reading the rest of it, and the underlying connection instead
+         * of returning it to the pool.
+         */
+        public void disconnect() {
+            if (mBody != null) {
+                try {
+                    mBody.close();
+                } catch (IOException e) {
+                    // The connection is closed next anyway
+                }
+            }
+            mConnection.disconnect();
+        }
+    }
+
+    /**
+     * Files of the cached body and validators of one URL.
+     */
+    private static final class CacheEntry {
+        final File dir;
+        final File body;
+        final File meta;
+        String eTag;
+        String lastModified;
+
+        CacheEntry(File cacheDir, URL url) {
+            dir = cacheDir;
+            String key = hash(url.toString());
+            body = new File(cacheDir, key + ".body");
+            meta = new File(cacheDir, key + ".meta");
+        }
+
+        /**
+         * @return true if the URL has a cached body with validators
+         */
+        boolean readValidators() {
+            if (!body.isFile() || !meta.isFile()) {
+                return false;
+            }
+            try {
+                BufferedReader reader = new BufferedReader(
+                        new InputStreamReader(new FileInputStream(meta), UTF_8));
+                try {
+                    eTag = emptyToNull(reader.readLine());
+                    lastModified = emptyToNull(reader.readLine());
+                } finally {
+                    reader.close();
+                }
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Problem reading cached validators", e);
+                return false;
+            }
+            return eTag != null || lastModified != null;
+        }
+
+        void writeValidators(String newETag, String newLastModified) throws IOException {
+            Writer writer = new OutputStreamWriter(new FileOutputStream(meta), UTF_8);
+            try {
+                writer.write((newETag != null ? newETag : "") + "\n");
+                writer.write((newLastModified != null ? newLastModified : "") + "\n");
+            } finally {
+                writer.close();
+            }
+        }
+
+        private static String emptyToNull(String value) {
+            return value == null || value.isEmpty() ? null : value;
+        }
+
+        private static String hash(String value) {
+            try {
+                byte[] digest = MessageDigest.getInstance("SHA-1").digest(value.getBytes(UTF_8));
+                StringBuilder hex = new StringBuilder();
+                for (byte b : digest) {
+                    hex.append(String.format("%02x", b));
+                }
+                return hex.toString();
+            } catch (NoSuchAlgorithmException e) {
+                return String.valueOf(value.hashCode());
+            }
+        }
+    }
+
+    /**
+     * Counts the bytes of a body as they come off the connection, before they are inflated, and
+     * records them in {@link LoadMetrics#RESPONSE_BYTES} when the body is closed.
+     */
+    private static final class WireCountingInputStream extends FilterInputStream {
+        private long mBytes;
+        private boolean mClosed;
+
+        WireCountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                mBytes++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int n = super.read(buffer, offset, count);
+            if (n > 0) {
+                mBytes += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            long n = super.skip(count);
+            mBytes += n;
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!mClosed) {
+                mClosed = true;
+                LoadMetrics.RESPONSE_BYTES.record(mBytes);
+            }
+            super.close();
+        }
+    }
+
+    /**
+     * Copies the body to a temporary file while it is read, and only commits it to the cache
+     * once the whole body has been read.
+     */
+    private static final class CachingInputStream extends FilterInputStream {
+        private final CacheEntry mEntry;
+        private final String mETag;
+        private final String mLastModified;
+        /** Own file of this response, a hedged copy of the request writes its own */
+        private File mTemp;
+        private OutputStream mOut;
+        private boolean mComplete;
+
+        CachingInputStream(InputStream in, CacheEntry entry, String eTag, String lastModified) {
+            super(in);
+            mEntry = entry;
+            mETag = eTag;
+            mLastModified = lastModified;
+            try {
+                mTemp = File.createTempFile(entry.body.getName(), ".tmp", entry.dir);
+                mOut = new FileOutputStream(mTemp);
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Can't cache the response body", e);
+                if (mTemp != null) {
+                    mTemp.delete();
+                }
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b == -1) {
+                mComplete = true;
+            } else {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int n = super.read(buffer, offset, count);
+            if (n == -1) {
+                mComplete = true;
+            } else {
+                write(buffer, offset, n);
+            }
+            return n;
+        }
+
+        private void write(byte[] buffer, int offset, int count) {
+            if (mOut == null) {
+                return;
+            }
+            try {
+                mOut.write(buffer, offset, count);
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Problem caching the response body", e);
+                abort();
+            }
+        }
+
+        private void abort() {
+            try {
+                mOut.close();
+            } catch (IOException ignored) {
+            }
+            mOut = null;
+            mTemp.delete();
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            if (mOut == null) {
+                return;
+            }
+            if (!mComplete) {
+                abort();
+                return;
+            }
+            mOut.close();
+            mOut = null;
+            if (mTemp.renameTo(mEntry.body)) {
+                mEntry.writeValidators(mETag, mLastModified);
+                trimCache(mEntry.dir);
+            } else {
+                mTemp.delete();
+            }
+        }
+    }
+}
@@ -4,33 +4,90 @@ import java.sql.Time;
 
 /**
  * Created by Pomme on 9/12/16.
+ *
+ * A view over one row of an {@link EarthquakeTable}.
  */
 public class Info {
-    private String location;
-    private double mag;
-    private String time;
-    private String url;
+    private final EarthquakeTable table;
+    private final int row;
 
-    public Info(String loc, double magnitude, String t, String urlString) {
-        location = loc;
-        mag = magnitude;
-        time = t;
-        url = urlString;
+    Info(EarthquakeTable earthquakeTable, int tableRow) {
+        table = earthquakeTable;
+        row = tableRow;
+    }
+
+    /**
+     * @return the USGS event id, e.g. "us10006jxs"
+     */
+    public String getId() {
+        return table.getId(row);
     }
 
     public String getLocation() {
-        return location;
+        return table.getPlace(row);
+    }
+
+    /**
+     * @return the distance part of the location, e.g. "85km SSW of", or null if it has none
+     */
+    public String getLocationOffset() {
+        return table.getPlacePrefix(row);
+    }
+
+    /**
+     * @return the location without its distance part, e.g. "Tokyo, Japan"
+     */
+    public String getPrimaryLocation() {
+        String primaryLocation = table.getPlaceSuffix(row);
+        return primaryLocation != null ? primaryLocation : "";
     }
 
     public double getMag() {
-        return mag;
+        return table.getMag(row);
+    }
+
+    public double getLatitude() {
+        return table.getLatitude(row);
+    }
+
+    public double getLongitude() {
+        return table.getLongitude(row);
     }
 
+    /**
+     * @return the depth in km
+     */
+    public double getDepth() {
+        return table.getDepth(row);
+    }
+
+    public long getTimeInMilliseconds() {
+        return table.getTime(row);
+    }
+
+    /**
+     * @return the time formatted for display, e.g. "Sep 12, 2016\n10:30 AM"
+     */
     public String getTime() {
-        return time;
+        return QueryUtils.formatTime(table.getTime(row));
     }
 
     public String getUrl() {
-        return url;
+        return table.getUrl(row);
+    }
+
+    /**
+     * @return when USGS last updated the event, in milliseconds since the epoch
+     */
+    public long getUpdated() {
+        return table.getUpdated(row);
+    }
+
+    EarthquakeTable getTable() {
+        return table;
+    }
+
+    int getRow() {
+        return row;
     }
 }
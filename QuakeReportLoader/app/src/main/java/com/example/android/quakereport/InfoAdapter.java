@@ -1,105 +1,330 @@
 package com.example.android.quakereport;
 
-import android.app.Activity;
+import android.content.Context;
 import android.support.v4.content.ContextCompat;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
 import android.widget.TextView;
 import android.graphics.drawable.GradientDrawable;
 
 import java.text.DecimalFormat;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
 
 /**
  * Created by Pomme on 9/12/16.
+ *
+ * RecyclerView adapter over the pages of an {@link EarthquakePager}.
  */
-public class InfoAdapter extends ArrayAdapter<Info> {
+public class InfoAdapter extends RecyclerView.Adapter<InfoAdapter.ViewHolder> {
+
+    /**
+     * Called when a loaded row is clicked.
+     */
+    public interface OnItemClickListener {
+        void onItemClick(Info earthquake);
+    }
+
+    /** Number of magnitude color bands, see {@link #getMagnitudeColorId(int)} */
+    static final int MAGNITUDE_BANDS = 11;
+
+    private final Context mContext;
+    private final EarthquakePager mPager;
+    private final OnItemClickListener mListener;
+    /** Search results shown instead of the pages, or null */
+    private List<Info> mFilter;
+
+    /** Formatter for the magnitude, one digit after "." */
+    private final DecimalFormat mMagnitudeFormatter = new DecimalFormat("0.0");
+    /** Circle color of each magnitude band, resolved once */
+    private final int[] mMagnitudeColors;
+    private final int mPlaceholderColor;
 
     /**
      * This is the custom Adapter constructor
      * @param context
-     * @param earthquakeInfo
+     * @param pager pages of earthquakes, may contain null rows for pages not loaded yet
+     * @param listener called when a row is clicked
      */
-    public InfoAdapter(Activity context, ArrayList<Info> earthquakeInfo) {
-        super(context, 0, earthquakeInfo);
+    public InfoAdapter(Context context, EarthquakePager pager, OnItemClickListener listener) {
+        mContext = context;
+        mPager = pager;
+        mListener = listener;
+        mMagnitudeColors = getMagnitudeColors(context);
+        mPlaceholderColor = ContextCompat.getColor(context, R.color.textColorEarthquakeDetails);
     }
 
-    @Override
-    public View getView(int position, View convertView, ViewGroup parent) {
-        View listView = convertView;
-        // Check if the existing view is being reused, otherwise inflate the view
-        if (listView == null) {
-            listView = LayoutInflater.from(getContext()).inflate(R.layout.list_item, parent, false);
+    /**
+     * Holds the views of a list item so they are only looked up once.
+     */
+    class ViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+        final TextView magTextView;
+        final GradientDrawable magnitudeCircle;
+        final TextView primarylocationTextView;
+        final TextView distanceTextView;
+        final TextView timeTextView;
+
+        ViewHolder(View listView) {
+            super(listView);
+            // find the textViews in the list_item.xml layout
+            magTextView = (TextView) listView.findViewById(R.id.text_mag);
+            // Fetch the background from the TextView, which is a GradientDrawable.
+            magnitudeCircle = (GradientDrawable) magTextView.getBackground();
+            primarylocationTextView = (TextView) listView.findViewById(R.id.text_primary_location);
+            distanceTextView = (TextView) listView.findViewById(R.id.text_distance);
+            timeTextView = (TextView) listView.findViewById(R.id.text_time);
+            listView.setOnClickListener(this);
         }
 
-        // Get (@link Info) object located at this position in the list
-        Info currentInfo = getItem(position);
+        @Override
+        public void onClick(View view) {
+            int position = getAdapterPosition();
+            if (position == RecyclerView.NO_POSITION) {
+                return;
+            }
+            // Rows whose page is still loading can't be opened
+            Info currentInfo = getItem(position);
+            if (currentInfo != null) {
+                mListener.onItemClick(currentInfo);
+            }
+        }
+    }
 
+    /**
+     * @return the row at the position, or null if its page isn't loaded
+     */
+    public Info getItem(int position) {
+        return mFilter != null ? mFilter.get(position) : mPager.peek(position);
+    }
 
-        double magnitue = currentInfo.getMag();
-        // Use DecimalFormat to format the magnitue to be one digit after ".".
-        DecimalFormat decimalFomatter = new DecimalFormat("0.0");
-        String mag = decimalFomatter.format(magnitue);
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        return new ViewHolder(LayoutInflater.from(mContext).inflate(R.layout.list_item, parent, false));
+    }
 
-        // find the textView in the list_item.xml layout with the location
-        TextView magTextView = (TextView) listView.findViewById(R.id.text_mag);
-        // Get the location from current Info object and set this text on the location TextView
-        magTextView.setText(mag);
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        long start = LoadMetrics.now();
+        bind(holder, position);
+        LoadMetrics.BIND.recordSince(start);
+    }
 
+    private void bind(ViewHolder holder, int position) {
+        // Get (@link Info) object located at this position in the list
+        Info currentInfo = mFilter != null ? mFilter.get(position) : mPager.get(position);
+
+        // The page of this row is still loading, show an empty row until it arrives
+        if (currentInfo == null) {
+            holder.magTextView.setText("");
+            holder.magnitudeCircle.setColor(mPlaceholderColor);
+            holder.primarylocationTextView.setText(R.string.loading_row);
+            holder.distanceTextView.setText("");
+            holder.timeTextView.setText("");
+            return;
+        }
 
+        double magnitude = currentInfo.getMag();
+        holder.magTextView.setText(mMagnitudeFormatter.format(magnitude));
         // Set the proper background color on the magnitude circle.
-        // Fetch the background from the TextView, which is a GradientDrawable.
-        GradientDrawable magnitudeCircle = (GradientDrawable) magTextView.getBackground();
+        holder.magnitudeCircle.setColor(getMagnitudeColor(magnitude));
 
-        // Get the appropriate background color based on the current earthquake magnitude
-        int magnitudeColor = getMagnitudeColor(magnitue);
-
-        // Set the color on the magnitude circle
-        magnitudeCircle.setColor(magnitudeColor);
+        // The place was split into its distance and primary location when it was parsed
+        String distanceStr = currentInfo.getLocationOffset();
+        holder.distanceTextView.setText(distanceStr != null ? distanceStr : "Near the");
+        holder.primarylocationTextView.setText(currentInfo.getPrimaryLocation());
 
+        holder.timeTextView.setText(currentInfo.getTime());
+    }
 
+    @Override
+    public int getItemCount() {
+        return mFilter != null ? mFilter.size() : mPager.size();
+    }
 
+    /**
+     * Show the given search results instead of the pages, or the pages again if null. The
+     * pages keep loading meanwhile, their updates are shown once the filter is cleared.
+     */
+    public void setFilter(List<Info> earthquakes) {
+        mFilter = earthquakes;
+        // A result can differ in every row from the last one, a diff wouldn't pay off per keystroke
+        notifyDataSetChanged();
+    }
 
+    public boolean isFiltered() {
+        return mFilter != null;
+    }
 
+    /**
+     * Replace the first page with a newly loaded one, keeping the later pages, and only rebind
+     * the rows whose event changed, matching rows by event id. Null drops every page.
+     */
+    public void setFirstPage(List<Info> earthquakes) {
+        if (mFilter != null) {
+            mPager.setFirstPage(earthquakes);
+            return;
+        }
+        // Snapshot the rows on screen now, the pager is about to replace the first page
+        int oldCount = mPager.size();
+        String[] oldIds = new String[oldCount];
+        long[] oldUpdated = new long[oldCount];
+        for (int i = 0; i < oldCount; i++) {
+            Info earthquake = mPager.peek(i);
+            if (earthquake != null) {
+                oldIds[i] = earthquake.getId();
+                oldUpdated[i] = earthquake.getUpdated();
+            }
+        }
 
+        mPager.setFirstPage(earthquakes);
+        int newCount = mPager.size();
+        if (startsWith(oldIds, oldUpdated, newCount)) {
+            // Rows were only appended, e.g. while a result streams in; no diff needed
+            if (newCount > oldCount) {
+                notifyItemRangeInserted(oldCount, newCount - oldCount);
+            }
+            return;
+        }
+        DiffUtil.calculateDiff(new RowDiff(oldIds, oldUpdated, newCount)).dispatchUpdatesTo(this);
+    }
 
-        String fullLocation = currentInfo.getLocation();
-        String primaryLoctionStr = "";
-        String distanceStr = "Near the";
-        if (fullLocation.contains(" of ")) {
-            int index = fullLocation.indexOf(" of ");
-            primaryLoctionStr = fullLocation.substring(index + 4);
-            distanceStr = fullLocation.substring(0, index + 3);
+    /**
+     * @return whether the pager's rows start with the given rows, unchanged
+     */
+    private boolean startsWith(String[] ids, long[] updated, int count) {
+        if (ids.length > count) {
+            return false;
         }
-        else {
-            primaryLoctionStr = fullLocation;
+        for (int i = 0; i < ids.length; i++) {
+            Info earthquake = mPager.peek(i);
+            if (ids[i] == null || earthquake == null || !ids[i].equals(earthquake.getId())
+                    || updated[i] != earthquake.getUpdated()) {
+                return false;
+            }
         }
-        // find the textView in the list_item.xml layout with the primarylocation
-        TextView primarylocationTextView = (TextView) listView.findViewById(R.id.text_primary_location);
-        // find the textView in the list_item.xml layout with the distance
-        TextView distanceTextView = (TextView) listView.findViewById(R.id.text_distance);
-        // Get the location from current Info object and set this text on the TextView
-        primarylocationTextView.setText(primaryLoctionStr);
-        distanceTextView.setText(distanceStr);
+        return true;
+    }
 
+    /**
+     * Merge live changes into the first page and only rebind the rows they touch.
+     * @param changed new and updated events
+     * @param removedIds ids of deleted events
+     * @param query filter and sort order of the list
+     */
+    public void applyDelta(EarthquakeTable changed, Set<String> removedIds, EarthquakeQuery query) {
+        List<Info> firstPage = mPager.getFirstPage();
+        if (firstPage == null) {
+            // Nothing loaded yet, the loader will deliver the changes with the rest
+            return;
+        }
 
-        // find the textView in the list_item.xml layout with the location
-        TextView timeTextView = (TextView) listView.findViewById(R.id.text_time);
-        // Get the location from current Info object and set this text on the location TextView
-        timeTextView.setText(currentInfo.getTime());
+        // Rows by event id, with the changes applied on top
+        LinkedHashMap<String, Info> rows = new LinkedHashMap<>();
+        List<Info> merged = new ArrayList<>(firstPage.size() + changed.size());
+        for (Info earthquake : firstPage) {
+            String id = earthquake.getId();
+            if (id == null) {
+                merged.add(earthquake);
+            } else if (!removedIds.contains(id)) {
+                rows.put(id, earthquake);
+            }
+        }
+        for (int row = 0; row < changed.size(); row++) {
+            Info earthquake = changed.get(row);
+            if (query.matches(earthquake)) {
+                rows.put(earthquake.getId(), earthquake);
+            } else {
+                // An updated event can drop below the filter
+                rows.remove(earthquake.getId());
+            }
+        }
+        merged.addAll(rows.values());
+        Collections.sort(merged, query.getComparator());
+        // Rows pushed past the end of the page belong to the next one. A page with the events
+        // of other sources merged in keeps its size, or its last rows would be on no page.
+        int pageSize = Math.max(mPager.getPageSize(), firstPage.size());
+        if (merged.size() > pageSize) {
+            merged = new ArrayList<>(merged.subList(0, pageSize));
+        }
 
+        int oldFirstPageCount = firstPage.size();
+        String[] oldIds = new String[oldFirstPageCount];
+        long[] oldUpdated = new long[oldFirstPageCount];
+        for (int i = 0; i < oldFirstPageCount; i++) {
+            oldIds[i] = firstPage.get(i).getId();
+            oldUpdated[i] = firstPage.get(i).getUpdated();
+        }
+        int oldCount = mPager.size();
 
-        return listView;
+        mPager.replaceFirstPage(merged);
+        if (mFilter != null) {
+            return;
+        }
+        DiffUtil.calculateDiff(new RowDiff(oldIds, oldUpdated, merged.size())).dispatchUpdatesTo(this);
+        // The diff only covers the first page; reconcile the row count the pager ended up with
+        int expectedCount = oldCount - oldFirstPageCount + merged.size();
+        int count = mPager.size();
+        if (count > expectedCount) {
+            notifyItemRangeInserted(merged.size(), count - expectedCount);
+        } else if (count < expectedCount) {
+            notifyItemRangeRemoved(count, expectedCount - count);
+        }
+        // The later pages were dropped and show placeholders until they are fetched again
+        if (count > merged.size()) {
+            notifyItemRangeChanged(merged.size(), count - merged.size());
+        }
     }
 
+    /**
+     * Refresh the rows of a page the pager just loaded.
+     */
+    public void onPageLoaded(int positionStart, int itemCount, int previousCount) {
+        if (mFilter != null) {
+            return;
+        }
+        int end = positionStart + itemCount;
+        int changed = Math.min(end, previousCount) - positionStart;
+        if (changed > 0) {
+            notifyItemRangeChanged(positionStart, changed);
+        }
+        int insertStart = Math.max(positionStart, previousCount);
+        if (end > insertStart) {
+            notifyItemRangeInserted(insertStart, end - insertStart);
+        }
+    }
 
+    /**
+     * @return the circle color for the magnitude
+     */
+    public int getMagnitudeColor(double mag) {
+        return mMagnitudeColors[getMagnitudeBand(mag)];
+    }
 
+    /**
+     * @return the circle color of each magnitude band, indexed by {@link #getMagnitudeBand(double)}
+     */
+    static int[] getMagnitudeColors(Context context) {
+        int[] colors = new int[MAGNITUDE_BANDS];
+        for (int band = 0; band < MAGNITUDE_BANDS; band++) {
+            colors[band] = ContextCompat.getColor(context, getMagnitudeColorId(band));
+        }
+        return colors;
+    }
 
+    static int getMagnitudeBand(double mag) {
+        if (Double.isNaN(mag) || mag < 0) {
+            return 0;
+        }
+        return (int) Math.min(Math.floor(mag), MAGNITUDE_BANDS - 1);
+    }
 
-    private int getMagnitudeColor(double mag) {
-        int roundUpMagnitude = (int) Math.floor(mag);
+    private static int getMagnitudeColorId(int roundUpMagnitude) {
         int backgroundColorID;
         switch (roundUpMagnitude) {
             case 0:
@@ -125,9 +350,50 @@ public class InfoAdapter extends ArrayAdapter<Info> {
             default: backgroundColorID = R.color.magnitude10plus;
                 break;
         }
-        return ContextCompat.getColor(getContext(), backgroundColorID);
+        return backgroundColorID;
     }
 
+    /**
+     * Matches the old rows against the first newCount rows of the pager by event id; a row only
+     * needs to be rebound if USGS updated its event.
+     */
+    private class RowDiff extends DiffUtil.Callback {
+        private final String[] mOldIds;
+        private final long[] mOldUpdated;
+        private final int mNewCount;
+
+        RowDiff(String[] oldIds, long[] oldUpdated, int newCount) {
+            mOldIds = oldIds;
+            mOldUpdated = oldUpdated;
+            mNewCount = newCount;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldIds.length;
+        }
 
+        @Override
+        public int getNewListSize() {
+            return mNewCount;
+        }
 
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            Info newInfo = mPager.peek(newItemPosition);
+            if (mOldIds[oldItemPosition] == null || newInfo == null) {
+                // Placeholders only match themselves
+                return mOldIds[oldItemPosition] == null && newInfo == null
+                        && oldItemPosition == newItemPosition;
+            }
+            return mOldIds[oldItemPosition].equals(newInfo.getId());
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            Info newInfo = mPager.peek(newItemPosition);
+            return newInfo != null && mOldIds[oldItemPosition] != null
+                    && mOldUpdated[oldItemPosition] == newInfo.getUpdated();
+        }
+    }
 }
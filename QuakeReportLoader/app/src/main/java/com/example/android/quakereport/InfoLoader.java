@@ -4,10 +4,29 @@ import android.content.AsyncTaskLoader;
 import android.content.Context;
 import android.os.AsyncTask;
 
+import android.net.Uri;
+import android.util.Log;
+
+import java.util.Collections;
 import java.util.List;
 
 /**
  * Loads a list of earthquakes by using an AsyncTask to perform the network request to the given URL
+ *
+ * The first load serves whatever the {@link EarthquakeStore} already holds for the query, then
+ * a second load syncs the store with USGS and delivers the updated rows. Synced results are
+ * kept in the {@link ResultCache}, so a new loader for the same query can skip both while the
+ * result is fresh. A query that a cached result of another query covers, e.g. after the
+ * settings changed, is answered by the {@link QueryPlanner} on the device.
+ *
+ * A sync the {@link EarlyFetch} started at process start for the same query is taken over
+ * instead of syncing again.
+ *
+ * The first download of a query is shown while it arrives: its rows are delivered in batches,
+ * at most once per frame, through a {@link RowStream}.
+ *
+ * With extra sources, a last load merges their events into the synced result through the
+ * {@link EventAggregator}, so a slow network never holds up the USGS events.
  */
 public class InfoLoader extends AsyncTaskLoader<List<Info>> {
     /** Tag for long messages */
@@ -15,19 +34,105 @@ public class InfoLoader extends AsyncTaskLoader<List<Info>> {
 
     /** Query URL */
     private String mUrl;
+
+    /** Last delivered result */
+    private List<Info> mEarthquakes;
+
+    /** Whether the store has been synced with USGS since this loader was created */
+    private volatile boolean mSynced;
+
+    /** Why the last sync failed, or null if it succeeded */
+    private volatile FetchException mError;
+
+    /** Rows of another cached query this query was answered from, waiting for their remainder */
+    private volatile QueryPlanner.Plan mPlan;
+
+    /** Other networks whose events are merged into the result, empty for USGS only */
+    private final List<? extends EventSource> mExtraSources;
+
+    /** Whether the extra sources have been merged into the synced result */
+    private volatile boolean mMerged;
+
+    /** Time each extra source gets to answer */
+    private static final long EXTRA_SOURCE_TIMEOUT_MS = 10 * 1000;
+
+    /** Shared by all loaders, its threads only live while sources are fetched */
+    private static final EventAggregator sAggregator = new EventAggregator(4);
+
+    /** When the streamed load started, or 0 once its first rows were delivered */
+    private volatile long mStreamStartNanos;
+
+    /** Delivers the rows of a streamed load as they arrive */
+    private final RowStream.Callback mRowCallback = new RowStream.Callback() {
+        @Override
+        public void onRows(List<Info> earthquakes) {
+            if (!isStarted() || isAbandoned()) {
+                return;
+            }
+            if (mStreamStartNanos != 0) {
+                LoadMetrics.FIRST_ROWS.recordSince(mStreamStartNanos);
+                mStreamStartNanos = 0;
+            }
+            // Partial results don't count as the loader's result, see deliverResult
+            InfoLoader.super.deliverResult(earthquakes);
+        }
+    };
+
+    /** Cancels the load in flight, null between loads */
+    private volatile Cancellation mCancellation;
+
+    /** When the last background load finished, or 0 once its result was delivered */
+    private volatile long mLoadFinishedNanos;
+
     /**
      * Constructs a new {@link InfoLoader}
      * @param context of the activity
      * @param url to load data from
      */
     public InfoLoader(Context context, String url) {
+        this(context, url, Collections.<EventSource>emptyList());
+    }
+
+    /**
+     * Constructs a new {@link InfoLoader} that also shows the events of other networks
+     * @param context of the activity
+     * @param url USGS query to load data from
+     * @param extraSources networks to merge into the USGS events
+     */
+    public InfoLoader(Context context, String url, List<? extends EventSource> extraSources) {
         super(context);
         mUrl = url;
+        mExtraSources = extraSources;
+        // Keep response bodies around so repeated queries can be conditional
+        HttpClient.getInstance().install(context.getCacheDir());
+    }
+
+    /**
+     * @return why the last sync failed, or null if it succeeded; the delivered rows are the ones
+     * stored before, so an empty result with an error means the fetch failed, not that there are
+     * no earthquakes
+     */
+    public FetchException getError() {
+        return mError;
     }
 
     @Override
     protected void onStartLoading() {
-        forceLoad();
+        if (mEarthquakes == null && mUrl != null) {
+            ResultCache.Entry cached = ResultCache.getInstance().get(mUrl);
+            if (cached != null) {
+                // A fresh result needs no load; a stale one is shown while it is revalidated
+                mSynced = cached.isFresh();
+                deliverResult(cached.getEarthquakes());
+                return;
+            }
+        }
+        if (mEarthquakes != null) {
+            // Loads again by itself if the result isn't synced yet
+            deliverResult(mEarthquakes);
+        } else {
+            forceLoad();
+        }
     }
 
     /**
@@ -39,11 +144,175 @@ public class InfoLoader extends AsyncTaskLoader<List<Info>> {
             return null;
         }
 
-        // Perform the network request, parse the response, and extract a list of Info
-        List<Info> earthquakes = QueryUtils.fetchEarthquakeData(mUrl);
+        Cancellation cancellation = new Cancellation();
+        mCancellation = cancellation;
+        try {
+            long start = LoadMetrics.now();
+            List<Info> earthquakes = load(cancellation);
+            if (cancellation.isCanceled()) {
+                // Superseded, the result is thrown away
+                return null;
+            }
+            LoadMetrics.LOAD.recordSince(start);
+            mLoadFinishedNanos = LoadMetrics.now();
+            return earthquakes;
+        } finally {
+            mCancellation = null;
+        }
+    }
+
+    /**
+     * Abort the request in flight and stop parsing at the next feature.
+     */
+    @Override
+    public void cancelLoadInBackground() {
+        Cancellation cancellation = mCancellation;
+        if (cancellation != null) {
+            cancellation.cancel();
+        }
+    }
+
+    private List<Info> load(Cancellation cancellation) {
+        if (needsMerge()) {
+            mMerged = true;
+            if (mEarthquakes instanceof EarthquakeTable) {
+                return merge((EarthquakeTable) mEarthquakes, cancellation);
+            }
+        }
+
+        if (mEarthquakes == null && !mSynced) {
+            // e.g. a raised minmag or another order of a query that is already cached
+            QueryPlanner.Plan plan = QueryPlanner.plan(mUrl);
+            if (plan != null) {
+                if (plan.isCovered() && plan.getSource().isFresh()) {
+                    mSynced = true;
+                    ResultCache.getInstance().put(mUrl, plan.getEarthquakes(), plan.getSource());
+                    saveSnapshot(plan.getEarthquakes());
+                } else if (plan.getSource().isFresh()) {
+                    // Only the rows after the covered ones have to be fetched
+                    mPlan = plan;
+                }
+                return plan.getEarthquakes();
+            }
+        }
+
+        QueryPlanner.Plan plan = mPlan;
+        if (plan != null) {
+            mPlan = null;
+            EarthquakeTable remainder = QueryUtils.fetchEarthquakeUpdates(plan.getRemainderUrl(), cancellation);
+            if (remainder != null) {
+                mSynced = true;
+                EarthquakeTable earthquakes = plan.complete(remainder);
+                ResultCache.getInstance().put(mUrl, earthquakes, plan.getSource());
+                saveSnapshot(earthquakes);
+                return earthquakes;
+            }
+        }
+
+        EarthquakeStore store = EarthquakeStore.getInstance(getContext());
+        // Show the stored rows first if this query was synced before
+        if (mEarthquakes == null && !mSynced && store.getLastSync(mUrl) > 0) {
+            return store.query(mUrl);
+        }
+
+        // Perform the network request for the changed events and merge them into the store.
+        // With nothing on screen yet, show the rows while they arrive.
+        RowStream stream = null;
+        if (mEarthquakes == null) {
+            stream = new RowStream(mRowCallback);
+            mStreamStartNanos = LoadMetrics.now();
+        }
+        FetchException error = null;
+        try {
+            // The sync may already be under way since the process started
+            EarlyFetch earlyFetch = EarlyFetch.claim(mUrl);
+            if (earlyFetch != null) {
+                earlyFetch.await(cancellation, stream);
+            } else {
+                store.sync(mUrl, cancellation, stream);
+            }
+        } catch (FetchException e) {
+            if (e.getReason() == FetchException.Reason.CANCELED || cancellation.isCanceled()) {
+                return null;
+            }
+            Log.e(LOG_TAG, "Sync failed, showing the stored earthquakes", e);
+            error = e;
+        } finally {
+            if (stream != null) {
+                stream.close();
+            }
+        }
+        mSynced = true;
+        mError = error;
+        EarthquakeTable earthquakes = store.query(mUrl);
+        if (error == null) {
+            // A failed sync is neither fresh nor worth keeping for the next start
+            ResultCache.getInstance().put(mUrl, earthquakes);
+            saveSnapshot(earthquakes);
+        }
         return earthquakes;
     }
 
+    private boolean needsMerge() {
+        return mSynced && !mMerged && !mExtraSources.isEmpty();
+    }
+
+    /**
+     * Add the events of the extra sources to the synced USGS events. The merged result is not
+     * cached, the cache and the planner only hold USGS results.
+     */
+    private List<Info> merge(EarthquakeTable earthquakes, Cancellation cancellation) {
+        int limit;
+        try {
+            limit = Integer.parseInt(Uri.parse(mUrl).getQueryParameter("limit"));
+        } catch (NumberFormatException e) {
+            limit = earthquakes.size();
+        }
+        EarthquakeTable merged = sAggregator.fetch(earthquakes, mExtraSources,
+                EarthquakeQuery.fromUrl(mUrl), limit, EXTRA_SOURCE_TIMEOUT_MS, cancellation, null);
+        if (cancellation.isCanceled()) {
+            return null;
+        }
+        saveSnapshot(merged);
+        return merged;
+    }
+
+    /**
+     * Keep the final result of the load for the next cold start.
+     */
+    private void saveSnapshot(EarthquakeTable earthquakes) {
+        if (earthquakes.size() > 0) {
+            Snapshot.write(Snapshot.getFile(getContext()), mUrl, earthquakes);
+        }
+    }
+
+    @Override
+    public void deliverResult(List<Info> earthquakes) {
+        mEarthquakes = earthquakes;
+        super.deliverResult(earthquakes);
+        // onLoadFinished has run by now
+        if (mLoadFinishedNanos != 0) {
+            LoadMetrics.DELIVER.recordSince(mLoadFinishedNanos);
+            mLoadFinishedNanos = 0;
+        }
+        // The stored rows are on screen, now fetch what changed
+        if ((!mSynced || needsMerge()) && isStarted()) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        // The activity is gone or the query changed, don't finish the download for nobody.
+        // The framework only calls cancelLoadInBackground() itself from API 16 on.
+        cancelLoad();
+        cancelLoadInBackground();
+        mEarthquakes = null;
+        mPlan = null;
+        mMerged = false;
+    }
+
 
 
 
@@ -0,0 +1,200 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.Handler;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Polls the USGS all_hour summary feed while the list is on screen and reports what changed
+ * since the previous poll.
+ *
+ * The feed is small and requested conditionally, so an unchanged feed costs a 304. The poll
+ * interval backs off while nothing changes and tightens again after a large event. The first
+ * poll only learns which events the feed holds; the loader delivers those with the rest.
+ */
+public class LiveFeed {
+
+    /**
+     * Called on the main thread with the changes of a poll.
+     */
+    public interface Listener {
+        /**
+         * @param changed events that are new or were updated since the previous poll
+         * @param removedIds ids of events USGS deleted since the previous poll
+         */
+        void onDelta(EarthquakeTable changed, Set<String> removedIds);
+    }
+
+    /** Every event of the last hour, updated every minute */
+    private static final String ALL_HOUR_URL =
+            "http://earthquake.usgs.gov/earthquakes/feed/v1.0/summary/all_hour.geojson";
+
+    /** Time span of the feed */
+    private static final long FEED_WINDOW_MS = 60 * 60 * 1000;
+
+    private static final long MIN_INTERVAL_MS = 30 * 1000;
+    private static final long DEFAULT_INTERVAL_MS = 60 * 1000;
+    private static final long MAX_INTERVAL_MS = 10 * 60 * 1000;
+
+    /** Events from this magnitude on make the feed poll as often as it can */
+    private static final double LARGE_EVENT_MAGNITUDE = 5.0;
+
+    private final Context mContext;
+    private final Listener mListener;
+    private final Handler mHandler = new Handler();
+
+    /** {time, updated} of each event in the previous poll, by event id, null before the first */
+    private Map<String, long[]> mSnapshot;
+    private long mInterval = DEFAULT_INTERVAL_MS;
+    private PollTask mTask;
+    private boolean mRunning;
+
+    private final Runnable mPoll = new Runnable() {
+        @Override
+        public void run() {
+            mTask = new PollTask(mSnapshot);
+            mTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        }
+    };
+
+    public LiveFeed(Context context, Listener listener) {
+        mContext = context.getApplicationContext();
+        mListener = listener;
+    }
+
+    /**
+     * Start polling right away.
+     */
+    public void start() {
+        if (mRunning) {
+            return;
+        }
+        mRunning = true;
+        mHandler.post(mPoll);
+    }
+
+    /**
+     * Stop polling. A poll in flight is cancelled and its result ignored.
+     */
+    public void stop() {
+        mRunning = false;
+        mHandler.removeCallbacks(mPoll);
+        if (mTask != null) {
+            mTask.cancel(true);
+            mTask = null;
+        }
+    }
+
+    /**
+     * Result of a poll, computed off the main thread.
+     */
+    private static class Delta {
+        EarthquakeTable changed;
+        Set<String> removedIds;
+        Map<String, long[]> snapshot;
+        double maxMagnitude = Double.NEGATIVE_INFINITY;
+    }
+
+    private class PollTask extends AsyncTask<Void, Void, Delta> {
+        private final Map<String, long[]> mPrevious;
+
+        /**
+         * @param previous the events of the previous poll, or null to only take stock of the feed
+         */
+        PollTask(Map<String, long[]> previous) {
+            mPrevious = previous;
+        }
+
+        @Override
+        protected Delta doInBackground(Void... params) {
+            EarthquakeTable feed = QueryUtils.fetchEarthquakeUpdates(ALL_HOUR_URL);
+            if (feed == null || isCancelled()) {
+                return null;
+            }
+
+            Delta delta = new Delta();
+            delta.changed = new EarthquakeTable();
+            delta.removedIds = new HashSet<>();
+            delta.snapshot = new HashMap<>();
+            for (int row = 0; row < feed.size(); row++) {
+                String id = feed.getId(row);
+                if (id == null) {
+                    continue;
+                }
+                delta.snapshot.put(id, new long[]{feed.getTime(row), feed.getUpdated(row)});
+            }
+            if (mPrevious == null) {
+                return delta;
+            }
+
+            for (int row = 0; row < feed.size(); row++) {
+                String id = feed.getId(row);
+                if (id == null) {
+                    continue;
+                }
+                long[] previous = mPrevious.get(id);
+                if (previous == null || previous[1] != feed.getUpdated(row)) {
+                    delta.changed.add(feed, row);
+                    if (feed.getMag(row) > delta.maxMagnitude) {
+                        delta.maxMagnitude = feed.getMag(row);
+                    }
+                }
+            }
+
+            // An event that should still be inside the feed window but is gone was deleted. The
+            // window is measured by the server's clock, the device's may be off by any amount.
+            if (feed.getGenerated() > 0) {
+                long windowStart = feed.getGenerated() - FEED_WINDOW_MS;
+                for (Map.Entry<String, long[]> entry : mPrevious.entrySet()) {
+                    if (!delta.snapshot.containsKey(entry.getKey()) && entry.getValue()[0] >= windowStart) {
+                        delta.removedIds.add(entry.getKey());
+                    }
+                }
+            }
+
+            // Keep the store in step with the list
+            EarthquakeStore store = EarthquakeStore.getInstance(mContext);
+            if (delta.changed.size() > 0) {
+                store.upsert(delta.changed);
+            }
+            if (!delta.removedIds.isEmpty()) {
+                store.delete(delta.removedIds);
+            }
+            if (delta.changed.size() > 0 || !delta.removedIds.isEmpty()) {
+                // Cached results no longer match the store
+                ResultCache.getInstance().invalidateAll();
+            }
+            return delta;
+        }
+
+        @Override
+        protected void onPostExecute(Delta delta) {
+            if (!mRunning || mTask != this) {
+                return;
+            }
+            mTask = null;
+            if (delta == null) {
+                // The poll failed, try again later
+                mInterval = Math.min(mInterval * 2, MAX_INTERVAL_MS);
+            } else {
+                boolean first = mSnapshot == null;
+                mSnapshot = delta.snapshot;
+                if (first) {
+                    // Nothing to compare with yet, keep the interval
+                } else if (delta.changed.size() == 0 && delta.removedIds.isEmpty()) {
+                    // Nothing happened, poll less often
+                    mInterval = Math.min(mInterval * 2, MAX_INTERVAL_MS);
+                } else {
+                    mInterval = delta.maxMagnitude >= LARGE_EVENT_MAGNITUDE ? MIN_INTERVAL_MS : DEFAULT_INTERVAL_MS;
+                    mListener.onDelta(delta.changed, delta.removedIds);
+                }
+            }
+            mHandler.postDelayed(mPoll, mInterval);
+        }
+    }
+}
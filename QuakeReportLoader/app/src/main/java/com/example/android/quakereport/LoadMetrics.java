@@ -0,0 +1,160 @@
+package com.example.android.quakereport;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Rolling histograms of how long each stage of loading the earthquakes takes, and how big the
+ * responses are. Recording a value is a couple of array writes, so the stages stay instrumented
+ * in release builds.
+ *
+ * Dump them with {@code adb shell dumpsys activity com.example.android.quakereport}.
+ */
+public final class LoadMetrics {
+
+    /** Opening the connection, including the DNS lookup and TLS handshake */
+    public static final Histogram CONNECT = new Histogram("connect", true);
+    /** From the request being sent until the response code arrives */
+    public static final Histogram FIRST_BYTE = new Histogram("first byte", true);
+    /** Time spent waiting for the response body while it is parsed */
+    public static final Histogram BODY_READ = new Histogram("body read", true);
+    /** Time spent parsing, without the waits for the body */
+    public static final Histogram PARSE = new Histogram("parse", true);
+    /** One request for a page of the list, from connecting until the body is parsed */
+    public static final Histogram REQUEST_LIST = new Histogram("list request", true);
+    /** One request for the detail of an event */
+    public static final Histogram REQUEST_DETAIL = new Histogram("detail request", true);
+    /** One check for new events to alert about */
+    public static final Histogram REQUEST_ALERT = new Histogram("alert request", true);
+    /** One request to another FDSN event service */
+    public static final Histogram REQUEST_SOURCE = new Histogram("source request", true);
+    /** The whole background load, from the store or the network */
+    public static final Histogram LOAD = new Histogram("load", true);
+    /** From the start of a streamed load until its first rows reach the activity */
+    public static final Histogram FIRST_ROWS = new Histogram("first rows", true);
+    /** From the background load finishing until the result reaches the activity */
+    public static final Histogram DELIVER = new Histogram("deliver", true);
+    /** Binding one row of the list */
+    public static final Histogram BIND = new Histogram("bind", true);
+    /** Bytes of a response body read off the connection, still gzipped; 304s and errors aren't counted */
+    public static final Histogram RESPONSE_BYTES = new Histogram("wire bytes", false);
+    /** Events in a response */
+    public static final Histogram EVENTS = new Histogram("events", false);
+
+    private static final Histogram[] ALL = {
+            CONNECT, FIRST_BYTE, BODY_READ, PARSE, REQUEST_LIST, REQUEST_DETAIL, REQUEST_ALERT,
+            REQUEST_SOURCE, LOAD, FIRST_ROWS, DELIVER, BIND, RESPONSE_BYTES, EVENTS
+    };
+
+    /** Number of most recent values each histogram keeps */
+    private static final int WINDOW = 256;
+
+    private LoadMetrics() {
+    }
+
+    /**
+     * @return the current time to measure a stage from, in nanoseconds
+     */
+    public static long now() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Print every histogram, one per line.
+     */
+    public static void dump(String prefix, PrintWriter writer) {
+        writer.print(prefix);
+        writer.println("Load metrics (last " + WINDOW + " values, times in ms):");
+        for (Histogram histogram : ALL) {
+            histogram.dump(prefix + "  ", writer);
+        }
+    }
+
+    /**
+     * The last {@link #WINDOW} values of one metric, and how they spread over power of two
+     * buckets.
+     */
+    public static final class Histogram {
+        private final String mName;
+        /** Whether the values are durations in nanoseconds */
+        private final boolean mNanos;
+        /** Ring of the most recent values */
+        private final long[] mValues = new long[WINDOW];
+        /** Bucket i counts the values in the ring below 2^i */
+        private final int[] mBuckets = new int[64];
+        /** Number of values ever recorded */
+        private long mCount;
+
+        private Histogram(String name, boolean nanos) {
+            mName = name;
+            mNanos = nanos;
+        }
+
+        /**
+         * Record the time elapsed since startNanos, as returned by {@link LoadMetrics#now()}.
+         */
+        public void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        public synchronized void record(long value) {
+            value = Math.max(0, value);
+            int slot = (int) (mCount % WINDOW);
+            if (mCount >= WINDOW) {
+                // The oldest value falls out of the window
+                mBuckets[bucket(mValues[slot])]--;
+            }
+            mValues[slot] = value;
+            mBuckets[bucket(value)]++;
+            mCount++;
+        }
+
+        /**
+         * @param fraction e.g. 0.95 for the 95th percentile
+         * @return the value that fraction of the recent values are below, or -1 if there are
+         * fewer than minCount of them
+         */
+        public synchronized long percentile(double fraction, int minCount) {
+            int size = (int) Math.min(mCount, WINDOW);
+            if (size == 0 || size < minCount) {
+                return -1;
+            }
+            long[] sorted = Arrays.copyOf(mValues, size);
+            Arrays.sort(sorted);
+            return sorted[Math.min(size - 1, (int) (size * fraction))];
+        }
+
+        synchronized void dump(String prefix, PrintWriter writer) {
+            writer.print(prefix);
+            writer.print(mName);
+            writer.print(": count=");
+            writer.print(mCount);
+            int size = (int) Math.min(mCount, WINDOW);
+            if (size > 0) {
+                long[] sorted = Arrays.copyOf(mValues, size);
+                Arrays.sort(sorted);
+                writer.print(" p50=" + format(sorted[size / 2]));
+                writer.print(" p90=" + format(sorted[size * 9 / 10]));
+                writer.print(" p99=" + format(sorted[size * 99 / 100]));
+                writer.print(" max=" + format(sorted[size - 1]));
+                writer.print(" buckets");
+                // <limit:count for each non empty bucket
+                for (int i = 0; i < mBuckets.length; i++) {
+                    if (mBuckets[i] > 0) {
+                        writer.print(" <" + format(1L << Math.min(i, 62)) + ":" + mBuckets[i]);
+                    }
+                }
+            }
+            writer.println();
+        }
+
+        private String format(long value) {
+            return mNanos ? String.format(Locale.US, "%.2f", value / 1e6) : String.valueOf(value);
+        }
+
+        private static int bucket(long value) {
+            return 64 - Long.numberOfLeadingZeros(value);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.example.android.quakereport;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Inverted index from the words of each place, e.g. "85km", "ssw", "tokyo", "japan", to the
+ * rows of an {@link EarthquakeTable}, so the list can be filtered on every keystroke.
+ *
+ * Every word of a query matches the place words it is a prefix of, and a row matches when all
+ * the words of the query do. Matching rows are found by binary search in the sorted words and
+ * by combining their row sets, so the time doesn't grow with the length of the places.
+ *
+ * The index grows with its table: {@link #update()} indexes the appended rows, and
+ * {@link #put(EarthquakeTable, int)} replaces an event by appending its new row.
+ */
+public final class LocationIndex {
+
+    private final EarthquakeTable mTable;
+    /** Rows of each word */
+    private final HashMap<String, Postings> mPostings = new HashMap<>();
+    /** The words in order, rebuilt on the next search after new words were added */
+    private String[] mSortedWords = new String[0];
+    private boolean mSortedWordsStale;
+    /** Latest row of each event */
+    private final HashMap<String, Integer> mRowsById = new HashMap<>();
+    /** Rows of events that were removed or replaced by a newer row */
+    private final BitSet mRemoved = new BitSet();
+    /** Number of rows of the table indexed so far */
+    private int mIndexed;
+
+    /**
+     * Growable list of rows, in ascending order since rows are only appended.
+     */
+    private static final class Postings {
+        int[] rows = new int[2];
+        int size;
+
+        void add(int row) {
+            if (size == rows.length) {
+                rows = Arrays.copyOf(rows, size * 2);
+            }
+            rows[size++] = row;
+        }
+    }
+
+    public LocationIndex(EarthquakeTable table) {
+        mTable = table;
+        update();
+    }
+
+    public EarthquakeTable getTable() {
+        return mTable;
+    }
+
+    /**
+     * Index the rows appended to the table since the last call.
+     */
+    public void update() {
+        for (int row = mIndexed; row < mTable.size(); row++) {
+            String id = mTable.getId(row);
+            if (id != null) {
+                Integer previous = mRowsById.put(id, row);
+                if (previous != null) {
+                    mRemoved.set(previous);
+                }
+            }
+            String place = mTable.getPlace(row).toLowerCase(Locale.US);
+            int start = -1;
+            for (int i = 0; i <= place.length(); i++) {
+                boolean wordChar = i < place.length() && Character.isLetterOrDigit(place.charAt(i));
+                if (wordChar && start < 0) {
+                    start = i;
+                } else if (!wordChar && start >= 0) {
+                    addWord(place.substring(start, i), row);
+                    start = -1;
+                }
+            }
+        }
+        mIndexed = mTable.size();
+    }
+
+    /**
+     * Add an event, or replace the indexed row of an event with the same id. An event indexed
+     * with the same update time is left as it is, so a page delivered again adds nothing; so is
+     * one without an id, which can't be told apart from its copies.
+     */
+    public void put(EarthquakeTable source, int row) {
+        String id = source.getId(row);
+        if (id == null) {
+            return;
+        }
+        Integer indexed = mRowsById.get(id);
+        if (indexed != null && mTable.getUpdated(indexed) == source.getUpdated(row)) {
+            return;
+        }
+        mTable.add(source, row);
+        update();
+    }
+
+    /**
+     * @return whether the row is the latest of its event, one that is neither replaced nor removed
+     */
+    public boolean isLatest(int row) {
+        return !mRemoved.get(row);
+    }
+
+    public void remove(String id) {
+        Integer row = mRowsById.remove(id);
+        if (row != null) {
+            mRemoved.set(row);
+        }
+    }
+
+    /**
+     * @return the rows whose place matches every word of the query, in table order. A query
+     * without words matches every row.
+     */
+    public int[] search(String query) {
+        update();
+        if (mSortedWordsStale) {
+            mSortedWords = mPostings.keySet().toArray(new String[mPostings.size()]);
+            Arrays.sort(mSortedWords);
+            mSortedWordsStale = false;
+        }
+
+        BitSet matches = null;
+        for (String word : query.toLowerCase(Locale.US).split("[^\\p{L}\\p{N}]+")) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            BitSet wordMatches = new BitSet(mTable.size());
+            // The words starting with this one sort right after it
+            int index = Arrays.binarySearch(mSortedWords, word);
+            for (int i = index >= 0 ? index : -index - 1;
+                 i < mSortedWords.length && mSortedWords[i].startsWith(word); i++) {
+                Postings postings = mPostings.get(mSortedWords[i]);
+                for (int j = 0; j < postings.size; j++) {
+                    wordMatches.set(postings.rows[j]);
+                }
+            }
+            if (matches == null) {
+                matches = wordMatches;
+            } else {
+                matches.and(wordMatches);
+            }
+            if (matches.isEmpty()) {
+                return new int[0];
+            }
+        }
+        if (matches == null) {
+            matches = new BitSet(mTable.size());
+            matches.set(0, mTable.size());
+        }
+        matches.andNot(mRemoved);
+
+        int[] rows = new int[matches.cardinality()];
+        int i = 0;
+        for (int row = matches.nextSetBit(0); row >= 0; row = matches.nextSetBit(row + 1)) {
+            rows[i++] = row;
+        }
+        return rows;
+    }
+
+    /**
+     * @return the matching earthquakes as a list over the table, for an adapter
+     */
+    public List<Info> searchList(String query) {
+        final int[] rows = search(query);
+        return new AbstractList<Info>() {
+            @Override
+            public Info get(int position) {
+                return mTable.get(rows[position]);
+            }
+
+            @Override
+            public int size() {
+                return rows.length;
+            }
+        };
+    }
+
+    private void addWord(String word, int row) {
+        Postings postings = mPostings.get(word);
+        if (postings == null) {
+            postings = new Postings();
+            mPostings.put(word, postings);
+            mSortedWordsStale = true;
+        }
+        // A place can repeat a word
+        if (postings.size == 0 || postings.rows[postings.size - 1] != row) {
+            postings.add(row);
+        }
+    }
+}
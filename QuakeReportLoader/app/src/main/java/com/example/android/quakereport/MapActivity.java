@@ -0,0 +1,154 @@
+package com.example.android.quakereport;
+
+import android.content.Intent;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.view.View;
+import android.widget.TextView;
+
+/**
+ * The earthquakes matching the settings on a {@link QuakeMapView}: the stored ones of the past
+ * 30 days, or the past year fetched in parallel windows by the {@link FetchPlanner}. Loading them
+ * and clustering the zoomed out levels happens in the background before the map shows anything.
+ */
+public class MapActivity extends AppCompatActivity {
+
+    private static final String STATE_YEAR = "year";
+
+    /** Levels computed before the map is shown, enough for the whole world on any screen */
+    private static final int INITIAL_LEVELS = 3;
+
+    private static final long YEAR_MS = 365L * 24 * 60 * 60 * 1000;
+
+    /** Windows of the past year fetched at once */
+    private static final int PARALLELISM = 4;
+    /** Events per window of the past year, well under the cap of a query */
+    private static final int EVENTS_PER_WINDOW = 5000;
+
+    private QuakeMapView mMapView;
+    private MapClusters mClusters;
+    private AsyncTask<String, Void, MapClusters> mLoadTask;
+    /** Fetches the past year, null until it is first shown */
+    private FetchPlanner mPlanner;
+    /** Whether the past year is shown instead of the stored events */
+    private boolean mYear;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.map_activity);
+        mMapView = (QuakeMapView) findViewById(R.id.map);
+        mMapView.setOnEventClickListener(new QuakeMapView.OnEventClickListener() {
+            @Override
+            public void onEventClick(EarthquakeTable table, int row) {
+                Info earthquake = table.get(row);
+                if (EventDetail.isAvailable(earthquake)) {
+                    startActivity(DetailActivity.newIntent(MapActivity.this, earthquake));
+                } else {
+                    startActivity(new Intent(Intent.ACTION_VIEW, Uri.parse(earthquake.getUrl())));
+                }
+            }
+        });
+        mYear = savedInstanceState != null && savedInstanceState.getBoolean(STATE_YEAR);
+        load();
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putBoolean(STATE_YEAR, mYear);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mLoadTask.cancel(false);
+        if (mClusters != null) {
+            mClusters.close();
+        }
+        if (mPlanner != null) {
+            mPlanner.shutdown();
+        }
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.map, menu);
+        menu.findItem(mYear ? R.id.action_map_year : R.id.action_map_month).setChecked(true);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        int id = item.getItemId();
+        if (id == R.id.action_map_month || id == R.id.action_map_year) {
+            item.setChecked(true);
+            boolean year = id == R.id.action_map_year;
+            if (year != mYear) {
+                mYear = year;
+                load();
+            }
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    /**
+     * Replace the map with the events of the chosen range.
+     */
+    private void load() {
+        if (mLoadTask != null) {
+            mLoadTask.cancel(false);
+        }
+        if (mYear && mPlanner == null) {
+            mPlanner = new FetchPlanner(PARALLELISM, EVENTS_PER_WINDOW);
+        }
+        findViewById(R.id.map_progress).setVisibility(View.VISIBLE);
+        final boolean year = mYear;
+        final FetchPlanner planner = mPlanner;
+        // A year can take a while, don't hold up the other tasks of the app
+        mLoadTask = new AsyncTask<String, Void, MapClusters>() {
+            @Override
+            protected MapClusters doInBackground(String... urls) {
+                EarthquakeTable earthquakes;
+                if (year) {
+                    long now = System.currentTimeMillis();
+                    earthquakes = planner.fetch(urls[0], now - YEAR_MS, now);
+                } else {
+                    earthquakes = EarthquakeStore.getInstance(MapActivity.this).query(urls[0]);
+                }
+                if (earthquakes == null || isCancelled()) {
+                    return null;
+                }
+                MapClusters clusters = new MapClusters(earthquakes);
+                for (int level = 0; level < INITIAL_LEVELS && !isCancelled(); level++) {
+                    clusters.compute(level);
+                }
+                return clusters;
+            }
+
+            @Override
+            protected void onPostExecute(MapClusters clusters) {
+                if (isFinishing()) {
+                    return;
+                }
+                findViewById(R.id.map_progress).setVisibility(View.GONE);
+                TextView countView = (TextView) findViewById(R.id.map_count);
+                if (clusters == null) {
+                    countView.setText(R.string.fetch_failed);
+                    return;
+                }
+                if (mClusters != null) {
+                    mClusters.close();
+                }
+                mClusters = clusters;
+                countView.setText(getString(R.string.map_count, clusters.getEventCount()));
+                mMapView.setClusters(clusters);
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, EarthquakeActivity.buildQueryUrl(this));
+    }
+}
@@ -0,0 +1,370 @@
+package com.example.android.quakereport;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The events of an {@link EarthquakeTable} grouped into clusters for each zoom level of the
+ * {@link QuakeMapView}.
+ *
+ * At level z the map is split into square cells of {@link #BASE_CELL_DEGREES} / 2^z degrees, and
+ * the events in a cell form one cluster at their mean position, colored by the largest of them.
+ * The map picks the level whose cells are about as large as a cluster is drawn, so the number of
+ * clusters on screen is bounded by the size of the screen rather than the number of events.
+ *
+ * The clusters of a level are kept in the order of their cells, line by line, so the map only
+ * looks at the cells on screen.
+ *
+ * A level is computed on a background thread the first time it is asked for, then the levels
+ * just above and below it, which are the ones a zoom goes to next. Computed levels are kept.
+ */
+public final class MapClusters {
+
+    /** Deepest level, where the cells are a bit under a kilometer */
+    public static final int MAX_LEVEL = 12;
+
+    /** Cell size at level 0 */
+    private static final double BASE_CELL_DEGREES = 32;
+
+    private static final double LN2 = Math.log(2);
+
+    /** Shared by all maps, levels are computed one at a time in the order asked for */
+    private static final ThreadPoolExecutor sExecutor = new ThreadPoolExecutor(1, 1,
+            30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+
+    static {
+        // Don't keep a thread around once every level is computed
+        sExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Called on the background thread when a level has been computed.
+     */
+    public interface Listener {
+        void onLevelReady(int level);
+    }
+
+    /**
+     * The clusters of one level, in the order of their cells.
+     */
+    public static final class Level {
+        private final double mCellDegrees;
+        private final int mColumns;
+        private final int mLines;
+        /** Cell of each cluster, ascending */
+        private final int[] mCells;
+        private final int mMaxCount;
+        private final int mSize;
+        private final float[] mLongitudes;
+        private final float[] mLatitudes;
+        private final int[] mCounts;
+        private final float[] mMaxMags;
+        private final int[] mRows;
+        private final String[] mLabels;
+
+        private Level(double cellDegrees, int columns, int[] cells, int size, float[] longitudes,
+                      float[] latitudes, int[] counts, float[] maxMags, int[] rows) {
+            mCellDegrees = cellDegrees;
+            mColumns = columns;
+            mLines = (int) Math.ceil(180 / cellDegrees) + 1;
+            mCells = cells;
+            mSize = size;
+            mLongitudes = longitudes;
+            mLatitudes = latitudes;
+            mCounts = counts;
+            mMaxMags = maxMags;
+            mRows = rows;
+            // Made here rather than while drawing
+            mLabels = new String[size];
+            int maxCount = 0;
+            for (int i = 0; i < size; i++) {
+                mLabels[i] = counts[i] > 1 ? String.valueOf(counts[i]) : null;
+                maxCount = Math.max(maxCount, counts[i]);
+            }
+            mMaxCount = maxCount;
+        }
+
+        public int size() {
+            return mSize;
+        }
+
+        /**
+         * @return the events in the largest cluster
+         */
+        public int getMaxCount() {
+            return mMaxCount;
+        }
+
+        /**
+         * @return the column of the cells the longitude is in, clamped to the map
+         */
+        public int getColumn(double longitude) {
+            return (int) Math.max(0, Math.min(mColumns - 1, (longitude + 180) / mCellDegrees));
+        }
+
+        /**
+         * @return the line of the cells the latitude is in, clamped to the map
+         */
+        public int getLine(double latitude) {
+            return (int) Math.max(0, Math.min(mLines - 1, (latitude + 90) / mCellDegrees));
+        }
+
+        /**
+         * @return the first cluster in the cell of the line and column or in a later one; the
+         * clusters of columns first to last of a line are indexOf(line, first) up to
+         * indexOf(line, last + 1)
+         */
+        public int indexOf(int line, int column) {
+            int cell = line * mColumns + column;
+            int low = 0;
+            int high = mSize;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (mCells[middle] < cell) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        public float getLongitude(int cluster) {
+            return mLongitudes[cluster];
+        }
+
+        public float getLatitude(int cluster) {
+            return mLatitudes[cluster];
+        }
+
+        public int getCount(int cluster) {
+            return mCounts[cluster];
+        }
+
+        public float getMaxMag(int cluster) {
+            return mMaxMags[cluster];
+        }
+
+        /**
+         * @return the table row of the largest event of the cluster
+         */
+        public int getRow(int cluster) {
+            return mRows[cluster];
+        }
+
+        /**
+         * @return the number of events as text, or null for a single event
+         */
+        public String getLabel(int cluster) {
+            return mLabels[cluster];
+        }
+    }
+
+    private final EarthquakeTable mTable;
+    /** Rows of the events with a location, and their coordinates and magnitudes */
+    private final int[] mRows;
+    private final float[] mLongitudes;
+    private final float[] mLatitudes;
+    private final float[] mMags;
+
+    private final Level[] mLevels = new Level[MAX_LEVEL + 1];
+    /** Whether each level is computed or about to be */
+    private final boolean[] mScheduled = new boolean[MAX_LEVEL + 1];
+    private volatile Listener mListener;
+    private volatile boolean mClosed;
+
+    /**
+     * Reads the coordinates of the table, call it off the main thread.
+     */
+    public MapClusters(EarthquakeTable table) {
+        mTable = table;
+        int[] rows = new int[table.size()];
+        int size = 0;
+        for (int row = 0; row < table.size(); row++) {
+            // Events without coordinates can't be placed
+            if (!Double.isNaN(table.getLatitude(row)) && !Double.isNaN(table.getLongitude(row))) {
+                rows[size++] = row;
+            }
+        }
+        mRows = Arrays.copyOf(rows, size);
+        mLongitudes = new float[size];
+        mLatitudes = new float[size];
+        mMags = new float[size];
+        for (int i = 0; i < size; i++) {
+            mLongitudes[i] = (float) table.getLongitude(mRows[i]);
+            mLatitudes[i] = (float) table.getLatitude(mRows[i]);
+            mMags[i] = (float) table.getMag(mRows[i]);
+        }
+    }
+
+    public EarthquakeTable getTable() {
+        return mTable;
+    }
+
+    /**
+     * @return the number of events on the map
+     */
+    public int getEventCount() {
+        return mRows.length;
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * @return the level whose cells are closest to the given size on screen
+     */
+    public static int getLevel(double pixelsPerDegree, float cellPixels) {
+        double level = Math.log(BASE_CELL_DEGREES * pixelsPerDegree / cellPixels) / LN2;
+        return (int) Math.max(0, Math.min(MAX_LEVEL, Math.round(level)));
+    }
+
+    /**
+     * @return the level if it is computed, otherwise null, and it is computed in the background
+     */
+    public Level get(int level) {
+        synchronized (this) {
+            if (mLevels[level] != null) {
+                scheduleNeighbors(level);
+                return mLevels[level];
+            }
+        }
+        schedule(level);
+        scheduleNeighbors(level);
+        return null;
+    }
+
+    /**
+     * @return the computed level closest to the given one, or null if none is computed yet
+     */
+    public synchronized Level getNearest(int level) {
+        for (int distance = 1; distance <= MAX_LEVEL; distance++) {
+            // Prefer the coarser level, which draws fewer clusters
+            if (level - distance >= 0 && mLevels[level - distance] != null) {
+                return mLevels[level - distance];
+            }
+            if (level + distance <= MAX_LEVEL && mLevels[level + distance] != null) {
+                return mLevels[level + distance];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Compute the level on this thread, unless it is already.
+     */
+    public Level compute(int level) {
+        synchronized (this) {
+            if (mLevels[level] != null) {
+                return mLevels[level];
+            }
+            mScheduled[level] = true;
+        }
+        Level computed = cluster(level);
+        synchronized (this) {
+            mLevels[level] = computed;
+        }
+        return computed;
+    }
+
+    /**
+     * Stop computing levels, e.g. because the map is gone.
+     */
+    public void close() {
+        mClosed = true;
+        mListener = null;
+    }
+
+    private void schedule(final int level) {
+        synchronized (this) {
+            if (level < 0 || level > MAX_LEVEL || mScheduled[level]) {
+                return;
+            }
+            mScheduled[level] = true;
+        }
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (mClosed) {
+                    return;
+                }
+                compute(level);
+                Listener listener = mListener;
+                if (listener != null) {
+                    listener.onLevelReady(level);
+                }
+            }
+        });
+    }
+
+    /**
+     * Compute the levels a zoom from the level goes to, after the ones already asked for. Only
+     * one step each way, the next steps come when the map gets there.
+     */
+    private void scheduleNeighbors(int level) {
+        schedule(level + 1);
+        schedule(level - 1);
+    }
+
+    private Level cluster(int level) {
+        double cellDegrees = BASE_CELL_DEGREES / (1 << level);
+        int columns = (int) Math.ceil(360 / cellDegrees) + 1;
+        int size = mRows.length;
+
+        Map<Integer, Integer> clusterByCell = new HashMap<>();
+        double[] longitudeSums = new double[size];
+        double[] latitudeSums = new double[size];
+        int[] counts = new int[size];
+        float[] maxMags = new float[size];
+        int[] rows = new int[size];
+        int clusters = 0;
+        for (int i = 0; i < size; i++) {
+            int column = (int) ((mLongitudes[i] + 180) / cellDegrees);
+            int line = (int) ((mLatitudes[i] + 90) / cellDegrees);
+            Integer cell = line * columns + column;
+            Integer cluster = clusterByCell.get(cell);
+            if (cluster == null) {
+                cluster = clusters++;
+                clusterByCell.put(cell, cluster);
+                maxMags[cluster] = mMags[i];
+                rows[cluster] = mRows[i];
+            } else if (mMags[i] > maxMags[cluster] || Float.isNaN(maxMags[cluster])) {
+                maxMags[cluster] = mMags[i];
+                rows[cluster] = mRows[i];
+            }
+            longitudeSums[cluster] += mLongitudes[i];
+            latitudeSums[cluster] += mLatitudes[i];
+            counts[cluster]++;
+        }
+
+        // Order the clusters by cell, the cell in the high half so the sort keeps them together
+        long[] order = new long[clusters];
+        for (Map.Entry<Integer, Integer> entry : clusterByCell.entrySet()) {
+            order[entry.getValue()] = (long) entry.getKey() << 32 | entry.getValue();
+        }
+        Arrays.sort(order);
+
+        int[] cells = new int[clusters];
+        float[] longitudes = new float[clusters];
+        float[] latitudes = new float[clusters];
+        int[] sortedCounts = new int[clusters];
+        float[] sortedMaxMags = new float[clusters];
+        int[] sortedRows = new int[clusters];
+        for (int i = 0; i < clusters; i++) {
+            int cluster = (int) order[i];
+            cells[i] = (int) (order[i] >>> 32);
+            longitudes[i] = (float) (longitudeSums[cluster] / counts[cluster]);
+            latitudes[i] = (float) (latitudeSums[cluster] / counts[cluster]);
+            sortedCounts[i] = counts[cluster];
+            sortedMaxMags[i] = maxMags[cluster];
+            sortedRows[i] = rows[cluster];
+        }
+        return new Level(cellDegrees, columns, cells, clusters, longitudes, latitudes, sortedCounts,
+                sortedMaxMags, sortedRows);
+    }
+}
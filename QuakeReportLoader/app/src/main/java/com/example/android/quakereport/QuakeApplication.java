@@ -0,0 +1,32 @@
+package com.example.android.quakereport;
+
+import android.app.Application;
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.PowerManager;
+
+/**
+ * Starts syncing the earthquakes of the current query as soon as the process starts, so the
+ * request runs while the activity inflates its layout and sets up its loader, and keeps the
+ * alert checks scheduled.
+ */
+public class QuakeApplication extends Application {
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        // The process is also started for alert checks; with the screen off nobody is about to
+        // look at the list
+        PowerManager powerManager = (PowerManager) getSystemService(Context.POWER_SERVICE);
+        if (powerManager.isScreenOn()) {
+            EarlyFetch.start(this);
+        }
+        // Reads the settings, which is a disk read the first time
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                AlertReceiver.schedule(QuakeApplication.this);
+            }
+        });
+    }
+}
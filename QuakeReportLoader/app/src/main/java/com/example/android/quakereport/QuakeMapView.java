@@ -0,0 +1,337 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.support.v4.content.ContextCompat;
+import android.util.AttributeSet;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.view.View;
+
+/**
+ * Map of the earthquakes in {@link MapClusters}, drawn on a plain latitude/longitude projection
+ * with a grid of meridians and parallels, so it needs no map service. Drag to pan, pinch or
+ * double tap to zoom. Tapping a cluster zooms into it, tapping a single event opens it.
+ *
+ * A frame only draws the clusters of the current zoom level that are on screen, colored like the
+ * magnitude circles of the list and translucent, so dense areas stand out. They are looked up by
+ * the cells on screen, so the frame doesn't go through the clusters off screen. While a level is
+ * still being computed the closest computed one is drawn instead.
+ */
+public class QuakeMapView extends View {
+
+    /**
+     * Called when a single event on the map is tapped.
+     */
+    public interface OnEventClickListener {
+        void onEventClick(EarthquakeTable table, int row);
+    }
+
+    /** Size of the cells the events are clustered in, on screen */
+    private static final float CELL_DP = 48;
+    private static final float MIN_RADIUS_DP = 5;
+    /** Added to the radius each time the number of events doubles */
+    private static final float RADIUS_STEP_DP = 2.5f;
+    /** Clusters with a smaller radius are too small for their count */
+    private static final float MIN_LABEL_RADIUS_DP = 10;
+    private static final float LABEL_SP = 11;
+    /** Smallest distance between the lines of the grid */
+    private static final float GRID_DP = 64;
+    /** Opacity of the clusters */
+    private static final int CLUSTER_ALPHA = 0xC0;
+    /** Pixels per degree at the deepest zoom */
+    private static final float MAX_SCALE = 20000;
+
+    private static final double LN2 = Math.log(2);
+
+    private final float mCellPixels;
+    private final float mMinRadius;
+    private final float mRadiusStep;
+    private final float mMinLabelRadius;
+    private final float mGridPixels;
+
+    private final Paint mWorldPaint = new Paint();
+    private final Paint mGridPaint = new Paint();
+    private final Paint mClusterPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mLabelPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final int mBackgroundColor;
+    private final int[] mMagnitudeColors;
+
+    private final ScaleGestureDetector mScaleDetector;
+    private final GestureDetector mGestureDetector;
+
+    private MapClusters mClusters;
+    private OnEventClickListener mListener;
+
+    /** Center of the view */
+    private double mCenterLongitude;
+    private double mCenterLatitude;
+    /** Pixels per degree, 0 until the view has a size */
+    private double mScale;
+    /** West and east column, south and north line of the cells found by {@link #findCells} */
+    private final int[] mCells = new int[4];
+
+    public QuakeMapView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        float density = getResources().getDisplayMetrics().density;
+        mCellPixels = CELL_DP * density;
+        mMinRadius = MIN_RADIUS_DP * density;
+        mRadiusStep = RADIUS_STEP_DP * density;
+        mMinLabelRadius = MIN_LABEL_RADIUS_DP * density;
+        mGridPixels = GRID_DP * density;
+
+        mBackgroundColor = ContextCompat.getColor(context, R.color.mapBackground);
+        mWorldPaint.setColor(ContextCompat.getColor(context, R.color.mapWorld));
+        mGridPaint.setColor(ContextCompat.getColor(context, R.color.mapGrid));
+        mGridPaint.setStrokeWidth(density);
+        mLabelPaint.setColor(ContextCompat.getColor(context, android.R.color.white));
+        mLabelPaint.setTextAlign(Paint.Align.CENTER);
+        mLabelPaint.setTextSize(LABEL_SP * getResources().getDisplayMetrics().scaledDensity);
+        mMagnitudeColors = InfoAdapter.getMagnitudeColors(context);
+
+        mScaleDetector = new ScaleGestureDetector(context, new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+            @Override
+            public boolean onScale(ScaleGestureDetector detector) {
+                zoom(detector.getScaleFactor(), detector.getFocusX(), detector.getFocusY());
+                return true;
+            }
+        });
+        mGestureDetector = new GestureDetector(context, new GestureDetector.SimpleOnGestureListener() {
+            @Override
+            public boolean onDown(MotionEvent e) {
+                return true;
+            }
+
+            @Override
+            public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY) {
+                moveTo(mCenterLongitude + distanceX / mScale, mCenterLatitude - distanceY / mScale);
+                return true;
+            }
+
+            @Override
+            public boolean onDoubleTap(MotionEvent e) {
+                zoom(2, e.getX(), e.getY());
+                return true;
+            }
+
+            @Override
+            public boolean onSingleTapConfirmed(MotionEvent e) {
+                onTap(e.getX(), e.getY());
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Show the clusters, or nothing if null.
+     */
+    public void setClusters(MapClusters clusters) {
+        if (mClusters != null) {
+            mClusters.setListener(null);
+        }
+        mClusters = clusters;
+        if (clusters != null) {
+            clusters.setListener(new MapClusters.Listener() {
+                @Override
+                public void onLevelReady(int level) {
+                    postInvalidate();
+                }
+            });
+        }
+        invalidate();
+    }
+
+    public void setOnEventClickListener(OnEventClickListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * @return the zoom level the map shows at its current scale
+     */
+    public int getLevel() {
+        return MapClusters.getLevel(mScale, mCellPixels);
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        // At most zoomed out, the whole world fits
+        mScale = Math.max(mScale, getMinScale());
+        moveTo(mCenterLongitude, mCenterLatitude);
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        boolean handled = mScaleDetector.onTouchEvent(event);
+        handled = mGestureDetector.onTouchEvent(event) || handled;
+        return handled || super.onTouchEvent(event);
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        canvas.drawColor(mBackgroundColor);
+        if (mScale == 0) {
+            return;
+        }
+        drawGrid(canvas);
+        if (mClusters == null) {
+            return;
+        }
+        int level = getLevel();
+        MapClusters.Level clusters = mClusters.get(level);
+        if (clusters == null) {
+            clusters = mClusters.getNearest(level);
+            if (clusters == null) {
+                return;
+            }
+        }
+
+        float width = getWidth();
+        float height = getHeight();
+        // A cluster is in its cell, but its circle may reach onto the screen from a cell next to it
+        findCells(clusters, 0, 0, width, height, getRadius(clusters.getMaxCount()));
+        for (int line = mCells[2]; line <= mCells[3]; line++) {
+            int end = clusters.indexOf(line, mCells[1] + 1);
+            for (int i = clusters.indexOf(line, mCells[0]); i < end; i++) {
+                float x = toX(clusters.getLongitude(i));
+                float y = toY(clusters.getLatitude(i));
+                float radius = getRadius(clusters.getCount(i));
+                if (x + radius < 0 || x - radius > width || y + radius < 0 || y - radius > height) {
+                    continue;
+                }
+                mClusterPaint.setColor(mMagnitudeColors[InfoAdapter.getMagnitudeBand(clusters.getMaxMag(i))]);
+                mClusterPaint.setAlpha(CLUSTER_ALPHA);
+                canvas.drawCircle(x, y, radius, mClusterPaint);
+                String label = clusters.getLabel(i);
+                if (label != null && radius >= mMinLabelRadius) {
+                    canvas.drawText(label, x, y - (mLabelPaint.ascent() + mLabelPaint.descent()) / 2, mLabelPaint);
+                }
+            }
+        }
+    }
+
+    /**
+     * Set {@link #mCells} to the cells of the level with a point within margin pixels of the
+     * rectangle on screen.
+     */
+    private void findCells(MapClusters.Level clusters, float left, float top, float right, float bottom,
+                           float margin) {
+        mCells[0] = clusters.getColumn(toLongitude(left - margin));
+        mCells[1] = clusters.getColumn(toLongitude(right + margin));
+        mCells[2] = clusters.getLine(toLatitude(bottom + margin));
+        mCells[3] = clusters.getLine(toLatitude(top - margin));
+    }
+
+    /**
+     * Draw the world with a meridian and a parallel every 30 degrees, or a finer power of two
+     * fraction of it once zoomed in.
+     */
+    private void drawGrid(Canvas canvas) {
+        float left = Math.max(0, toX(-180));
+        float right = Math.min(getWidth(), toX(180));
+        float top = Math.max(0, toY(90));
+        float bottom = Math.min(getHeight(), toY(-90));
+        canvas.drawRect(left, top, right, bottom, mWorldPaint);
+
+        double step = 30;
+        while (step / 2 * mScale >= mGridPixels) {
+            step /= 2;
+        }
+        double west = mCenterLongitude - getWidth() / 2 / mScale;
+        for (double longitude = Math.max(-180, Math.ceil(west / step) * step); longitude <= 180; longitude += step) {
+            float x = toX(longitude);
+            if (x > right) {
+                break;
+            }
+            canvas.drawLine(x, top, x, bottom, mGridPaint);
+        }
+        double south = mCenterLatitude - getHeight() / 2 / mScale;
+        for (double latitude = Math.max(-90, Math.ceil(south / step) * step); latitude <= 90; latitude += step) {
+            float y = toY(latitude);
+            if (y < top) {
+                break;
+            }
+            canvas.drawLine(left, y, right, y, mGridPaint);
+        }
+    }
+
+    private void onTap(float x, float y) {
+        if (mClusters == null) {
+            return;
+        }
+        MapClusters.Level clusters = mClusters.get(getLevel());
+        if (clusters == null) {
+            return;
+        }
+        // The closest cluster the tap is on, among the cells a circle over the tap can be in
+        int tapped = -1;
+        float tappedDistance = Float.MAX_VALUE;
+        findCells(clusters, x, y, x, y, Math.max(getRadius(clusters.getMaxCount()), mCellPixels / 4));
+        for (int line = mCells[2]; line <= mCells[3]; line++) {
+            int end = clusters.indexOf(line, mCells[1] + 1);
+            for (int i = clusters.indexOf(line, mCells[0]); i < end; i++) {
+                float dx = toX(clusters.getLongitude(i)) - x;
+                float dy = toY(clusters.getLatitude(i)) - y;
+                float distance = dx * dx + dy * dy;
+                float radius = Math.max(getRadius(clusters.getCount(i)), mCellPixels / 4);
+                if (distance <= radius * radius && distance < tappedDistance) {
+                    tapped = i;
+                    tappedDistance = distance;
+                }
+            }
+        }
+        if (tapped < 0) {
+            return;
+        }
+        if (clusters.getCount(tapped) == 1 || getLevel() == MapClusters.MAX_LEVEL) {
+            if (mListener != null) {
+                mListener.onEventClick(mClusters.getTable(), clusters.getRow(tapped));
+            }
+        } else {
+            zoom(2, toX(clusters.getLongitude(tapped)), toY(clusters.getLatitude(tapped)));
+        }
+    }
+
+    /**
+     * Zoom by the factor, keeping the point at (focusX, focusY) in place.
+     */
+    private void zoom(double factor, float focusX, float focusY) {
+        double focusLongitude = mCenterLongitude + (focusX - getWidth() / 2f) / mScale;
+        double focusLatitude = mCenterLatitude - (focusY - getHeight() / 2f) / mScale;
+        mScale = Math.max(getMinScale(), Math.min(MAX_SCALE, mScale * factor));
+        moveTo(focusLongitude - (focusX - getWidth() / 2f) / mScale,
+                focusLatitude + (focusY - getHeight() / 2f) / mScale);
+    }
+
+    private void moveTo(double longitude, double latitude) {
+        mCenterLongitude = Math.max(-180, Math.min(180, longitude));
+        mCenterLatitude = Math.max(-90, Math.min(90, latitude));
+        invalidate();
+    }
+
+    private double getMinScale() {
+        return Math.min(getWidth() / 360.0, getHeight() / 180.0);
+    }
+
+    private float getRadius(int count) {
+        return mMinRadius + mRadiusStep * (float) (Math.log(count) / LN2);
+    }
+
+    private float toX(double longitude) {
+        return (float) ((longitude - mCenterLongitude) * mScale + getWidth() / 2f);
+    }
+
+    private float toY(double latitude) {
+        return (float) ((mCenterLatitude - latitude) * mScale + getHeight() / 2f);
+    }
+
+    private double toLongitude(float x) {
+        return mCenterLongitude + (x - getWidth() / 2f) / mScale;
+    }
+
+    private double toLatitude(float y) {
+        return mCenterLatitude - (y - getHeight() / 2f) / mScale;
+    }
+}
@@ -0,0 +1,298 @@
+package com.example.android.quakereport;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Summary statistics of a set of earthquakes, kept up to date as events are put and removed
+ * instead of being recomputed from the whole list.
+ *
+ * Every statistic is a primitive counter, so reading one is O(1) (a fixed number of buckets at
+ * most). Hourly and daily counts are rings over the last {@link #HOURS} hours and {@link #DAYS}
+ * days; events older than the retention given to {@link #expire(long)} are dropped entirely.
+ */
+public final class QuakeStats {
+
+    /** Magnitude bands 0-1, 1-2, ..., 9 and above */
+    public static final int MAGNITUDE_BANDS = 10;
+    /** Hours covered by the hourly counts */
+    public static final int HOURS = 48;
+    /** Days covered by the daily counts */
+    public static final int DAYS = 30;
+
+    private static final long HOUR_MS = 60 * 60 * 1000;
+    private static final long DAY_MS = 24 * HOUR_MS;
+
+    /** Magnitudes are counted in steps of 0.01 from MIN_MAGNITUDE, USGS gives 2 decimals at most */
+    private static final double MIN_MAGNITUDE = -2;
+    private static final int MAGNITUDE_STEPS = 1200;
+
+    /**
+     * What an event added to the counters, so it can be taken out again.
+     */
+    private static final class Event {
+        final String id;
+        final double mag;
+        final long time;
+        final String region;
+        /** Set once the event was replaced or removed; it is then skipped in mByTime */
+        boolean removed;
+
+        Event(String id, double mag, long time, String region) {
+            this.id = id;
+            this.mag = mag;
+            this.time = time;
+            this.region = region;
+        }
+    }
+
+    private final HashMap<String, Event> mEvents = new HashMap<>();
+    /** Events by time, for expiring the oldest; removed events are dropped lazily */
+    private final PriorityQueue<Event> mByTime = new PriorityQueue<>(16, new Comparator<Event>() {
+        @Override
+        public int compare(Event a, Event b) {
+            return a.time < b.time ? -1 : (a.time > b.time ? 1 : 0);
+        }
+    });
+
+    private final int[] mBands = new int[MAGNITUDE_BANDS];
+    private final int[] mMagnitudeSteps = new int[MAGNITUDE_STEPS];
+    /** Highest non-empty magnitude step, or -1 */
+    private int mMaxStep = -1;
+    private int mWithMagnitude;
+    private double mMagnitudeSum;
+
+    private final HashMap<String, int[]> mRegions = new HashMap<>();
+
+    /** Ring of counts per hour, and the hour (since the epoch) each slot currently counts */
+    private final int[] mHourCounts = new int[HOURS];
+    private final long[] mHourKeys = new long[HOURS];
+    private final int[] mDayCounts = new int[DAYS];
+    private final long[] mDayKeys = new long[DAYS];
+
+    /**
+     * Add an event, or replace the counts of an event with the same id.
+     * @param region e.g. "Tokyo, Japan", may be null
+     */
+    public synchronized void put(String id, double mag, long time, String region) {
+        if (region != null && region.isEmpty()) {
+            region = null;
+        }
+        Event previous = mEvents.get(id);
+        if (previous != null) {
+            if (previous.mag == mag && previous.time == time
+                    && (previous.region == null ? region == null : previous.region.equals(region))) {
+                return;
+            }
+            subtract(previous);
+        }
+        Event event = new Event(id, mag, time, region);
+        mEvents.put(id, event);
+        mByTime.add(event);
+        add(event);
+        compact();
+    }
+
+    public synchronized void remove(String id) {
+        Event event = mEvents.remove(id);
+        if (event != null) {
+            subtract(event);
+            compact();
+        }
+    }
+
+    /**
+     * Remove the events that happened before the cutoff.
+     */
+    public synchronized void expire(long cutoff) {
+        while (!mByTime.isEmpty() && mByTime.peek().time < cutoff) {
+            Event event = mByTime.poll();
+            if (!event.removed) {
+                mEvents.remove(event.id);
+                subtract(event);
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        mEvents.clear();
+        mByTime.clear();
+        Arrays.fill(mBands, 0);
+        Arrays.fill(mMagnitudeSteps, 0);
+        mMaxStep = -1;
+        mWithMagnitude = 0;
+        mMagnitudeSum = 0;
+        mRegions.clear();
+        Arrays.fill(mHourCounts, 0);
+        Arrays.fill(mHourKeys, 0);
+        Arrays.fill(mDayCounts, 0);
+        Arrays.fill(mDayKeys, 0);
+    }
+
+    /**
+     * @return number of events
+     */
+    public synchronized int getCount() {
+        return mEvents.size();
+    }
+
+    /**
+     * @return number of events with a magnitude in the band, e.g. band 4 is 4.0 to 4.99
+     */
+    public synchronized int getBandCount(int band) {
+        return mBands[band];
+    }
+
+    /**
+     * @return the largest magnitude, or NaN if no event has one
+     */
+    public synchronized double getMaxMagnitude() {
+        return mMaxStep < 0 ? Double.NaN : MIN_MAGNITUDE + mMaxStep / 100.0;
+    }
+
+    /**
+     * @return the mean magnitude of the events that have one, or NaN
+     */
+    public synchronized double getMeanMagnitude() {
+        return mWithMagnitude == 0 ? Double.NaN : mMagnitudeSum / mWithMagnitude;
+    }
+
+    /**
+     * @return number of events in the region
+     */
+    public synchronized int getRegionCount(String region) {
+        int[] count = mRegions.get(region);
+        return count != null ? count[0] : 0;
+    }
+
+    /**
+     * @return the regions with the most events, most first
+     */
+    public synchronized List<Map.Entry<String, Integer>> getTopRegions(int limit) {
+        List<Map.Entry<String, Integer>> top = new ArrayList<>();
+        for (Map.Entry<String, int[]> entry : mRegions.entrySet()) {
+            top.add(new AbstractMap.SimpleEntry<>(entry.getKey(), entry.getValue()[0]));
+        }
+        Collections.sort(top, new Comparator<Map.Entry<String, Integer>>() {
+            @Override
+            public int compare(Map.Entry<String, Integer> a, Map.Entry<String, Integer> b) {
+                return b.getValue() - a.getValue();
+            }
+        });
+        return top.size() > limit ? new ArrayList<>(top.subList(0, limit)) : top;
+    }
+
+    /**
+     * @param hoursAgo 0 for the current hour, up to HOURS - 1
+     * @return number of events in that hour
+     */
+    public synchronized int getHourCount(long now, int hoursAgo) {
+        return ringCount(mHourCounts, mHourKeys, now / HOUR_MS - hoursAgo);
+    }
+
+    /**
+     * @param daysAgo 0 for the current day (UTC), up to DAYS - 1
+     * @return number of events on that day
+     */
+    public synchronized int getDayCount(long now, int daysAgo) {
+        return ringCount(mDayCounts, mDayKeys, now / DAY_MS - daysAgo);
+    }
+
+    /**
+     * @return events per hour over the last 24 hours
+     */
+    public synchronized double getHourlyRate(long now) {
+        int count = 0;
+        for (int i = 0; i < 24; i++) {
+            count += getHourCount(now, i);
+        }
+        return count / 24.0;
+    }
+
+    /**
+     * @return events per day over the last DAYS days
+     */
+    public synchronized double getDailyRate(long now) {
+        int count = 0;
+        for (int i = 0; i < DAYS; i++) {
+            count += getDayCount(now, i);
+        }
+        return count / (double) DAYS;
+    }
+
+    private void add(Event event) {
+        update(event, 1);
+    }
+
+    private void subtract(Event event) {
+        event.removed = true;
+        update(event, -1);
+    }
+
+    private void update(Event event, int delta) {
+        if (!Double.isNaN(event.mag)) {
+            mBands[(int) Math.max(0, Math.min(Math.floor(event.mag), MAGNITUDE_BANDS - 1))] += delta;
+            int step = (int) Math.max(0, Math.min(Math.round((event.mag - MIN_MAGNITUDE) * 100),
+                    MAGNITUDE_STEPS - 1));
+            mMagnitudeSteps[step] += delta;
+            if (delta > 0 && step > mMaxStep) {
+                mMaxStep = step;
+            }
+            while (mMaxStep >= 0 && mMagnitudeSteps[mMaxStep] == 0) {
+                mMaxStep--;
+            }
+            mWithMagnitude += delta;
+            mMagnitudeSum += delta * event.mag;
+        }
+
+        if (event.region != null) {
+            int[] count = mRegions.get(event.region);
+            if (count == null) {
+                count = new int[1];
+                mRegions.put(event.region, count);
+            }
+            count[0] += delta;
+            if (count[0] <= 0) {
+                mRegions.remove(event.region);
+            }
+        }
+
+        updateRing(mHourCounts, mHourKeys, event.time / HOUR_MS, delta);
+        updateRing(mDayCounts, mDayKeys, event.time / DAY_MS, delta);
+    }
+
+    private static void updateRing(int[] counts, long[] keys, long key, int delta) {
+        int slot = (int) (key % counts.length);
+        if (keys[slot] != key) {
+            if (keys[slot] > key || delta < 0) {
+                // Older than the ring covers, or counted before the slot moved on
+                return;
+            }
+            keys[slot] = key;
+            counts[slot] = 0;
+        }
+        counts[slot] += delta;
+    }
+
+    private static int ringCount(int[] counts, long[] keys, long key) {
+        int slot = (int) (key % counts.length);
+        return keys[slot] == key ? counts[slot] : 0;
+    }
+
+    /**
+     * Rebuild the time queue once most of it is replaced events.
+     */
+    private void compact() {
+        if (mByTime.size() > 2 * mEvents.size() + 16) {
+            mByTime.clear();
+            mByTime.addAll(mEvents.values());
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package com.example.android.quakereport;
+
+import android.net.Uri;
+
+import java.util.HashSet;
+
+/**
+ * Answers a query from a result that is already in the {@link ResultCache} when that result
+ * covers it, e.g. after the minimum magnitude was raised or the sort order changed in the
+ * settings.
+ *
+ * A cached result of the same query with a lower or equal minmag covers:
+ * - the whole new query, in any order, if it holds every event of its own query;
+ * - otherwise, in the same order, the rows that rank before its last row. Only the rows after
+ *   those have to be fetched.
+ * The result is filtered and re-sorted with the sort indices of its {@link EarthquakeTable}.
+ */
+final class QueryPlanner {
+
+    /** USGS returns at most this many events when no limit is given */
+    private static final int MAX_LIMIT = 20000;
+
+    private QueryPlanner() {
+    }
+
+    /**
+     * The rows of a query that a cached result covers.
+     */
+    static final class Plan {
+        private final ResultCache.Entry mSource;
+        private final EarthquakeTable mEarthquakes;
+        private final String mRemainderUrl;
+
+        Plan(ResultCache.Entry source, EarthquakeTable earthquakes, String remainderUrl) {
+            mSource = source;
+            mEarthquakes = earthquakes;
+            mRemainderUrl = remainderUrl;
+        }
+
+        /**
+         * @return the cached result the rows were taken from
+         */
+        ResultCache.Entry getSource() {
+            return mSource;
+        }
+
+        /**
+         * @return the first rows of the query
+         */
+        EarthquakeTable getEarthquakes() {
+            return mEarthquakes;
+        }
+
+        /**
+         * @return true if the rows are the whole answer to the query
+         */
+        boolean isCovered() {
+            return mRemainderUrl == null;
+        }
+
+        /**
+         * @return the query URL of the rows after the covered ones, or null if it is covered
+         */
+        String getRemainderUrl() {
+            return mRemainderUrl;
+        }
+
+        /**
+         * @return the covered rows followed by the fetched remainder
+         */
+        EarthquakeTable complete(EarthquakeTable remainder) {
+            EarthquakeTable earthquakes = new EarthquakeTable(mEarthquakes.size() + remainder.size());
+            HashSet<String> ids = new HashSet<>();
+            for (int row = 0; row < mEarthquakes.size(); row++) {
+                earthquakes.add(mEarthquakes, row);
+                ids.add(mEarthquakes.getId(row));
+            }
+            for (int row = 0; row < remainder.size(); row++) {
+                // Events tied with the last covered row can show up again
+                if (!ids.contains(remainder.getId(row))) {
+                    earthquakes.add(remainder, row);
+                }
+            }
+            return earthquakes;
+        }
+    }
+
+    /**
+     * The parameters of a query URL that decide whether one result covers another.
+     */
+    static final class Params {
+        final double minMagnitude;
+        final String orderBy;
+        final int offset;
+        final int limit;
+        /** The URL without the parameters above, normalized */
+        final String base;
+
+        Params(double minMagnitude, String orderBy, int offset, int limit, String base) {
+            this.minMagnitude = minMagnitude;
+            this.orderBy = orderBy;
+            this.offset = offset;
+            this.limit = limit;
+            this.base = base;
+        }
+
+        static Params parse(String requestUrl) {
+            Uri uri = Uri.parse(requestUrl);
+            EarthquakeQuery query = EarthquakeQuery.fromUrl(requestUrl);
+            Uri.Builder builder = uri.buildUpon().clearQuery();
+            for (String name : uri.getQueryParameterNames()) {
+                if (!name.equals("minmag") && !name.equals("orderby")
+                        && !name.equals("offset") && !name.equals("limit")) {
+                    for (String value : uri.getQueryParameters(name)) {
+                        builder.appendQueryParameter(name, value);
+                    }
+                }
+            }
+            return new Params(query.getMinMagnitude(), query.getOrderBy(),
+                    parseInt(uri.getQueryParameter("offset"), 1),
+                    parseInt(uri.getQueryParameter("limit"), MAX_LIMIT),
+                    ResultCache.normalize(builder.build().toString()));
+        }
+
+        private static int parseInt(String value, int defaultValue) {
+            if (value == null) {
+                return defaultValue;
+            }
+            try {
+                return Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                return defaultValue;
+            }
+        }
+    }
+
+    /**
+     * @return the best plan for the query from the cached results, or null if none covers any
+     * of it
+     */
+    static Plan plan(String requestUrl) {
+        Params target = Params.parse(requestUrl);
+        if (target.offset != 1) {
+            return null;
+        }
+        String key = ResultCache.normalize(requestUrl);
+
+        Plan best = null;
+        for (ResultCache.Entry entry : ResultCache.getInstance().getEntries()) {
+            if (ResultCache.normalize(entry.getUrl()).equals(key)) {
+                // The loader serves exact hits itself
+                continue;
+            }
+            Params source = Params.parse(entry.getUrl());
+            EarthquakeTable earthquakes = cover(entry.getEarthquakes(), source, target);
+            if (earthquakes == null) {
+                continue;
+            }
+            String remainderUrl = null;
+            if (!isComplete(entry.getEarthquakes(), source) && earthquakes.size() < target.limit) {
+                remainderUrl = buildRemainderUrl(requestUrl, earthquakes.size(), target.limit);
+            }
+            Plan plan = new Plan(entry, earthquakes, remainderUrl);
+            if (isBetter(plan, best)) {
+                best = plan;
+            }
+        }
+        return best;
+    }
+
+    private static boolean isBetter(Plan plan, Plan best) {
+        if (best == null) {
+            return true;
+        }
+        if (plan.getSource().isFresh() != best.getSource().isFresh()) {
+            return plan.getSource().isFresh();
+        }
+        if (plan.isCovered() != best.isCovered()) {
+            return plan.isCovered();
+        }
+        return plan.getEarthquakes().size() > best.getEarthquakes().size();
+    }
+
+    /**
+     * @return true if the result holds every event of its query
+     */
+    static boolean isComplete(EarthquakeTable table, Params source) {
+        // Fewer rows than the limit means nothing was cut off
+        return table.size() < source.limit;
+    }
+
+    /**
+     * @param table the result of the source query
+     * @return the first rows of the target query that the result holds, in the target's order,
+     * or null if it can't tell which those are
+     */
+    static EarthquakeTable cover(EarthquakeTable table, Params source, Params target) {
+        if (target.offset != 1 || source.offset != 1 || !source.base.equals(target.base)
+                || source.minMagnitude > target.minMagnitude) {
+            return null;
+        }
+        boolean complete = isComplete(table, source);
+        if (!complete && !source.orderBy.equals(target.orderBy)) {
+            return null;
+        }
+
+        boolean byMagnitude = target.orderBy.startsWith("magnitude");
+        boolean ascending = target.orderBy.endsWith("-asc");
+        int[] rows = byMagnitude ? table.getRowsByMagnitude() : table.getRowsByTime();
+
+        // A truncated result only covers the rows that rank strictly before its last one; rows
+        // tied with it may have been cut off
+        double boundary = Double.NaN;
+        if (!complete && rows.length > 0) {
+            int lastRow = rows[ascending ? rows.length - 1 : 0];
+            boundary = byMagnitude ? table.getMag(lastRow) : table.getTime(lastRow);
+            if (Double.isNaN(boundary)) {
+                // Where USGS ranks events without a magnitude isn't known
+                return null;
+            }
+        }
+
+        EarthquakeTable earthquakes = new EarthquakeTable();
+        for (int i = 0; i < rows.length && earthquakes.size() < target.limit; i++) {
+            int row = rows[ascending ? i : rows.length - 1 - i];
+            double mag = table.getMag(row);
+            if (target.minMagnitude != Double.NEGATIVE_INFINITY && !(mag >= target.minMagnitude)) {
+                continue;
+            }
+            if (!complete) {
+                double value = byMagnitude ? mag : table.getTime(row);
+                if (ascending ? !(value < boundary) : !(value > boundary)) {
+                    // Every row after this one ranks the same or later
+                    break;
+                }
+            }
+            earthquakes.add(table, row);
+        }
+        return earthquakes.size() == 0 && !complete ? null : earthquakes;
+    }
+
+    /**
+     * @return the query URL of the rows after the first covered ones
+     */
+    private static String buildRemainderUrl(String requestUrl, int covered, int limit) {
+        Uri uri = Uri.parse(requestUrl);
+        Uri.Builder builder = uri.buildUpon().clearQuery();
+        for (String name : uri.getQueryParameterNames()) {
+            if (!name.equals("offset") && !name.equals("limit")) {
+                for (String value : uri.getQueryParameters(name)) {
+                    builder.appendQueryParameter(name, value);
+                }
+            }
+        }
+        return builder.appendQueryParameter("offset", String.valueOf(covered + 1))
+                .appendQueryParameter("limit", String.valueOf(limit - covered))
+                .build().toString();
+    }
+}
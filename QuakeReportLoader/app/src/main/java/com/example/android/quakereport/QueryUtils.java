@@ -1,17 +1,16 @@
 package com.example.android.quakereport;
 
-import android.os.AsyncTask;
-import android.renderscript.ScriptGroup;
 import android.util.Log;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.MalformedJsonException;
 
-import java.io.BufferedReader;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.StringReader;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
@@ -21,6 +20,10 @@ import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Created by Pomme on 9/12/16.
@@ -31,6 +34,27 @@ public final class QueryUtils {
     /* Tag for the log messages */
     public static final String LOG_TAG = QueryUtils.class.getSimpleName();
 
+    /** Default connect timeout of a request, in milliseconds */
+    public static final int DEFAULT_CONNECT_TIMEOUT_MS = 15000;
+
+    /** Default read timeout of a request, in milliseconds */
+    public static final int DEFAULT_READ_TIMEOUT_MS = 10000;
+
+    /** Values of the "format" query parameter */
+    public static final String FORMAT_GEOJSON = "geojson";
+    public static final String FORMAT_CSV = "csv";
+
+    /** The USGS csv format has no event page URLs; they are this followed by the event id */
+    static final String USGS_EVENT_PAGE_URL = "http://earthquake.usgs.gov/earthquakes/eventpage/";
+
+    private static final Pattern FORMAT_PARAMETER = Pattern.compile("([?&])format=([^&]*)");
+
+    /** Rows parsed between two calls to a {@link RowListener} */
+    static final int ROW_BATCH = 10;
+
+    /** Set once the service refused a csv query, later ones go straight to GeoJSON */
+    private static volatile boolean sCsvUnavailable;
+
     /**
      * Create a private constructor because no one should ever create a {@link QueryUtils} object.
      * This class is only meant to hold static variables and methods, which can be accessed
@@ -41,7 +65,14 @@ public final class QueryUtils {
     /**
      * Query the USGS dataset and return an {@link Info} object to represent a single earthquake
      */
-    public static ArrayList<Info> fetchEarthquakeData(String requestUrl) {
+    public static EarthquakeTable fetchEarthquakeData(String requestUrl) {
+        return fetchEarthquakeData(requestUrl, DEFAULT_CONNECT_TIMEOUT_MS, DEFAULT_READ_TIMEOUT_MS);
+    }
+
+    /**
+     * Query the USGS dataset with the given connect and read timeouts (in milliseconds).
+     */
+    public static EarthquakeTable fetchEarthquakeData(String requestUrl, int connectTimeout, int readTimeout) {
 
         // Wait 2000 ms before fetch data.
 //        try {
@@ -55,19 +86,289 @@ public final class QueryUtils {
         // Create URL object
         URL url = createUrl(requestUrl);
 
-        // Perform HTTP request to the URL and receive a JSON response back
-        String jsonResponse = null;
+        // Perform HTTP request to the URL and parse the JSON response while it is being received
+        EarthquakeTable earthquake = null;
         try {
-            jsonResponse = makeHttpRequest(url);
+            earthquake = makeHttpRequest(url, connectTimeout, readTimeout);
         } catch (IOException e) {
-            Log.e(LOG_TAG, "Error closing input stream", e);
+            Log.e(LOG_TAG, "Problem retrieving the earthquake results", e);
+        }
+        if (earthquake == null) {
+            earthquake = new EarthquakeTable();
         }
-
-        // Extract relevant fields from the JSON response and create an {@link Info} object
-        ArrayList<Info> earthquake = extractEarthquakes(jsonResponse);
         return earthquake;
     }
 
+    /**
+     * Like {@link #fetchEarthquakeData(String)}, but tells a failed request apart from an empty
+     * result, which matters when the response is applied as a delta.
+     * @return the earthquakes, or null if the request failed
+     */
+    static EarthquakeTable fetchEarthquakeUpdates(String requestUrl) {
+        return fetchEarthquakeUpdates(requestUrl, null);
+    }
+
+    /**
+     * Like {@link #fetchEarthquakeUpdates(String)}, but stops as soon as it is canceled.
+     *
+     * The "format" parameter of the URL picks the parser. A "csv" query is a fraction of the
+     * bytes of the same "geojson" one; if the service refuses it, the query is repeated as
+     * GeoJSON, and so are all later csv queries.
+     * @param cancellation may be null
+     * @return the earthquakes, or null if the request failed or was canceled
+     */
+    static EarthquakeTable fetchEarthquakeUpdates(String requestUrl, Cancellation cancellation) {
+        return fetchEarthquakeUpdates(requestUrl, cancellation, null);
+    }
+
+    /**
+     * Like {@link #fetchEarthquakeUpdates(String, Cancellation)}, and hands the rows to the
+     * listener in batches while the response is still being read.
+     * @param listener may be null
+     */
+    static EarthquakeTable fetchEarthquakeUpdates(String requestUrl, Cancellation cancellation,
+                                                  RowListener listener) {
+        try {
+            return requestEarthquakes(requestUrl, cancellation, listener);
+        } catch (FetchException e) {
+            if (e.getReason() != FetchException.Reason.CANCELED) {
+                Log.e(LOG_TAG, "Problem retrieving the earthquake results", e);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Like {@link #fetchEarthquakeUpdates(String, Cancellation, RowListener)}, but says why a
+     * request failed. Failures that may go away are retried by the {@link RequestExecutor}; a
+     * request without a listener is also hedged, a streamed one isn't, since two copies would
+     * stream the same rows.
+     * @param listener gets every row once, even if an attempt broke off and was retried;
+     *                 may be null
+     * @throws FetchException if every attempt failed, or the request was canceled
+     */
+    static EarthquakeTable requestEarthquakes(String requestUrl, Cancellation cancellation,
+                                              RowListener listener) throws FetchException {
+        return requestEarthquakes(requestUrl, LoadMetrics.REQUEST_LIST, cancellation, listener);
+    }
+
+    /**
+     * @param requests times of the requests of this kind, e.g. {@link LoadMetrics#REQUEST_ALERT}
+     */
+    static EarthquakeTable requestEarthquakes(final String requestUrl, LoadMetrics.Histogram requests,
+                                              Cancellation cancellation, RowListener listener)
+            throws FetchException {
+        final RowListener resuming = listener != null ? new ResumingListener(listener) : null;
+        return RequestExecutor.getInstance().execute(new RequestExecutor.Attempt<EarthquakeTable>() {
+            @Override
+            public EarthquakeTable run(Cancellation cancellation) throws FetchException {
+                String url = requestUrl;
+                if (FORMAT_CSV.equals(getFormat(url))) {
+                    if (!sCsvUnavailable) {
+                        try {
+                            return makeHttpRequest(createUrl(url), DEFAULT_CONNECT_TIMEOUT_MS,
+                                    DEFAULT_READ_TIMEOUT_MS, CSV_PARSER, cancellation, resuming);
+                        } catch (FetchException e) {
+                            if (!isFormatUnavailable(e)) {
+                                throw e;
+                            }
+                            Log.w(LOG_TAG, "CSV is not available, falling back to GeoJSON", e);
+                            sCsvUnavailable = true;
+                        }
+                    }
+                    url = withFormat(url, FORMAT_GEOJSON);
+                }
+                return makeHttpRequest(createUrl(url), DEFAULT_CONNECT_TIMEOUT_MS,
+                        DEFAULT_READ_TIMEOUT_MS, GEOJSON_PARSER, cancellation, resuming);
+            }
+        }, listener == null, requests, cancellation);
+    }
+
+    /**
+     * Like {@link #fetchEarthquakeUpdates(String, Cancellation)}, for a query in the FDSN text
+     * format ("format=text"), which any FDSN event service supports.
+     * @param eventUrlPrefix prepended to the event id to make the event page URL, may be null
+     */
+    static EarthquakeTable fetchEarthquakeText(final String requestUrl, final String eventUrlPrefix,
+                                               Cancellation cancellation) {
+        final BodyParser parser = new BodyParser() {
+            @Override
+            public EarthquakeTable parse(InputStream body, Cancellation cancellation,
+                                         RowListener listener) throws IOException {
+                return readEarthquakesDelimited(body, '|', eventUrlPrefix, cancellation, listener);
+            }
+        };
+        try {
+            return RequestExecutor.getInstance().execute(new RequestExecutor.Attempt<EarthquakeTable>() {
+                @Override
+                public EarthquakeTable run(Cancellation cancellation) throws FetchException {
+                    return makeHttpRequest(createUrl(requestUrl), DEFAULT_CONNECT_TIMEOUT_MS,
+                            DEFAULT_READ_TIMEOUT_MS, parser, cancellation, null);
+                }
+            }, true, LoadMetrics.REQUEST_SOURCE, cancellation);
+        } catch (FetchException e) {
+            if (e.getReason() != FetchException.Reason.CANCELED) {
+                Log.e(LOG_TAG, "Problem retrieving the earthquake results", e);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * @return the "format" parameter of the query URL, or null
+     */
+    static String getFormat(String requestUrl) {
+        Matcher matcher = FORMAT_PARAMETER.matcher(requestUrl);
+        return matcher.find() ? matcher.group(2) : null;
+    }
+
+    /**
+     * @return the query URL with its "format" parameter replaced
+     */
+    static String withFormat(String requestUrl, String format) {
+        return FORMAT_PARAMETER.matcher(requestUrl).replaceFirst("$1format=" + format);
+    }
+
+    /**
+     * @return whether the service doesn't offer the requested format, so the query may be
+     * repeated in another one
+     */
+    private static boolean isFormatUnavailable(FetchException e) {
+        return e.getReason() == FetchException.Reason.FORMAT
+                || (e.getReason() == FetchException.Reason.REJECTED && isFormatRejected(e.getStatusCode()));
+    }
+
+    /**
+     * Turns a response body into earthquakes.
+     */
+    private interface BodyParser {
+        EarthquakeTable parse(InputStream body, Cancellation cancellation, RowListener listener)
+                throws IOException;
+    }
+
+    /**
+     * Receives the rows of a response while it is still being read, on the thread that parses it.
+     */
+    interface RowListener {
+        /**
+         * @param earthquakes the rows parsed so far, only to be read during the call
+         * @param from first row that is new since the last call
+         */
+        void onRowsParsed(EarthquakeTable earthquakes, int from);
+    }
+
+    /**
+     * Passes on only the rows that weren't passed on before, so an attempt that is retried
+     * after it broke off doesn't hand the rows of the first one over again. The service answers
+     * the same query in the same order.
+     */
+    private static final class ResumingListener implements RowListener {
+        private final RowListener mListener;
+        /** Rows passed on so far, over all attempts */
+        private int mDelivered;
+
+        ResumingListener(RowListener listener) {
+            mListener = listener;
+        }
+
+        @Override
+        public void onRowsParsed(EarthquakeTable earthquakes, int from) {
+            if (earthquakes.size() <= mDelivered) {
+                return;
+            }
+            mListener.onRowsParsed(earthquakes, Math.max(from, mDelivered));
+            mDelivered = earthquakes.size();
+        }
+    }
+
+    private static final BodyParser CSV_PARSER = new BodyParser() {
+        @Override
+        public EarthquakeTable parse(InputStream body, Cancellation cancellation,
+                                     RowListener listener) throws IOException {
+            return readEarthquakesDelimited(body, ',', USGS_EVENT_PAGE_URL, cancellation, listener);
+        }
+    };
+
+    private static final BodyParser GEOJSON_PARSER = new BodyParser() {
+        @Override
+        public EarthquakeTable parse(InputStream body, Cancellation cancellation,
+                                     RowListener listener) throws IOException {
+            return readEarthquakes(new JsonReader(new InputStreamReader(body, Charset.forName("UTF-8"))),
+                    cancellation, listener, false);
+        }
+    };
+
+    /**
+     * One formatter per thread, reused for every row that gets bound.
+     */
+    private static final ThreadLocal<SimpleDateFormat> sDateFormatter = new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+            return new SimpleDateFormat("MMM dd, yyyy\nHH:mm a");
+        }
+    };
+
+    /**
+     * @return the time as shown in the list, e.g. "Sep 12, 2016\n10:30 AM"
+     */
+    static String formatTime(long timeInMilliseconds) {
+        return sDateFormatter.get().format(new Date(timeInMilliseconds));
+    }
+
+    /**
+     * @return the time as an ISO 8601 UTC string, the format USGS expects for starttime,
+     * endtime and updatedafter
+     */
+    static String formatQueryTime(long timeInMilliseconds) {
+        SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS", Locale.US);
+        formatter.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return formatter.format(new Date(timeInMilliseconds));
+    }
+
+    /**
+     * Ask the USGS count endpoint how many events a query would return.
+     * @param countUrl a query URL whose path ends in /count instead of /query
+     * @return the number of events, or -1 if the request failed
+     */
+    static int fetchEarthquakeCount(String countUrl) {
+        URL url = createUrl(countUrl);
+        if (url == null) {
+            return -1;
+        }
+        HttpClient.Response response = null;
+        try {
+            response = HttpClient.getInstance().get(url, DEFAULT_CONNECT_TIMEOUT_MS, DEFAULT_READ_TIMEOUT_MS);
+            if (!response.isSuccessful()) {
+                Log.e(LOG_TAG, "Error response code: " + response.getCode());
+                return -1;
+            }
+            // The response looks like {"count":1234,"maxAllowed":20000}
+            JsonReader reader = new JsonReader(new InputStreamReader(response.getBody(), Charset.forName("UTF-8")));
+            int count = -1;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (reader.nextName().equals("count")) {
+                    count = reader.nextInt();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            return count;
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            Log.e(LOG_TAG, "Problem retrieving the earthquake count", e);
+            return -1;
+        } finally {
+            if (response != null) {
+                try {
+                    response.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Error closing input stream", e);
+                }
+            }
+        }
+    }
+
     /**
      * @return new URL object from the given string URL
      */
@@ -82,110 +383,475 @@ public final class QueryUtils {
     }
 
     /**
-     * Make an HTTP request to the given URL and return a String as the response.
-     * @return response
+     * Make an HTTP request to the given URL and return the earthquakes parsed from the response.
+     * @return list of earthquakes
+     * @throws FetchException if the request failed
      */
-    private static String makeHttpRequest(URL url) throws IOException {
-        String jsonResponse = "";
+    private static EarthquakeTable makeHttpRequest(URL url, int connectTimeout, int readTimeout)
+            throws FetchException {
+        return makeHttpRequest(url, connectTimeout, readTimeout, GEOJSON_PARSER, null, null);
+    }
+
+    /**
+     * Make one HTTP request with the given timeouts (in milliseconds).
+     * @param parser reads the earthquakes from the body
+     * @param cancellation may be null
+     * @param listener gets the rows while they are parsed, may be null
+     * @return list of earthquakes, empty if the service answered without content
+     * @throws FetchException if the request failed or was canceled
+     */
+    private static EarthquakeTable makeHttpRequest(URL url, int connectTimeout, int readTimeout,
+                                                   BodyParser parser, Cancellation cancellation,
+                                                   RowListener listener) throws FetchException {
+        EarthquakeTable earthquakes;
         // if the URL is null, then return early
         if (url == null) {
-            return jsonResponse;
+            throw new FetchException(FetchException.Reason.REJECTED, "Malformed request URL");
         }
-        HttpURLConnection urlConnection = null;
-        InputStream inputStream = null;
+        if (cancellation != null && cancellation.isCanceled()) {
+            throw new FetchException(FetchException.Reason.CANCELED, "Request canceled: " + url);
+        }
+        HttpClient.Response response = null;
         try {
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setReadTimeout(1000 /* milliseconds */);
-            urlConnection.setConnectTimeout(15000 /* milliseconds */);
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-            // if the request was successful (response code 200), then read the input stream
-            // and parse the response.
-            if (urlConnection.getResponseCode() == 200) {
-                inputStream = urlConnection.getInputStream();
-                jsonResponse = readFromStream(inputStream);
+            response = HttpClient.getInstance().get(url, connectTimeout, readTimeout, cancellation);
+            // if the request was successful (response code 200, or 304 with a cached body),
+            // then parse the body while it is being read.
+            if (response.isSuccessful()) {
+                MeteredInputStream body = new MeteredInputStream(response.getBody());
+                long start = LoadMetrics.now();
+                earthquakes = parser.parse(body, cancellation, listener);
+                if (cancellation != null && cancellation.isCanceled()) {
+                    // The rows parsed so far are of no use to anyone
+                    throw new FetchException(FetchException.Reason.CANCELED, "Request canceled: " + url);
+                }
+                // Parsing and reading are interleaved, tell the waits for the network apart
+                LoadMetrics.PARSE.record(LoadMetrics.now() - start - body.readNanos);
+                LoadMetrics.BODY_READ.record(body.readNanos);
+                LoadMetrics.EVENTS.record(earthquakes.size());
+            } else if (response.getCode() == HttpURLConnection.HTTP_NO_CONTENT) {
+                // Some FDSN services answer a query without events with 204
+                earthquakes = new EarthquakeTable();
             } else {
-                Log.e(LOG_TAG, "Error response code: " + urlConnection.getResponseCode());
+                throw FetchException.forStatus(response.getCode(), response.getRetryAfterMs());
             }
         } catch (IOException e) {
-            Log.e(LOG_TAG, "Problem retrieving the earthquake JSON results", e);
+            if (cancellation != null && cancellation.isCanceled()) {
+                // Canceling breaks off the connection, whatever the parser made of that
+                throw new FetchException(FetchException.Reason.CANCELED, "Request canceled: " + url, e);
+            }
+            if (e instanceof FetchException) {
+                throw (FetchException) e;
+            }
+            throw new FetchException(FetchException.Reason.NETWORK, "Problem retrieving the earthquake results", e);
         }
         finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
+            if (cancellation != null) {
+                cancellation.setOnCancelListener(null);
             }
-            if (inputStream != null) {
-                inputStream.close();
+            if (response != null) {
+                if (cancellation != null && cancellation.isCanceled()) {
+                    // Don't read the rest of a body nobody wants
+                    response.disconnect();
+                } else {
+                    // Closing (rather than disconnecting) lets the connection be reused
+                    try {
+                        response.close();
+                    } catch (IOException e) {
+                        // The body was parsed already, only the connection is lost
+                        Log.e(LOG_TAG, "Error closing input stream", e);
+                    }
+                }
             }
         }
-        return jsonResponse;
+        return earthquakes;
     }
 
+    /**
+     * @return whether the code says the format isn't supported. A plain 400 doesn't, it is what
+     * a bad parameter gets too, so it stays a rejection of the query.
+     */
+    private static boolean isFormatRejected(int code) {
+        return code == 406 || code == 415;
+    }
 
     /**
-     * Convert the {@link InputStream} into a String which contains the whole JSON response from the server.
-     * @return output string
+     * Counts the time spent waiting for the bytes of a response body.
      */
-    private static String readFromStream(InputStream inputStream) throws IOException {
-        StringBuilder output = new StringBuilder();
-        if (inputStream != null) {
-            InputStreamReader inputStreamReader = new InputStreamReader(inputStream, Charset.forName("UTF-8"));
-            BufferedReader reader = new BufferedReader(inputStreamReader);
-            String line = reader.readLine();
-            while (line != null) {
-                output.append(line);
-                line = reader.readLine();
-            }
+    private static final class MeteredInputStream extends FilterInputStream {
+        long readNanos;
+
+        MeteredInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = LoadMetrics.now();
+            int b = super.read();
+            readNanos += LoadMetrics.now() - start;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            long start = LoadMetrics.now();
+            int read = super.read(buffer, offset, count);
+            readNanos += LoadMetrics.now() - start;
+            return read;
         }
-        return output.toString();
     }
 
-    public static ArrayList<Info> extractEarthquakes(String earthquakeJSON){
+    /**
+     * Parse a JSON response string. Kept for callers that already hold the whole response;
+     * network responses go through {@link #readEarthquakes(InputStream)} instead.
+     */
+    public static EarthquakeTable extractEarthquakes(String earthquakeJSON) {
+        if (earthquakeJSON == null || earthquakeJSON.isEmpty()) {
+            return new EarthquakeTable();
+        }
+        return readEarthquakesLeniently(new JsonReader(new StringReader(earthquakeJSON)));
+    }
 
-        // Create an empty ArrayList that we can start adding earthquakes to
-        ArrayList<Info> earthquakes = new ArrayList<>();
+    /**
+     * Parse the earthquakes from the {@link InputStream} one token at a time, so the whole
+     * response never has to be held in memory. The caller is responsible for closing the stream.
+     */
+    public static EarthquakeTable readEarthquakes(InputStream inputStream) {
+        if (inputStream == null) {
+            return new EarthquakeTable();
+        }
+        return readEarthquakesLeniently(new JsonReader(new InputStreamReader(inputStream, Charset.forName("UTF-8"))));
+    }
 
-        // Try to parse the SAMPLE_JSON_RESPONSE. If there's a problem with the way the JSON
-        // is formatted, a JSONException exception object will be thrown.
-        // Catch the exception so the app doesn't crash, and print the error message to the logs.
+    private static EarthquakeTable readEarthquakesLeniently(JsonReader reader) {
         try {
-            // TODO: Parse the response given by the SAMPLE_JSON_RESPONSE string and
-            // convert a string into JSON Object
-            JSONObject rootObject = new JSONObject(earthquakeJSON);
-            // Extract "features" JSONArray
-            JSONArray jsonArray = rootObject.getJSONArray("features");
-
-            for (int i = 0; i < jsonArray.length(); i++) {
-                JSONObject newObject = jsonArray.getJSONObject(i);
-                JSONObject propertyObject = newObject.getJSONObject("properties");
-                // Extract the value for the key called "mag" as Magnitude of earthquake
-                Double mag = propertyObject.optDouble("mag");
-                String location = propertyObject.optString("place").toString();
+            return readEarthquakes(reader, null, null, true);
+        } catch (IOException e) {
+            // Not thrown when lenient
+            return new EarthquakeTable();
+        }
+    }
 
-                // Extract the value for the key called "time"
-                long timeInMilliseconds = propertyObject.optLong("time");
-                // Create a new date object from the timeInMilliseconds
-                Date dateObject = new Date(timeInMilliseconds);
-                SimpleDateFormat newDateFormatter = new SimpleDateFormat("MMM dd, yyyy\nHH:mm a");
-                String dateString = newDateFormatter.format(dateObject);
+    /**
+     * @param cancellation checked before every feature, may be null
+     * @param listener gets every {@link #ROW_BATCH} rows, may be null
+     * @param lenient whether to keep the rows parsed before an error instead of throwing
+     * @throws FetchException if the JSON is malformed (FORMAT) or the body broke off (NETWORK),
+     * unless lenient
+     */
+    private static EarthquakeTable readEarthquakes(JsonReader reader, Cancellation cancellation,
+                                                   RowListener listener, boolean lenient)
+            throws FetchException {
 
-                // Extract the value for the key called "url"
-                String urlStr = propertyObject.optString("url");
-                // create a new {@link Info} object with the magnitude, location, time and url from the JSON response.
-                earthquakes.add(new Info(location, mag, dateString, urlStr));
+        // Create an empty table that we can start adding earthquakes to
+        EarthquakeTable earthquakes = new EarthquakeTable();
+        // Fields of the feature being read, reused for every feature
+        Feature feature = new Feature();
+        // Rows handed to the listener so far
+        int notified = 0;
+
+        // If the JSON is malformed the reader throws; keep the earthquakes parsed so far
+        // so the app doesn't crash, and print the error message to the logs.
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                // Only the "features" array and the generated time are needed, skip the rest
+                String name = reader.nextName();
+                if (name.equals("metadata") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                    readMetadata(reader, earthquakes);
+                } else if (name.equals("features") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        if (cancellation != null && cancellation.isCanceled()) {
+                            return earthquakes;
+                        }
+                        if (readFeature(reader, feature)) {
+                            earthquakes.add(feature.id, feature.place, feature.mag, feature.time,
+                                    feature.url, feature.updated, feature.latitude,
+                                    feature.longitude, feature.depth);
+                            notified = notifyRows(earthquakes, notified, listener, ROW_BATCH);
+                        }
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IllegalStateException | NumberFormatException | MalformedJsonException e) {
+            if (!lenient) {
+                throw new FetchException(FetchException.Reason.FORMAT, "Malformed earthquake JSON results", e);
+            }
+            Log.e(LOG_TAG, "Problem parsing the earthquake JSON results", e);
+        } catch (IOException e) {
+            if (!lenient) {
+                throw new FetchException(FetchException.Reason.NETWORK, "The earthquake JSON results broke off", e);
             }
+            Log.e(LOG_TAG, "Problem parsing the earthquake JSON results", e);
+        }
+        notifyRows(earthquakes, notified, listener, 1);
 
-        } catch (JSONException e) {
-            // If an error is thrown when executing any of the above statements in the "try" block,
-            // catch the exception here, so the app doesn't crash. Print a log message
-            // with the message from the exception.
-            Log.e("QueryUtils", "Problem parsing the earthquake JSON results", e);
+        // Return the earthquakes
+        return earthquakes;
+    }
+
+    /**
+     * Parse a delimited response, like the FDSN "csv" format (USGS) or the "text" format:
+     * a header line naming the columns, then one event per line. The columns are found by
+     * their names, so their order doesn't matter. The caller is responsible for closing the stream.
+     * @param delimiter ',' for csv, '|' for text
+     * @param eventUrlPrefix prepended to the event id to make the event page URL, may be null
+     * @param listener gets every {@link #ROW_BATCH} rows, may be null
+     * @return the earthquakes; an empty body is an empty result
+     * @throws FetchException if the body doesn't have the id and time columns (FORMAT)
+     */
+    static EarthquakeTable readEarthquakesDelimited(InputStream inputStream, char delimiter,
+                                                    String eventUrlPrefix, Cancellation cancellation,
+                                                    RowListener listener) throws IOException {
+        EarthquakeTable earthquakes = new EarthquakeTable();
+        DelimitedReader reader = new DelimitedReader(inputStream, delimiter);
+        if (!reader.nextLine()) {
+            // FDSN services may answer a query without events with an empty body
+            return earthquakes;
+        }
+
+        // Map the columns of the header, e.g. "time,latitude,...,id,updated,place,..." (csv)
+        // or "#EventID|Time|Latitude|...|EventLocationName" (text)
+        int id = -1, time = -1, updated = -1, latitude = -1, longitude = -1, depth = -1, mag = -1, place = -1;
+        for (int field = 0; field < reader.getFieldCount(); field++) {
+            String name = reader.getString(field).trim().toLowerCase(Locale.US);
+            if (field == 0 && name.startsWith("#")) {
+                name = name.substring(1);
+            }
+            switch (name) {
+                case "id":
+                case "eventid":
+                    id = field;
+                    break;
+                case "time":
+                    time = field;
+                    break;
+                case "updated":
+                    updated = field;
+                    break;
+                case "latitude":
+                    latitude = field;
+                    break;
+                case "longitude":
+                    longitude = field;
+                    break;
+                case "depth":
+                case "depth/km":
+                    depth = field;
+                    break;
+                case "mag":
+                case "magnitude":
+                    mag = field;
+                    break;
+                case "place":
+                case "eventlocationname":
+                    place = field;
+                    break;
+            }
+        }
+        if (id < 0 || time < 0) {
+            throw new FetchException(FetchException.Reason.FORMAT, "Unexpected header in the delimited response");
         }
 
-        // Return the list of earthquakes
+        // Rows handed to the listener so far
+        int notified = 0;
+        while (reader.nextLine()) {
+            if (cancellation != null && cancellation.isCanceled()) {
+                break;
+            }
+            if (reader.startsWith('#')) {
+                continue;
+            }
+            long eventTime = reader.getTime(time);
+            String eventId = reader.getString(id);
+            if (eventTime < 0 || eventId == null || eventId.isEmpty()) {
+                Log.e(LOG_TAG, "Skipping a malformed line");
+                continue;
+            }
+            String eventPlace = reader.getString(place);
+            long eventUpdated = reader.getTime(updated);
+            earthquakes.add(eventId, eventPlace != null ? eventPlace : "", reader.getDouble(mag), eventTime,
+                    eventUrlPrefix != null ? eventUrlPrefix + eventId : "",
+                    eventUpdated >= 0 ? eventUpdated : 0, reader.getDouble(latitude),
+                    reader.getDouble(longitude), reader.getDouble(depth));
+            notified = notifyRows(earthquakes, notified, listener, ROW_BATCH);
+        }
+        notifyRows(earthquakes, notified, listener, 1);
         return earthquakes;
     }
 
+    /**
+     * Parse a USGS "format=csv" response. The network path is
+     * {@link #fetchEarthquakeUpdates(String, Cancellation)} with a csv query URL.
+     */
+    public static EarthquakeTable readEarthquakesCsv(InputStream inputStream) {
+        try {
+            return readEarthquakesDelimited(inputStream, ',', USGS_EVENT_PAGE_URL, null, null);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem parsing the earthquake CSV results", e);
+            return new EarthquakeTable();
+        }
+    }
+
+    /**
+     * Hand the rows after the notified ones to the listener once there are at least batch.
+     * @return the number of rows the listener has seen
+     */
+    private static int notifyRows(EarthquakeTable earthquakes, int notified, RowListener listener, int batch) {
+        if (listener != null && earthquakes.size() - notified >= batch) {
+            listener.onRowsParsed(earthquakes, notified);
+            return earthquakes.size();
+        }
+        return notified;
+    }
+
+    /**
+     * @return days since 1970-01-01 of a date in the proleptic Gregorian calendar
+     */
+    static long daysFromCivil(int year, int month, int day) {
+        year -= month <= 2 ? 1 : 0;
+        long era = (year >= 0 ? year : year - 399) / 400;
+        long yearOfEra = year - era * 400;
+        long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    /**
+     * Fields of a single GeoJSON feature.
+     */
+    private static final class Feature {
+        String id;
+        String place;
+        double mag;
+        long time;
+        long updated;
+        String url;
+        double latitude;
+        double longitude;
+        double depth;
+    }
+
+    /**
+     * Read the time the response was generated, "metadata.generated", into the table.
+     */
+    private static void readMetadata(JsonReader reader, EarthquakeTable earthquakes) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("generated") && reader.peek() == JsonToken.NUMBER) {
+                earthquakes.setGenerated(reader.nextLong());
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Read a single feature, skipping everything but its id, "properties" object and coordinates.
+     * @return false if the feature has no properties
+     */
+    private static boolean readFeature(JsonReader reader, Feature feature) throws IOException {
+        boolean hasProperties = false;
+        feature.id = null;
+        feature.latitude = Double.NaN;
+        feature.longitude = Double.NaN;
+        feature.depth = Double.NaN;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("properties") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                readProperties(reader, feature);
+                hasProperties = true;
+            } else if (name.equals("geometry") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                readGeometry(reader, feature);
+            } else if (name.equals("id") && reader.peek() == JsonToken.STRING) {
+                feature.id = reader.nextString();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return hasProperties;
+    }
+
+    /**
+     * Read the point of a geometry, "coordinates": [longitude, latitude, depth].
+     */
+    private static void readGeometry(JsonReader reader, Feature feature) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("coordinates") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                for (int i = 0; reader.hasNext(); i++) {
+                    if (reader.peek() != JsonToken.NUMBER) {
+                        reader.skipValue();
+                    } else if (i == 0) {
+                        feature.longitude = reader.nextDouble();
+                    } else if (i == 1) {
+                        feature.latitude = reader.nextDouble();
+                    } else if (i == 2) {
+                        feature.depth = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private static void readProperties(JsonReader reader, Feature feature) throws IOException {
+        feature.mag = Double.NaN;
+        feature.place = "";
+        feature.time = 0;
+        feature.updated = 0;
+        feature.url = "";
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            // Null values are treated like missing ones
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                continue;
+            }
+            switch (name) {
+                // Extract the value for the key called "mag" as Magnitude of earthquake
+                case "mag":
+                    feature.mag = reader.nextDouble();
+                    break;
+                case "place":
+                    feature.place = reader.nextString();
+                    break;
+                // Extract the value for the key called "time"; it is only formatted when displayed
+                case "time":
+                    feature.time = reader.nextLong();
+                    break;
+                // Extract the value for the key called "updated"
+                case "updated":
+                    feature.updated = reader.nextLong();
+                    break;
+                // Extract the value for the key called "url"
+                case "url":
+                    feature.url = reader.nextString();
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+    }
+
 
 
 
@@ -0,0 +1,231 @@
+package com.example.android.quakereport;
+
+import android.util.Log;
+
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a request until it succeeds, so one failed attempt on a flaky link doesn't fail the load.
+ *
+ * Failures that may go away ({@link FetchException#isRetryable()}) are retried up to
+ * {@link #MAX_ATTEMPTS} times, after a random wait below an exponentially growing limit, or
+ * after the time the service asked for with Retry-After. A hedged request sends a second copy
+ * of an attempt that takes longer than most recent requests of its kind ({@link #HEDGE_PERCENTILE}
+ * of their histogram, e.g. {@link LoadMetrics#REQUEST_LIST}) and takes whichever answers first.
+ * A small detail request is not held to the times of large list pages, nor the other way round.
+ */
+final class RequestExecutor {
+
+    private static final String LOG_TAG = RequestExecutor.class.getSimpleName();
+
+    /** Attempts per request, including the first */
+    static final int MAX_ATTEMPTS = 3;
+    /** Limit of the wait before the first retry; it doubles for every further one */
+    static final long BASE_BACKOFF_MS = 500;
+    static final long MAX_BACKOFF_MS = 8000;
+    /** Longest Retry-After that is waited for; a longer one fails the request instead */
+    static final long MAX_RETRY_AFTER_MS = 30 * 1000;
+
+    /** Attempts slower than this share of recent requests are hedged */
+    static final double HEDGE_PERCENTILE = 0.95;
+    /** Requests measured before hedging starts */
+    static final int HEDGE_MIN_SAMPLES = 20;
+    /** Never hedge sooner than this, a duplicate costs data */
+    static final long MIN_HEDGE_DELAY_MS = 1000;
+
+    /**
+     * One attempt of a request.
+     */
+    interface Attempt<T> {
+        /**
+         * @param cancellation canceled when the attempt is no longer needed
+         * @throws FetchException if the attempt failed
+         */
+        T run(Cancellation cancellation) throws FetchException;
+    }
+
+    private static final RequestExecutor sInstance = new RequestExecutor();
+
+    private final Random mRandom = new Random();
+    /** Runs the attempts of hedged requests; threads only live while there are some */
+    private final ThreadPoolExecutor mExecutor = new ThreadPoolExecutor(4, 4, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>());
+
+    private RequestExecutor() {
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    static RequestExecutor getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Run the attempt until it succeeds, fails for good or runs out of attempts.
+     * @param hedge whether to send a second copy of slow attempts; only for attempts without
+     *              side effects, which can run twice at once
+     * @param requests times of the requests of the same kind; records this one and tells when
+     *                 to hedge it
+     * @param cancellation may be null
+     * @return the result of the first successful attempt
+     * @throws FetchException the failure of the last attempt
+     */
+    <T> T execute(Attempt<T> attempt, boolean hedge, LoadMetrics.Histogram requests,
+                  Cancellation cancellation) throws FetchException {
+        for (int attemptNumber = 1; ; attemptNumber++) {
+            try {
+                if (hedge) {
+                    return runHedged(attempt, requests, cancellation);
+                }
+                long start = LoadMetrics.now();
+                T result = attempt.run(cancellation);
+                requests.recordSince(start);
+                return result;
+            } catch (FetchException e) {
+                if (!e.isRetryable() || attemptNumber == MAX_ATTEMPTS || isCanceled(cancellation)
+                        || e.getRetryAfterMs() > MAX_RETRY_AFTER_MS) {
+                    throw e;
+                }
+                long delay = e.getRetryAfterMs() >= 0 ? e.getRetryAfterMs() : backoff(attemptNumber);
+                Log.w(LOG_TAG, "Attempt " + attemptNumber + " failed, retrying in " + delay + " ms", e);
+                sleep(delay, cancellation);
+            }
+        }
+    }
+
+    /**
+     * @return a random wait before the retry after the given attempt ("full jitter"), so
+     * clients that failed together don't retry together
+     */
+    private long backoff(int attemptNumber) {
+        long limit = Math.min(MAX_BACKOFF_MS, BASE_BACKOFF_MS << (attemptNumber - 1));
+        synchronized (mRandom) {
+            return (long) (mRandom.nextDouble() * limit);
+        }
+    }
+
+    private static boolean isCanceled(Cancellation cancellation) {
+        return cancellation != null && cancellation.isCanceled();
+    }
+
+    /**
+     * Wait before a retry; canceling ends the wait.
+     */
+    private static void sleep(long delayMs, Cancellation cancellation) throws FetchException {
+        final CountDownLatch canceled = new CountDownLatch(1);
+        if (cancellation != null) {
+            cancellation.setOnCancelListener(new Cancellation.OnCancelListener() {
+                @Override
+                public void onCancel() {
+                    canceled.countDown();
+                }
+            });
+        }
+        try {
+            if (canceled.await(delayMs, TimeUnit.MILLISECONDS)) {
+                throw new FetchException(FetchException.Reason.CANCELED, "Canceled");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FetchException(FetchException.Reason.CANCELED, "Interrupted", e);
+        } finally {
+            if (cancellation != null) {
+                cancellation.setOnCancelListener(null);
+            }
+        }
+    }
+
+    /**
+     * Run the attempt, and a second copy of it if it is slow; the first success wins and the
+     * other copy is canceled. The attempt is timed from when it starts running, so the time it
+     * waits for a thread of the pool neither counts as slow nor goes into the percentile.
+     */
+    private <T> T runHedged(final Attempt<T> attempt, LoadMetrics.Histogram requests,
+                            Cancellation cancellation) throws FetchException {
+        long percentile = requests.percentile(HEDGE_PERCENTILE, HEDGE_MIN_SAMPLES);
+        if (percentile < 0) {
+            // Not enough requests measured to tell what slow is
+            long start = LoadMetrics.now();
+            T result = attempt.run(cancellation);
+            requests.recordSince(start);
+            return result;
+        }
+        long hedgeDelayNanos = Math.max(TimeUnit.MILLISECONDS.toNanos(MIN_HEDGE_DELAY_MS), percentile);
+
+        final Cancellation[] copies = {new Cancellation(), new Cancellation()};
+        if (cancellation != null) {
+            cancellation.setOnCancelListener(new Cancellation.OnCancelListener() {
+                @Override
+                public void onCancel() {
+                    copies[0].cancel();
+                    copies[1].cancel();
+                }
+            });
+        }
+        ExecutorCompletionService<T> completion = new ExecutorCompletionService<>(mExecutor);
+        final CountDownLatch started = new CountDownLatch(1);
+        final long[] startNanos = new long[1];
+        try {
+            completion.submit(new Callable<T>() {
+                @Override
+                public T call() throws FetchException {
+                    startNanos[0] = LoadMetrics.now();
+                    started.countDown();
+                    return attempt.run(copies[0]);
+                }
+            });
+            int running = 1;
+            started.await();
+            Future<T> done = completion.poll(hedgeDelayNanos, TimeUnit.NANOSECONDS);
+            if (done == null) {
+                Log.d(LOG_TAG, "Hedging a request slower than " + hedgeDelayNanos / 1000000 + " ms");
+                completion.submit(call(attempt, copies[1]));
+                running++;
+            }
+            FetchException failure = null;
+            while (running > 0) {
+                if (done == null) {
+                    done = completion.take();
+                }
+                running--;
+                try {
+                    T result = done.get();
+                    requests.recordSince(startNanos[0]);
+                    return result;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    failure = cause instanceof FetchException ? (FetchException) cause
+                            : new FetchException(FetchException.Reason.NETWORK, "Attempt failed", cause);
+                }
+                done = null;
+            }
+            throw failure;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FetchException(FetchException.Reason.CANCELED, "Interrupted", e);
+        } finally {
+            if (cancellation != null) {
+                cancellation.setOnCancelListener(null);
+            }
+            // The loser is no longer needed
+            copies[0].cancel();
+            copies[1].cancel();
+        }
+    }
+
+    private static <T> Callable<T> call(final Attempt<T> attempt, final Cancellation cancellation) {
+        return new Callable<T>() {
+            @Override
+            public T call() throws FetchException {
+                return attempt.run(cancellation);
+            }
+        };
+    }
+}
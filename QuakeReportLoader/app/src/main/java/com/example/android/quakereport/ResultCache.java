@@ -0,0 +1,161 @@
+package com.example.android.quakereport;
+
+import android.net.Uri;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Process-wide cache of loaded results, so coming back to the list or restarting its loader
+ * doesn't repeat a request that just finished.
+ *
+ * Results are keyed by their query URL with the parameters sorted. They stay fresh for a TTL
+ * and the least recently used ones are evicted once the cache grows past its size limit.
+ */
+public final class ResultCache {
+
+    /** Default time a result stays fresh, in milliseconds */
+    public static final long DEFAULT_TTL_MS = 2 * 60 * 1000;
+
+    private static ResultCache sInstance;
+
+    /** Access ordered, so the first entry is the least recently used one */
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private long mTtl = DEFAULT_TTL_MS;
+    private long mMaxBytes = Runtime.getRuntime().maxMemory() / 16;
+    private long mBytes;
+
+    /**
+     * A cached result.
+     */
+    public static final class Entry {
+        private final String mUrl;
+        private final EarthquakeTable mEarthquakes;
+        private final long mBytes;
+        /** {@link SystemClock#elapsedRealtime()} at which the result goes stale */
+        private long mExpiresAt;
+
+        private Entry(String requestUrl, EarthquakeTable earthquakes, long expiresAt) {
+            mUrl = requestUrl;
+            mEarthquakes = earthquakes;
+            mBytes = earthquakes.estimateBytes();
+            mExpiresAt = expiresAt;
+        }
+
+        /**
+         * @return the query URL the result was put with
+         */
+        public String getUrl() {
+            return mUrl;
+        }
+
+        public EarthquakeTable getEarthquakes() {
+            return mEarthquakes;
+        }
+
+        /**
+         * @return false if the result should be revalidated before it is trusted
+         */
+        public boolean isFresh() {
+            return SystemClock.elapsedRealtime() < mExpiresAt;
+        }
+    }
+
+    private ResultCache() {
+    }
+
+    public static synchronized ResultCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new ResultCache();
+        }
+        return sInstance;
+    }
+
+    /**
+     * @param ttl time a result stays fresh after it is put, in milliseconds
+     */
+    public synchronized void setTtl(long ttl) {
+        mTtl = ttl;
+    }
+
+    /**
+     * @param maxBytes estimated heap size the cached results may take up
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        mMaxBytes = maxBytes;
+        trim();
+    }
+
+    /**
+     * @return the cached result of the query, fresh or stale, or null
+     */
+    public synchronized Entry get(String requestUrl) {
+        return mEntries.get(normalize(requestUrl));
+    }
+
+    /**
+     * @return every cached result, without touching their LRU order
+     */
+    public synchronized List<Entry> getEntries() {
+        return new ArrayList<>(mEntries.values());
+    }
+
+    public synchronized void put(String requestUrl, EarthquakeTable earthquakes) {
+        put(requestUrl, earthquakes, SystemClock.elapsedRealtime() + mTtl);
+    }
+
+    /**
+     * Put a result derived from another cached one; it goes stale along with its source.
+     */
+    public synchronized void put(String requestUrl, EarthquakeTable earthquakes, Entry source) {
+        put(requestUrl, earthquakes, Math.min(source.mExpiresAt, SystemClock.elapsedRealtime() + mTtl));
+    }
+
+    private void put(String requestUrl, EarthquakeTable earthquakes, long expiresAt) {
+        Entry entry = new Entry(requestUrl, earthquakes, expiresAt);
+        Entry previous = mEntries.put(normalize(requestUrl), entry);
+        if (previous != null) {
+            mBytes -= previous.mBytes;
+        }
+        mBytes += entry.mBytes;
+        trim();
+    }
+
+    /**
+     * Mark every result stale, e.g. after the store they were read from changed. They are still
+     * shown while they are revalidated.
+     */
+    public synchronized void invalidateAll() {
+        for (Entry entry : mEntries.values()) {
+            entry.mExpiresAt = 0;
+        }
+    }
+
+    private void trim() {
+        Iterator<Entry> iterator = mEntries.values().iterator();
+        while (mBytes > mMaxBytes && iterator.hasNext()) {
+            mBytes -= iterator.next().mBytes;
+            iterator.remove();
+        }
+    }
+
+    /**
+     * @return the URL with its query parameters in a stable order
+     */
+    static String normalize(String requestUrl) {
+        Uri uri = Uri.parse(requestUrl);
+        List<String> names = new ArrayList<>(uri.getQueryParameterNames());
+        Collections.sort(names);
+        Uri.Builder builder = uri.buildUpon().clearQuery();
+        for (String name : names) {
+            for (String value : uri.getQueryParameters(name)) {
+                builder.appendQueryParameter(name, value);
+            }
+        }
+        return builder.build().toString();
+    }
+}
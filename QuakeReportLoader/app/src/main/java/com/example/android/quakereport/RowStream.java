@@ -0,0 +1,97 @@
+package com.example.android.quakereport;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Hands the rows of a response that is still being parsed to the main thread, so a large result
+ * shows up while it downloads instead of after the last byte.
+ *
+ * The parsing thread only appends to a pending table. Everything that arrives within one frame
+ * is handed over together, so the main thread does at most one update per frame however fast
+ * the rows come in. (Choreographer needs API 16; frames are timed with the Handler instead.)
+ */
+final class RowStream implements QueryUtils.RowListener {
+
+    /**
+     * Called on the main thread.
+     */
+    interface Callback {
+        /**
+         * @param earthquakes every row so far, in the order of the response; the list doesn't
+         *                    change afterwards
+         */
+        void onRows(List<Info> earthquakes);
+    }
+
+    /** Minimum time between two updates, in milliseconds */
+    private static final long FRAME_MS = 16;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Callback mCallback;
+
+    /** Rows parsed but not handed over yet, guarded by this */
+    private EarthquakeTable mPending = new EarthquakeTable();
+    /** Whether a hand-over is posted, guarded by this */
+    private boolean mScheduled;
+
+    /** Rows handed over so far, only used on the main thread */
+    private final EarthquakeTable mRows = new EarthquakeTable();
+    /** When the last hand-over ran, in uptime milliseconds */
+    private volatile long mLastFrame;
+    private volatile boolean mClosed;
+
+    private final Runnable mHandOver = new Runnable() {
+        @Override
+        public void run() {
+            EarthquakeTable pending;
+            synchronized (RowStream.this) {
+                pending = mPending;
+                mPending = new EarthquakeTable();
+                mScheduled = false;
+            }
+            if (mClosed) {
+                return;
+            }
+            for (int row = 0; row < pending.size(); row++) {
+                mRows.add(pending, row);
+            }
+            mLastFrame = SystemClock.uptimeMillis();
+            // A view of the rows so far, later rows don't show up in it
+            mCallback.onRows(Collections.unmodifiableList(mRows.subList(0, mRows.size())));
+        }
+    };
+
+    RowStream(Callback callback) {
+        mCallback = callback;
+    }
+
+    /**
+     * This is on the parsing thread
+     */
+    @Override
+    public void onRowsParsed(EarthquakeTable earthquakes, int from) {
+        synchronized (this) {
+            for (int row = from; row < earthquakes.size(); row++) {
+                mPending.add(earthquakes, row);
+            }
+            if (mScheduled || mClosed) {
+                return;
+            }
+            mScheduled = true;
+        }
+        mHandler.postAtTime(mHandOver, Math.max(SystemClock.uptimeMillis(), mLastFrame + FRAME_MS));
+    }
+
+    /**
+     * Stop handing rows over, e.g. because the complete result is about to be delivered.
+     */
+    void close() {
+        mClosed = true;
+        mHandler.removeCallbacks(mHandOver);
+    }
+}
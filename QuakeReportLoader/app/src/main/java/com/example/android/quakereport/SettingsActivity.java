@@ -1,6 +1,8 @@
 package com.example.android.quakereport;
 
+import android.content.Context;
 import android.content.SharedPreferences;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.preference.ListPreference;
 import android.preference.Preference;
@@ -19,7 +21,8 @@ public class SettingsActivity extends AppCompatActivity {
         setContentView(R.layout.settings_activity);
     }
 
-    public static class EarthquakePreferenceFragment extends PreferenceFragment implements Preference.OnPreferenceChangeListener {
+    public static class EarthquakePreferenceFragment extends PreferenceFragment implements Preference.OnPreferenceChangeListener,
+            SharedPreferences.OnSharedPreferenceChangeListener {
 
         @Override
         public void onCreate(Bundle savedInstanceState) {
@@ -31,6 +34,49 @@ public class SettingsActivity extends AppCompatActivity {
 
             Preference orderBy = findPreference(getString(R.string.settings_order_by_key));
             bindPreferenceSummaryToValue(orderBy);
+
+            Preference pageSize = findPreference(getString(R.string.settings_page_size_key));
+            bindPreferenceSummaryToValue(pageSize);
+
+            Preference format = findPreference(getString(R.string.settings_format_key));
+            bindPreferenceSummaryToValue(format);
+
+            Preference alertRules = findPreference(getString(R.string.settings_alert_rules_key));
+            bindPreferenceSummaryToValue(alertRules);
+
+            Preference alertLocation = findPreference(getString(R.string.settings_alert_location_key));
+            bindPreferenceSummaryToValue(alertLocation);
+
+            Preference nearbyRadius = findPreference(getString(R.string.settings_nearby_radius_key));
+            bindPreferenceSummaryToValue(nearbyRadius);
+        }
+
+        @Override
+        public void onResume() {
+            super.onResume();
+            getPreferenceManager().getSharedPreferences().registerOnSharedPreferenceChangeListener(this);
+        }
+
+        @Override
+        public void onPause() {
+            super.onPause();
+            getPreferenceManager().getSharedPreferences().unregisterOnSharedPreferenceChangeListener(this);
+        }
+
+        /**
+         * Start or stop the alert checks once the new value is saved.
+         */
+        @Override
+        public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+            if (key.equals(getString(R.string.settings_alerts_key))) {
+                final Context context = getActivity().getApplicationContext();
+                AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        AlertReceiver.schedule(context);
+                    }
+                });
+            }
         }
 
         @Override
@@ -0,0 +1,266 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The last loaded result in a compact binary file, so a cold start can show it before the
+ * connectivity check and the network request.
+ *
+ * Format (big-endian):
+ * magic, version, query URL, save time, string count, strings, row count, rows.
+ * A string is its UTF-8 length and bytes. Places and URL prefixes are shared through the string
+ * list, so a row is its id, 6 numbers and 2 string indices.
+ */
+public final class Snapshot {
+
+    private static final String LOG_TAG = Snapshot.class.getSimpleName();
+
+    private static final int MAGIC = 0x514b534e; // "QKSN"
+    /** Bump when the format changes; files of other versions are ignored */
+    private static final int VERSION = 1;
+
+    private static final String FILE_NAME = "last_result.snapshot";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** URL index flag: the URL is the indexed prefix followed by the event id */
+    private static final int URL_ENDS_WITH_ID = 0x80000000;
+
+    /** Smallest encoding of a string: its length */
+    private static final int MIN_STRING_BYTES = 4;
+    /** Smallest encoding of a row: a null id, 6 numbers and 2 indices */
+    private static final int MIN_ROW_BYTES = 4 + 6 * 8 + 2 * 4;
+    /** More rows than any result holds means the file is corrupt */
+    private static final int MAX_ROWS = 100000;
+
+    private final String mUrl;
+    private final long mSavedAt;
+    private final EarthquakeTable mEarthquakes;
+
+    private Snapshot(String url, long savedAt, EarthquakeTable earthquakes) {
+        mUrl = url;
+        mSavedAt = savedAt;
+        mEarthquakes = earthquakes;
+    }
+
+    /**
+     * @return the query URL the result was loaded for
+     */
+    public String getUrl() {
+        return mUrl;
+    }
+
+    /**
+     * @return when the snapshot was written, in milliseconds since the epoch
+     */
+    public long getSavedAt() {
+        return mSavedAt;
+    }
+
+    public EarthquakeTable getEarthquakes() {
+        return mEarthquakes;
+    }
+
+    public static File getFile(Context context) {
+        return new File(context.getFilesDir(), FILE_NAME);
+    }
+
+    /**
+     * Write the result to the file, replacing it in one step so a reader never sees half of it.
+     * This does disk I/O, call it off the main thread.
+     */
+    public static void write(File file, String requestUrl, EarthquakeTable earthquakes) {
+        // Collect the shared strings first
+        List<String> strings = new ArrayList<>();
+        HashMap<String, Integer> stringIndex = new HashMap<>();
+        int[] places = new int[earthquakes.size()];
+        int[] urls = new int[earthquakes.size()];
+        for (int row = 0; row < earthquakes.size(); row++) {
+            places[row] = index(earthquakes.getPlace(row), strings, stringIndex);
+            String id = earthquakes.getId(row);
+            String url = earthquakes.getUrl(row);
+            if (id != null && url != null && url.endsWith(id)) {
+                urls[row] = index(url.substring(0, url.length() - id.length()), strings, stringIndex)
+                        | URL_ENDS_WITH_ID;
+            } else {
+                urls[row] = index(url, strings, stringIndex);
+            }
+        }
+
+        File tempFile = new File(file.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeString(out, requestUrl);
+            out.writeLong(System.currentTimeMillis());
+            out.writeInt(strings.size());
+            for (String string : strings) {
+                writeString(out, string);
+            }
+            out.writeInt(earthquakes.size());
+            for (int row = 0; row < earthquakes.size(); row++) {
+                writeString(out, earthquakes.getId(row));
+                out.writeDouble(earthquakes.getMag(row));
+                out.writeLong(earthquakes.getTime(row));
+                out.writeLong(earthquakes.getUpdated(row));
+                out.writeDouble(earthquakes.getLatitude(row));
+                out.writeDouble(earthquakes.getLongitude(row));
+                out.writeDouble(earthquakes.getDepth(row));
+                out.writeInt(places[row]);
+                out.writeInt(urls[row]);
+            }
+            out.close();
+            out = null;
+            if (!tempFile.renameTo(file)) {
+                Log.e(LOG_TAG, "Can't replace the snapshot " + file);
+                tempFile.delete();
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem writing the snapshot", e);
+            tempFile.delete();
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Error closing the snapshot", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Read the file with a single read and decode it in memory. A corrupt file is deleted, so it
+     * isn't read again on every start.
+     * @return the snapshot, or null if there is none or it can't be read
+     */
+    public static Snapshot read(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        byte[] bytes;
+        RandomAccessFile in = null;
+        try {
+            in = new RandomAccessFile(file, "r");
+            bytes = new byte[(int) in.length()];
+            in.readFully(bytes);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem reading the snapshot", e);
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Error closing the snapshot", e);
+                }
+            }
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                // Written by another version of the app
+                return null;
+            }
+            String url = readString(buffer);
+            if (url == null) {
+                throw new IllegalArgumentException("No query URL");
+            }
+            long savedAt = buffer.getLong();
+            // At most a place and a URL prefix per row
+            String[] strings = new String[checkCount(buffer.getInt(), buffer, MIN_STRING_BYTES, 2 * MAX_ROWS)];
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = readString(buffer);
+            }
+            int count = checkCount(buffer.getInt(), buffer, MIN_ROW_BYTES, MAX_ROWS);
+            EarthquakeTable earthquakes = new EarthquakeTable(Math.max(count, 1));
+            for (int row = 0; row < count; row++) {
+                String id = readString(buffer);
+                double mag = buffer.getDouble();
+                long time = buffer.getLong();
+                long updated = buffer.getLong();
+                double latitude = buffer.getDouble();
+                double longitude = buffer.getDouble();
+                double depth = buffer.getDouble();
+                String place = strings[buffer.getInt()];
+                int urlIndex = buffer.getInt();
+                String eventUrl;
+                if ((urlIndex & URL_ENDS_WITH_ID) != 0) {
+                    String prefix = strings[urlIndex & ~URL_ENDS_WITH_ID];
+                    eventUrl = prefix != null && id != null ? prefix + id : null;
+                } else {
+                    eventUrl = strings[urlIndex];
+                }
+                earthquakes.add(id, place, mag, time, eventUrl, updated, latitude, longitude, depth);
+            }
+            return new Snapshot(url, savedAt, earthquakes);
+        } catch (RuntimeException e) {
+            // e.g. BufferUnderflowException or IndexOutOfBoundsException
+            Log.e(LOG_TAG, "The snapshot is corrupt", e);
+            file.delete();
+            return null;
+        }
+    }
+
+    /**
+     * @param minBytes smallest encoding of one item
+     * @return the count, if it is at most max and that many items fit in the rest of the buffer
+     */
+    private static int checkCount(int count, ByteBuffer buffer, int minBytes, int max) {
+        if (count < 0 || count > max || (long) count * minBytes > buffer.remaining()) {
+            throw new IllegalArgumentException("Bad count " + count);
+        }
+        return count;
+    }
+
+    private static int index(String value, List<String> strings, HashMap<String, Integer> stringIndex) {
+        Integer index = stringIndex.get(value);
+        if (index == null) {
+            index = strings.size();
+            strings.add(value);
+            stringIndex.put(value, index);
+        }
+        return index;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        // Null is written as length -1
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        String value = new String(buffer.array(), buffer.position(), length, UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+}
@@ -0,0 +1,188 @@
+package com.example.android.quakereport;
+
+import java.util.Arrays;
+
+/**
+ * Grid index over the coordinates of an {@link EarthquakeTable}, for answering radius and
+ * bounding box queries on the device.
+ *
+ * The globe is split into 1 x 1 degree cells, each holding the rows of the events inside it. A query
+ * only looks at the cells its area overlaps, so it touches a small fraction of the events.
+ * The table is append-only, so {@link #update()} indexes just the rows added since the last call.
+ */
+public final class SpatialIndex {
+
+    /** Mean radius of the earth */
+    private static final double EARTH_RADIUS_KM = 6371.0;
+    private static final double KM_PER_DEGREE = EARTH_RADIUS_KM * Math.PI / 180;
+
+    private static final int LAT_CELLS = 180;
+    private static final int LON_CELLS = 360;
+
+    private final EarthquakeTable mTable;
+    private final Cell[] mCells = new Cell[LAT_CELLS * LON_CELLS];
+    /** Number of rows of the table indexed so far */
+    private int mIndexed;
+
+    /**
+     * Rows of the events in one cell.
+     */
+    private static final class Cell {
+        int[] rows = new int[4];
+        int size;
+
+        void add(int row) {
+            if (size == rows.length) {
+                rows = Arrays.copyOf(rows, size * 2);
+            }
+            rows[size++] = row;
+        }
+    }
+
+    public SpatialIndex(EarthquakeTable table) {
+        mTable = table;
+        update();
+    }
+
+    public EarthquakeTable getTable() {
+        return mTable;
+    }
+
+    /**
+     * Index the rows appended to the table since the last call.
+     */
+    public void update() {
+        for (int row = mIndexed; row < mTable.size(); row++) {
+            double latitude = mTable.getLatitude(row);
+            double longitude = mTable.getLongitude(row);
+            // Events without coordinates can't match a spatial query
+            if (!Double.isNaN(latitude) && !Double.isNaN(longitude)) {
+                int index = latCell(latitude) * LON_CELLS + lonCell(longitude);
+                if (mCells[index] == null) {
+                    mCells[index] = new Cell();
+                }
+                mCells[index].add(row);
+            }
+        }
+        mIndexed = mTable.size();
+    }
+
+    /**
+     * @return the rows of the events within radiusKm of the point, in table order
+     */
+    public int[] queryRadius(double latitude, double longitude, double radiusKm) {
+        update();
+        double latDelta = radiusKm / KM_PER_DEGREE;
+        double south = latitude - latDelta;
+        double north = latitude + latDelta;
+
+        int[] result = new int[16];
+        int size = 0;
+        boolean allLongitudes;
+        double lonDelta = 0;
+        if (south <= -90 || north >= 90) {
+            // The circle covers a pole
+            allLongitudes = true;
+        } else {
+            // Widest extent in longitude is at the latitude closest to a pole
+            double maxLatitude = Math.max(Math.abs(south), Math.abs(north));
+            lonDelta = latDelta / Math.cos(Math.toRadians(maxLatitude));
+            allLongitudes = lonDelta >= 180;
+        }
+
+        int firstLat = latCell(Math.max(south, -90));
+        int lastLat = latCell(Math.min(north, 90));
+        int firstLon = allLongitudes ? 0 : lonCell(longitude - lonDelta);
+        int lonCount = allLongitudes ? LON_CELLS : cellSpan(longitude - lonDelta, longitude + lonDelta);
+
+        for (int lat = firstLat; lat <= lastLat; lat++) {
+            for (int i = 0; i < lonCount; i++) {
+                Cell cell = mCells[lat * LON_CELLS + (firstLon + i) % LON_CELLS];
+                if (cell == null) {
+                    continue;
+                }
+                for (int j = 0; j < cell.size; j++) {
+                    int row = cell.rows[j];
+                    if (distanceKm(latitude, longitude, mTable.getLatitude(row), mTable.getLongitude(row)) <= radiusKm) {
+                        if (size == result.length) {
+                            result = Arrays.copyOf(result, size * 2);
+                        }
+                        result[size++] = row;
+                    }
+                }
+            }
+        }
+        return sorted(result, size);
+    }
+
+    /**
+     * @param west may be larger than east for a box crossing the antimeridian
+     * @return the rows of the events inside the box, in table order
+     */
+    public int[] queryBox(double south, double west, double north, double east) {
+        update();
+        int[] result = new int[16];
+        int size = 0;
+        boolean wraps = west > east;
+        int firstLon = lonCell(west);
+        int lonCount = cellSpan(west, wraps ? east + 360 : east);
+
+        for (int lat = latCell(south); lat <= latCell(north); lat++) {
+            for (int i = 0; i < lonCount; i++) {
+                Cell cell = mCells[lat * LON_CELLS + (firstLon + i) % LON_CELLS];
+                if (cell == null) {
+                    continue;
+                }
+                for (int j = 0; j < cell.size; j++) {
+                    int row = cell.rows[j];
+                    double rowLatitude = mTable.getLatitude(row);
+                    double rowLongitude = mTable.getLongitude(row);
+                    boolean inLongitude = wraps ? rowLongitude >= west || rowLongitude <= east
+                            : rowLongitude >= west && rowLongitude <= east;
+                    if (inLongitude && rowLatitude >= south && rowLatitude <= north) {
+                        if (size == result.length) {
+                            result = Arrays.copyOf(result, size * 2);
+                        }
+                        result[size++] = row;
+                    }
+                }
+            }
+        }
+        return sorted(result, size);
+    }
+
+    /**
+     * @return the great-circle distance between two points in km (haversine formula)
+     */
+    public static double distanceKm(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
+                * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    private static int[] sorted(int[] rows, int size) {
+        int[] result = Arrays.copyOf(rows, size);
+        Arrays.sort(result);
+        return result;
+    }
+
+    /**
+     * @return the number of longitude cells from west to east, where east >= west
+     */
+    private static int cellSpan(double west, double east) {
+        return Math.min(LON_CELLS, (int) Math.floor(east) - (int) Math.floor(west) + 1);
+    }
+
+    private static int latCell(double latitude) {
+        return Math.max(0, Math.min(LAT_CELLS - 1, (int) Math.floor(latitude + 90)));
+    }
+
+    private static int lonCell(double longitude) {
+        // Normalize into [-180, 180) first
+        double normalized = ((longitude + 180) % 360 + 360) % 360;
+        return Math.min(LON_CELLS - 1, (int) Math.floor(normalized));
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.android.quakereport;
+
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+import android.widget.TextView;
+
+import java.util.Map;
+
+/**
+ * Summary of the stored earthquakes: magnitude bands, the most active regions, rates and the
+ * largest and mean magnitude. The numbers come from the {@link QuakeStats} counters the store
+ * keeps up to date, so showing them doesn't go over every event.
+ */
+public class StatsActivity extends AppCompatActivity {
+
+    /** Number of regions listed */
+    private static final int TOP_REGIONS = 10;
+
+    private TextView mStatsTextView;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.stats_activity);
+        mStatsTextView = (TextView) findViewById(R.id.stats_text);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        // The first call builds the counters from the database
+        new AsyncTask<Void, Void, QuakeStats>() {
+            @Override
+            protected QuakeStats doInBackground(Void... params) {
+                return EarthquakeStore.getInstance(StatsActivity.this).getStats();
+            }
+
+            @Override
+            protected void onPostExecute(QuakeStats stats) {
+                if (!isFinishing()) {
+                    mStatsTextView.setText(format(stats));
+                }
+            }
+        }.execute();
+    }
+
+    private String format(QuakeStats stats) {
+        long now = System.currentTimeMillis();
+        StringBuilder builder = new StringBuilder();
+        builder.append(getString(R.string.stats_count, stats.getCount())).append('\n');
+        builder.append(getString(R.string.stats_magnitude, stats.getMaxMagnitude(),
+                stats.getMeanMagnitude())).append('\n');
+        builder.append(getString(R.string.stats_rates, stats.getHourlyRate(now),
+                stats.getDailyRate(now))).append("\n\n");
+
+        builder.append(getString(R.string.stats_bands_title)).append('\n');
+        for (int band = 0; band < QuakeStats.MAGNITUDE_BANDS; band++) {
+            int label = band == QuakeStats.MAGNITUDE_BANDS - 1 ? R.string.stats_band_last : R.string.stats_band;
+            builder.append(getString(label, band, stats.getBandCount(band))).append('\n');
+        }
+
+        builder.append('\n').append(getString(R.string.stats_regions_title)).append('\n');
+        for (Map.Entry<String, Integer> region : stats.getTopRegions(TOP_REGIONS)) {
+            builder.append(getString(R.string.stats_region, region.getKey(), region.getValue())).append('\n');
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AlertRulesTest {
+
+    private static final double[] TOKYO = {35.68, 139.69};
+    /** About 85 km from Tokyo */
+    private static final double[] NEAR = {35.0, 139.3};
+    /** About 400 km from Tokyo */
+    private static final double[] OSAKA = {34.69, 135.50};
+
+    @Test
+    public void thresholdsAreAStepFunctionOfTheMagnitude() {
+        AlertRules rules = AlertRules.parse("M5 300km; M7");
+
+        assertFalse(rules.matches(4.99, NEAR[0], NEAR[1], TOKYO));
+        assertTrue(rules.matches(5.0, NEAR[0], NEAR[1], TOKYO));
+        assertFalse(rules.matches(6.9, OSAKA[0], OSAKA[1], TOKYO));
+        assertTrue(rules.matches(7.0, OSAKA[0], OSAKA[1], TOKYO));
+        assertTrue(rules.matches(7.0, Double.NaN, Double.NaN, null));
+        assertFalse(rules.matches(Double.NaN, NEAR[0], NEAR[1], TOKYO));
+    }
+
+    @Test
+    public void largerEventsMatchEveryRuleOfSmallerOnes() {
+        // The M6 rule's radius is smaller, but M6 events still match within 500 km
+        AlertRules rules = AlertRules.parse("M6 100km\nM4 500km");
+
+        assertTrue(rules.matches(6.5, OSAKA[0], OSAKA[1], TOKYO));
+        assertEquals(500, rules.getMaxRadiusKm(), 0);
+    }
+
+    @Test
+    public void sharedThresholdTakesTheLargestRadius() {
+        AlertRules rules = AlertRules.parse("M5 50km; M5 500km; M5 100km");
+
+        assertTrue(rules.matches(5, OSAKA[0], OSAKA[1], TOKYO));
+    }
+
+    @Test
+    public void radiusRulesNeedHomeAndCoordinates() {
+        AlertRules rules = AlertRules.parse("M5 300km");
+
+        assertFalse(rules.matches(6, NEAR[0], NEAR[1], null));
+        assertFalse(rules.matches(6, Double.NaN, NEAR[1], TOKYO));
+        assertEquals(5, rules.getMinMagnitude(true), 0);
+        assertTrue(Double.isNaN(rules.getMinMagnitude(false)));
+    }
+
+    @Test
+    public void malformedRulesAreIgnored() {
+        AlertRules rules = AlertRules.parse("big ones; M 6.5; 300km; 7");
+
+        assertFalse(rules.isEmpty());
+        assertEquals(6.5, rules.getMinMagnitude(false), 0);
+        assertEquals(Double.POSITIVE_INFINITY, rules.getMaxRadiusKm(), 0);
+        assertTrue(AlertRules.parse("").isEmpty());
+        assertEquals(0, AlertRules.parse("").getMaxRadiusKm(), 0);
+    }
+
+    @Test
+    public void parsesLocations() {
+        assertArrayEquals(new double[]{35.68, 139.69}, AlertRules.parseLocation(" 35.68 , 139.69 "), 0);
+        assertArrayEquals(new double[]{-33.9, -151}, AlertRules.parseLocation("-33.9,-151"), 0);
+        assertNull(AlertRules.parseLocation("91, 0"));
+        assertNull(AlertRules.parseLocation("0, 181"));
+        assertNull(AlertRules.parseLocation("Tokyo"));
+    }
+}
@@ -0,0 +1,179 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Calendar;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DelimitedReaderTest {
+
+    private static DelimitedReader reader(String text, char delimiter) {
+        return new DelimitedReader(new ByteArrayInputStream(text.getBytes(Charset.forName("UTF-8"))),
+                delimiter);
+    }
+
+    /**
+     * @return the reader on the first line of the text
+     */
+    private static DelimitedReader line(String text) throws IOException {
+        DelimitedReader reader = reader(text, ',');
+        assertTrue(reader.nextLine());
+        return reader;
+    }
+
+    @Test
+    public void splitsFieldsIncludingEmptyOnes() throws IOException {
+        DelimitedReader reader = line("a,,b,");
+
+        assertEquals(4, reader.getFieldCount());
+        assertEquals("a", reader.getString(0));
+        assertEquals("", reader.getString(1));
+        assertEquals("b", reader.getString(2));
+        assertEquals("", reader.getString(3));
+        assertNull(reader.getString(4));
+        assertNull(reader.getString(-1));
+    }
+
+    @Test
+    public void quotedFieldsKeepDelimitersAndEscapedQuotes() throws IOException {
+        DelimitedReader reader = line("us1,\"10km N of Ojai, CA\",\"say \"\"hi\"\"\",\"\"");
+
+        assertEquals(4, reader.getFieldCount());
+        assertEquals("10km N of Ojai, CA", reader.getString(1));
+        assertEquals("say \"hi\"", reader.getString(2));
+        assertEquals("", reader.getString(3));
+    }
+
+    @Test
+    public void newlineInQuotesDoesNotEndTheLine() throws IOException {
+        DelimitedReader reader = reader("a,\"two\nlines\",c\nnext\n", ',');
+
+        assertTrue(reader.nextLine());
+        assertEquals(3, reader.getFieldCount());
+        assertEquals("two\nlines", reader.getString(1));
+        assertTrue(reader.nextLine());
+        assertEquals("next", reader.getString(0));
+        assertFalse(reader.nextLine());
+    }
+
+    @Test
+    public void skipsEmptyLinesAndCarriageReturns() throws IOException {
+        DelimitedReader reader = reader("\r\n#comment\r\n\n\r\nx|y\r\nz", '|');
+
+        assertTrue(reader.nextLine());
+        assertTrue(reader.startsWith('#'));
+        assertTrue(reader.nextLine());
+        assertFalse(reader.startsWith('#'));
+        assertEquals(2, reader.getFieldCount());
+        assertEquals("y", reader.getString(1));
+        assertTrue(reader.nextLine());
+        assertEquals("z", reader.getString(0));
+        assertFalse(reader.nextLine());
+        assertEquals(0, reader.getFieldCount());
+    }
+
+    @Test
+    public void readsLinesLongerThanTheBuffer() throws IOException {
+        StringBuilder longField = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            longField.append((char) ('a' + i % 26));
+        }
+        DelimitedReader reader = reader("1.5," + longField + ",2.5\n3.5\n", ',');
+
+        assertTrue(reader.nextLine());
+        assertEquals(1.5, reader.getDouble(0), 0);
+        assertEquals(longField.toString(), reader.getString(1));
+        assertEquals(2.5, reader.getDouble(2), 0);
+        assertTrue(reader.nextLine());
+        assertEquals(3.5, reader.getDouble(0), 0);
+    }
+
+    @Test
+    public void parsesNumbers() throws IOException {
+        DelimitedReader reader = line("4.5,-12.25,+3,7,1.,0.1,-0.000001");
+
+        assertEquals(4.5, reader.getDouble(0), 0);
+        assertEquals(-12.25, reader.getDouble(1), 0);
+        assertEquals(3, reader.getDouble(2), 0);
+        assertEquals(7, reader.getDouble(3), 0);
+        assertEquals(1, reader.getDouble(4), 0);
+        assertEquals(0.1, reader.getDouble(5), 0);
+        assertEquals(-0.000001, reader.getDouble(6), 0);
+    }
+
+    @Test
+    public void parsesExponentsAndLongNumbersSlowly() throws IOException {
+        DelimitedReader reader = line("1e3,-2.5E-2,12345678901234567, 42 ,0.12345678901234567890123");
+
+        assertEquals(1000, reader.getDouble(0), 0);
+        assertEquals(-0.025, reader.getDouble(1), 0);
+        assertEquals(12345678901234567.0, reader.getDouble(2), 0);
+        assertEquals(42, reader.getDouble(3), 0);
+        assertEquals(0.12345678901234567890123, reader.getDouble(4), 0);
+    }
+
+    @Test
+    public void missingOrMalformedNumbersAreNaN() throws IOException {
+        DelimitedReader reader = line(",abc,-,.,1.2.3");
+
+        for (int field = 0; field < 6; field++) {
+            assertTrue("field " + field, Double.isNaN(reader.getDouble(field)));
+        }
+    }
+
+    @Test
+    public void fastPathRoundsLikeParseDouble() throws IOException {
+        Random random = new Random(42);
+        StringBuilder line = new StringBuilder();
+        String[] values = new String[500];
+        for (int i = 0; i < values.length; i++) {
+            long mantissa = (long) (random.nextDouble() * 1e15);
+            int scale = random.nextInt(12);
+            StringBuilder value = new StringBuilder(Long.toString(mantissa));
+            while (value.length() <= scale) {
+                value.insert(0, '0');
+            }
+            value.insert(value.length() - scale, '.');
+            values[i] = (random.nextBoolean() ? "-" : "") + value;
+            line.append(i > 0 ? "," : "").append(values[i]);
+        }
+        DelimitedReader reader = line(line.toString());
+
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(values[i], Double.parseDouble(values[i]), reader.getDouble(i), 0);
+        }
+    }
+
+    @Test
+    public void parsesTimes() throws IOException {
+        DelimitedReader reader = line("2016-09-12T10:30:00.123Z,2016-09-12 10:30:00,"
+                + "2016-09-12T10:30:00.98765Z,1970-01-01T00:00:00Z");
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        calendar.clear();
+        calendar.set(2016, Calendar.SEPTEMBER, 12, 10, 30, 0);
+        long expected = calendar.getTimeInMillis();
+
+        assertEquals(expected + 123, reader.getTime(0));
+        assertEquals(expected, reader.getTime(1));
+        assertEquals(expected + 987, reader.getTime(2));
+        assertEquals(0, reader.getTime(3));
+    }
+
+    @Test
+    public void malformedTimesAreMinusOne() throws IOException {
+        DelimitedReader reader = line("2016-09-12,2016/09/12T10:30:00Z,2016-09-12T1a:30:00Z,");
+
+        for (int field = 0; field < 5; field++) {
+            assertEquals("field " + field, -1, reader.getTime(field));
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EarthquakePagerTest {
+
+    @Test
+    public void pagesWithoutExtraRows() {
+        assertEquals(0, EarthquakePager.getPage(0, 20, 0));
+        assertEquals(0, EarthquakePager.getPage(19, 20, 0));
+        assertEquals(1, EarthquakePager.getPage(20, 20, 0));
+        assertEquals(2, EarthquakePager.getPage(59, 20, 0));
+        assertEquals(0, EarthquakePager.getPageStart(0, 20, 0));
+        assertEquals(40, EarthquakePager.getPageStart(2, 20, 0));
+    }
+
+    @Test
+    public void mergedRowsStayOnTheFirstPage() {
+        // A first page of 25 rows: 20 from USGS and 5 merged from other sources
+        for (int position = 0; position < 25; position++) {
+            assertEquals("position " + position, 0, EarthquakePager.getPage(position, 20, 5));
+        }
+        assertEquals(1, EarthquakePager.getPage(25, 20, 5));
+        assertEquals(1, EarthquakePager.getPage(44, 20, 5));
+        assertEquals(2, EarthquakePager.getPage(45, 20, 5));
+    }
+
+    @Test
+    public void laterPagesStartAfterTheMergedRows() {
+        assertEquals(0, EarthquakePager.getPageStart(0, 20, 5));
+        assertEquals(25, EarthquakePager.getPageStart(1, 20, 5));
+        assertEquals(45, EarthquakePager.getPageStart(2, 20, 5));
+    }
+
+    @Test
+    public void everyRowIsOnThePageThatStartsBeforeIt() {
+        int[] extras = {0, 1, 7, 19, 20, 45};
+        for (int extra : extras) {
+            for (int position = 0; position < 200; position++) {
+                int page = EarthquakePager.getPage(position, 20, extra);
+                int start = EarthquakePager.getPageStart(page, 20, extra);
+                int size = page == 0 ? 20 + extra : 20;
+                assertTrue("extra " + extra + ", position " + position,
+                        start <= position && position < start + size);
+            }
+        }
+    }
+}
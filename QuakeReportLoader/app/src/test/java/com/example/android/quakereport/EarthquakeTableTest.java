@@ -0,0 +1,75 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class EarthquakeTableTest {
+
+    private static final String PAGE = "http://earthquake.usgs.gov/earthquakes/eventpage/";
+
+    @Test
+    public void sortsMagnitudesWithNaNLast() {
+        EarthquakeTable table = new EarthquakeTable(1);
+        double[] mags = {5.0, Double.NaN, -0.5, 5.0, 7.2};
+        for (int i = 0; i < mags.length; i++) {
+            table.add("us" + i, "Somewhere", mags[i], 0, null, 0, 0, 0, 0);
+        }
+
+        // Ties keep the order of the rows
+        assertArrayEquals(new int[]{2, 0, 3, 4, 1}, table.getRowsByMagnitude());
+    }
+
+    @Test
+    public void sortIsKeptUntilARowIsAdded() {
+        EarthquakeTable table = new EarthquakeTable();
+        table.add("us0", "Somewhere", 5, 3000, null, 0, 0, 0, 0);
+        table.add("us1", "Somewhere", 5, 1000, null, 0, 0, 0, 0);
+        int[] byTime = table.getRowsByTime();
+
+        assertSame(byTime, table.getRowsByTime());
+        assertArrayEquals(new int[]{1, 0}, byTime);
+
+        table.add("us2", "Somewhere", 5, 2000, null, 0, 0, 0, 0);
+        assertNotSame(byTime, table.getRowsByTime());
+        assertArrayEquals(new int[]{1, 2, 0}, table.getRowsByTime());
+    }
+
+    @Test
+    public void splitsPlacesAndSharesUrlPrefixes() {
+        EarthquakeTable table = new EarthquakeTable();
+        table.add("us1", "85km SSW of Tokyo, Japan", 5, 0, PAGE + "us1", 0, 0, 0, 0);
+        table.add("us2", "Fiji region", 5, 0, PAGE + "us2", 0, 0, 0, 0);
+        table.add("us3", null, 5, 0, "https://example.com/us3?x", 0, 0, 0, 0);
+
+        assertEquals("85km SSW of Tokyo, Japan", table.getPlace(0));
+        assertEquals("85km SSW of", table.getPlacePrefix(0));
+        assertEquals("Tokyo, Japan", table.getPlaceSuffix(0));
+        assertNull(table.getPlacePrefix(1));
+        assertEquals("Fiji region", table.getPlace(1));
+        assertEquals(PAGE + "us2", table.getUrl(1));
+        assertEquals("https://example.com/us3?x", table.getUrl(2));
+    }
+
+    @Test
+    public void copiesRowsOfAnotherTable() {
+        EarthquakeTable source = new EarthquakeTable();
+        source.add("us1", "10km N of Ojai, CA", 4.4, 1234, PAGE + "us1", 5678, 34.5, -119.2, 8.1);
+        EarthquakeTable table = new EarthquakeTable(1);
+        table.add(source, 0);
+
+        assertEquals("us1", table.getId(0));
+        assertEquals("10km N of Ojai, CA", table.getPlace(0));
+        assertEquals(4.4, table.getMag(0), 0);
+        assertEquals(1234, table.getTime(0));
+        assertEquals(PAGE + "us1", table.getUrl(0));
+        assertEquals(5678, table.getUpdated(0));
+        assertEquals(34.5, table.getLatitude(0), 0);
+        assertEquals(-119.2, table.getLongitude(0), 0);
+        assertEquals(8.1, table.getDepth(0), 0);
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LocationIndexTest {
+
+    private static EarthquakeTable page(String id, String place, long updated) {
+        EarthquakeTable table = new EarthquakeTable();
+        table.add(id, place, 5, 0, null, updated, 0, 0, 0);
+        return table;
+    }
+
+    @Test
+    public void matchesEveryWordByPrefix() {
+        EarthquakeTable table = new EarthquakeTable();
+        table.add("us1", "85km SSW of Tokyo, Japan", 5, 0, null, 0, 0, 0, 0);
+        table.add("us2", "10km N of Kyoto, Japan", 5, 0, null, 0, 0, 0, 0);
+        table.add("us3", "Fiji region", 5, 0, null, 0, 0, 0, 0);
+        LocationIndex index = new LocationIndex(table);
+
+        assertArrayEquals(new int[]{0, 1}, index.search("jap"));
+        assertArrayEquals(new int[]{0}, index.search("TOKYO japan"));
+        assertArrayEquals(new int[0], index.search("tokyo fiji"));
+        assertArrayEquals(new int[]{0, 1, 2}, index.search(" , "));
+    }
+
+    @Test
+    public void putReplacesOlderRowsOfAnEvent() {
+        LocationIndex index = new LocationIndex(new EarthquakeTable());
+        index.put(page("us1", "Near Tokyo", 100), 0);
+        index.put(page("us1", "Near Osaka", 200), 0);
+
+        assertFalse(index.isLatest(0));
+        assertTrue(index.isLatest(1));
+        assertArrayEquals(new int[0], index.search("tokyo"));
+        assertArrayEquals(new int[]{1}, index.search("osaka"));
+    }
+
+    @Test
+    public void putOfTheSameUpdateAddsNothing() {
+        LocationIndex index = new LocationIndex(new EarthquakeTable());
+        index.put(page("us1", "Near Tokyo", 100), 0);
+        index.put(page("us1", "Near Tokyo", 100), 0);
+        index.put(page(null, "Near Tokyo", 100), 0);
+
+        assertEquals(1, index.getTable().size());
+        assertArrayEquals(new int[]{0}, index.search("tokyo"));
+    }
+
+    @Test
+    public void removedEventsDoNotMatch() {
+        LocationIndex index = new LocationIndex(new EarthquakeTable());
+        index.put(page("us1", "Near Tokyo", 100), 0);
+        index.put(page("us2", "Off Tokyo", 100), 0);
+        index.remove("us1");
+
+        assertFalse(index.isLatest(0));
+        assertArrayEquals(new int[]{1}, index.search("tokyo"));
+        assertEquals(1, index.searchList("").size());
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class QuakeStatsTest {
+
+    private static final long HOUR_MS = 60 * 60 * 1000;
+    private static final long DAY_MS = 24 * HOUR_MS;
+    /** The start of a day, so hour and day buckets line up */
+    private static final long NOW = 17000 * DAY_MS;
+
+    @Test
+    public void countsBandsAndMagnitudes() {
+        QuakeStats stats = new QuakeStats();
+        stats.put("a", 4.2, NOW, "Tokyo, Japan");
+        stats.put("b", 4.99, NOW, "Tokyo, Japan");
+        stats.put("c", 9.5, NOW, null);
+        stats.put("d", Double.NaN, NOW, "");
+
+        assertEquals(4, stats.getCount());
+        assertEquals(2, stats.getBandCount(4));
+        assertEquals(1, stats.getBandCount(9));
+        assertEquals(9.5, stats.getMaxMagnitude(), 1e-9);
+        assertEquals((4.2 + 4.99 + 9.5) / 3, stats.getMeanMagnitude(), 1e-9);
+        assertEquals(2, stats.getRegionCount("Tokyo, Japan"));
+        assertEquals(1, stats.getTopRegions(5).size());
+    }
+
+    @Test
+    public void replacingAnEventMovesItsCounts() {
+        QuakeStats stats = new QuakeStats();
+        stats.put("a", 6.1, NOW, "Chile");
+        stats.put("a", 5.8, NOW, "Chile");
+
+        assertEquals(1, stats.getCount());
+        assertEquals(0, stats.getBandCount(6));
+        assertEquals(1, stats.getBandCount(5));
+        assertEquals(5.8, stats.getMaxMagnitude(), 1e-9);
+        assertEquals(1, stats.getHourCount(NOW, 0));
+
+        stats.remove("a");
+        assertEquals(0, stats.getCount());
+        assertTrue(Double.isNaN(stats.getMaxMagnitude()));
+        assertEquals(0, stats.getRegionCount("Chile"));
+        assertEquals(0, stats.getHourCount(NOW, 0));
+    }
+
+    @Test
+    public void expiresEventsBeforeTheCutoff() {
+        QuakeStats stats = new QuakeStats();
+        stats.put("old", 7, NOW - 3 * HOUR_MS, null);
+        stats.put("new", 3, NOW - HOUR_MS, null);
+        // Replaced, its first copy stays in the time queue
+        stats.put("new", 3.5, NOW - HOUR_MS, null);
+
+        stats.expire(NOW - 2 * HOUR_MS);
+
+        assertEquals(1, stats.getCount());
+        assertEquals(3.5, stats.getMaxMagnitude(), 1e-9);
+        assertEquals(0, stats.getHourCount(NOW, 3));
+        assertEquals(1, stats.getHourCount(NOW, 1));
+    }
+
+    @Test
+    public void ringSlotsMoveOnWithTime() {
+        QuakeStats stats = new QuakeStats();
+        stats.put("a", 4, NOW, null);
+        // Same hour slot, one full ring later
+        long later = NOW + QuakeStats.HOURS * HOUR_MS;
+        stats.put("b", 4, later, null);
+
+        assertEquals(0, stats.getHourCount(NOW, 0));
+        assertEquals(1, stats.getHourCount(later, 0));
+
+        // Expiring the event the slot no longer counts leaves the newer count alone
+        stats.expire(NOW + 1);
+        assertEquals(1, stats.getHourCount(later, 0));
+        assertEquals(1, stats.getDayCount(later, 0));
+    }
+
+    @Test
+    public void ratesOverTheWindows() {
+        QuakeStats stats = new QuakeStats();
+        // One event an hour for the last 60 hours
+        for (int i = 0; i < 60; i++) {
+            stats.put("e" + i, 2, NOW - i * HOUR_MS, null);
+        }
+
+        assertEquals(1, stats.getHourlyRate(NOW), 1e-9);
+        assertEquals(60 / (double) QuakeStats.DAYS, stats.getDailyRate(NOW), 1e-9);
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class QueryPlannerTest {
+
+    private static final String BASE = "https://earthquake.usgs.gov/fdsnws/event/1/query?format=geojson";
+
+    private static QueryPlanner.Params params(double minMagnitude, String orderBy, int limit) {
+        return new QueryPlanner.Params(minMagnitude, orderBy, 1, limit, BASE);
+    }
+
+    /**
+     * @param mags one event per magnitude, the later ones newer
+     */
+    private static EarthquakeTable table(double... mags) {
+        EarthquakeTable table = new EarthquakeTable();
+        for (int i = 0; i < mags.length; i++) {
+            table.add("us" + i, "10km N of Somewhere", mags[i], 1000L * i, null, 0,
+                    Double.NaN, Double.NaN, Double.NaN);
+        }
+        return table;
+    }
+
+    private static String ids(EarthquakeTable table) {
+        StringBuilder ids = new StringBuilder();
+        for (int row = 0; row < table.size(); row++) {
+            ids.append(row > 0 ? "," : "").append(table.getId(row));
+        }
+        return ids.toString();
+    }
+
+    @Test
+    public void completeResultCoversRaisedMinMagnitudeInAnyOrder() {
+        EarthquakeTable table = table(4.0, 6.0, 5.0, 7.0);
+        QueryPlanner.Params source = params(4, "time", 10);
+        QueryPlanner.Params target = params(5, "magnitude", 10);
+
+        assertTrue(QueryPlanner.isComplete(table, source));
+        assertEquals("us3,us1,us2", ids(QueryPlanner.cover(table, source, target)));
+    }
+
+    @Test
+    public void completeResultCoversUpToTheTargetLimit() {
+        EarthquakeTable table = table(4.0, 6.0, 5.0, 7.0);
+        EarthquakeTable covered = QueryPlanner.cover(table, params(4, "time", 10),
+                params(4, "magnitude-asc", 2));
+
+        assertEquals("us0,us2", ids(covered));
+    }
+
+    @Test
+    public void completeResultWithNoMatchesCoversAnEmptyAnswer() {
+        EarthquakeTable covered = QueryPlanner.cover(table(4.0, 4.5), params(4, "time", 10),
+                params(6, "time", 10));
+
+        assertEquals(0, covered.size());
+    }
+
+    @Test
+    public void truncatedResultNeedsTheSameOrder() {
+        EarthquakeTable table = table(4.0, 6.0, 5.0);
+
+        assertFalse(QueryPlanner.isComplete(table, params(4, "time", 3)));
+        assertNull(QueryPlanner.cover(table, params(4, "time", 3), params(4, "magnitude", 10)));
+    }
+
+    @Test
+    public void truncatedResultCoversRowsBeforeItsLastOne() {
+        // The newest three events by time; the oldest one may have newer ties that were cut off
+        EarthquakeTable table = table(4.0, 6.0, 5.0);
+        EarthquakeTable covered = QueryPlanner.cover(table, params(4, "time", 3),
+                params(5, "time", 10));
+
+        assertEquals("us2,us1", ids(covered));
+    }
+
+    @Test
+    public void truncatedResultStopsAtTiesWithItsLastRow() {
+        EarthquakeTable table = table(7.0, 5.0, 6.0, 5.0);
+        EarthquakeTable covered = QueryPlanner.cover(table, params(4, "magnitude", 4),
+                params(4, "magnitude", 10));
+
+        assertEquals("us0,us2", ids(covered));
+    }
+
+    @Test
+    public void truncatedResultAscendingStopsBeforeItsLastRow() {
+        EarthquakeTable table = table(3.0, 2.0, 4.0);
+        EarthquakeTable covered = QueryPlanner.cover(table, params(2, "magnitude-asc", 3),
+                params(2, "magnitude-asc", 10));
+
+        assertEquals("us1,us0", ids(covered));
+    }
+
+    @Test
+    public void truncatedResultWithoutMagnitudeAtTheBoundaryCoversNothing() {
+        // Magnitudes ascending sort NaN last, so it is the boundary row
+        EarthquakeTable table = table(3.0, Double.NaN);
+
+        assertNull(QueryPlanner.cover(table, params(2, "magnitude-asc", 2),
+                params(2, "magnitude-asc", 10)));
+    }
+
+    @Test
+    public void truncatedResultCoveringNoRowsIsNoPlan() {
+        EarthquakeTable table = table(5.0, 5.0);
+
+        assertNull(QueryPlanner.cover(table, params(4, "magnitude", 2), params(4, "magnitude", 10)));
+    }
+
+    @Test
+    public void higherSourceMinMagnitudeCoversNothing() {
+        assertNull(QueryPlanner.cover(table(6.0), params(5, "time", 10), params(4, "time", 10)));
+    }
+
+    @Test
+    public void otherBaseOrOffsetCoversNothing() {
+        EarthquakeTable table = table(6.0);
+        QueryPlanner.Params target = params(4, "time", 10);
+
+        assertNull(QueryPlanner.cover(table,
+                new QueryPlanner.Params(4, "time", 1, 10, BASE + "&starttime=2016-01-01"), target));
+        assertNull(QueryPlanner.cover(table, new QueryPlanner.Params(4, "time", 11, 10, BASE), target));
+        assertNull(QueryPlanner.cover(table, params(4, "time", 10),
+                new QueryPlanner.Params(4, "time", 11, 10, BASE)));
+    }
+
+    @Test
+    public void completeDropsRemainderRowsAlreadyCovered() {
+        EarthquakeTable covered = table(6.0, 5.0);
+        EarthquakeTable remainder = new EarthquakeTable();
+        remainder.add(covered, 1);
+        remainder.add("us9", "5km E of Elsewhere", 4.0, 9000, null, 0,
+                Double.NaN, Double.NaN, Double.NaN);
+
+        assertEquals("us0,us1,us9", ids(new QueryPlanner.Plan(null, covered, "remainder")
+                .complete(remainder)));
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class SpatialIndexTest {
+
+    private static EarthquakeTable table(double... coordinates) {
+        EarthquakeTable table = new EarthquakeTable();
+        for (int i = 0; i < coordinates.length; i += 2) {
+            table.add("us" + i, "Somewhere", 5, 0, null, 0, coordinates[i], coordinates[i + 1], 10);
+        }
+        return table;
+    }
+
+    @Test
+    public void boxCrossingTheAntimeridian() {
+        SpatialIndex index = new SpatialIndex(table(
+                0, 175,
+                0, -175,
+                0, 0,
+                0, 180,
+                0, -180,
+                20, 175));
+
+        assertArrayEquals(new int[]{0, 1, 3, 4}, index.queryBox(-10, 170, 10, -170));
+        assertArrayEquals(new int[]{2}, index.queryBox(-10, -170, 10, 170));
+    }
+
+    @Test
+    public void radiusAcrossTheAntimeridianAndAroundAPole() {
+        SpatialIndex index = new SpatialIndex(table(
+                -17.7, 178.0,
+                -17.7, -179.0,
+                -17.7, 170.0,
+                89.5, 0,
+                89.5, 180,
+                Double.NaN, Double.NaN));
+
+        // Fiji: about 105 km apart across the antimeridian, 850 km to the third
+        assertArrayEquals(new int[]{0, 1}, index.queryRadius(-17.7, 179.5, 200));
+        assertArrayEquals(new int[]{3, 4}, index.queryRadius(90, 0, 100));
+    }
+
+    @Test
+    public void radiusMatchesBruteForce() {
+        Random random = new Random(7);
+        EarthquakeTable table = new EarthquakeTable();
+        SpatialIndex index = new SpatialIndex(table);
+        for (int i = 0; i < 2000; i++) {
+            table.add("us" + i, "Somewhere", 5, 0, null, 0,
+                    random.nextDouble() * 180 - 90, random.nextDouble() * 360 - 180, 10);
+        }
+
+        for (int query = 0; query < 50; query++) {
+            double latitude = random.nextDouble() * 180 - 90;
+            double longitude = random.nextDouble() * 360 - 180;
+            double radiusKm = random.nextDouble() * 3000;
+            int[] expected = new int[table.size()];
+            int size = 0;
+            for (int row = 0; row < table.size(); row++) {
+                if (SpatialIndex.distanceKm(latitude, longitude, table.getLatitude(row),
+                        table.getLongitude(row)) <= radiusKm) {
+                    expected[size++] = row;
+                }
+            }
+            assertArrayEquals(Arrays.copyOf(expected, size), index.queryRadius(latitude, longitude, radiusKm));
+        }
+    }
+
+    @Test
+    public void distance() {
+        assertEquals(0, SpatialIndex.distanceKm(35.68, 139.69, 35.68, 139.69), 0);
+        // A quarter of the equator, and the same distance across the antimeridian
+        assertEquals(10007.5, SpatialIndex.distanceKm(0, 0, 0, 90), 1);
+        assertEquals(SpatialIndex.distanceKm(0, 170, 0, -170), SpatialIndex.distanceKm(0, -10, 0, 10), 1e-6);
+    }
+}
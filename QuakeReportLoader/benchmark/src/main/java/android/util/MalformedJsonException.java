@@ -0,0 +1,14 @@
+package android.util;
+
+import java.io.IOException;
+
+/**
+ * JVM stand-in for Android's MalformedJsonException. Gson's reader throws its own type, so on the
+ * JVM malformed JSON surfaces as a plain IOException; the benchmark fixtures are well formed.
+ */
+public final class MalformedJsonException extends IOException {
+
+    public MalformedJsonException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.android.quakereport.benchmark;
+
+import com.example.android.quakereport.EarthquakeTable;
+import com.example.android.quakereport.QueryUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * USGS GeoJSON and CSV responses for the benchmarks.
+ *
+ * The 10-feature response is a fixture in the exact shape USGS returns. Larger responses repeat
+ * its features, giving every copy its own event id, so they parse like a real result set.
+ * CSV responses hold the same events in the columns of a USGS "format=csv" response.
+ */
+public final class Fixtures {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String FIXTURE = "/fixtures/usgs_10.geojson";
+    private static final String FEATURES_START = "\"features\":[";
+    private static final String FEATURE_START = "{\"type\":\"Feature\",";
+    private static final String ID_START = "\"id\":\"";
+
+    private static final String CSV_HEADER = "time,latitude,longitude,depth,mag,magType,nst,gap,dmin,rms,"
+            + "net,id,updated,place,type,horizontalError,depthError,magError,magNst,status,"
+            + "locationSource,magSource\n";
+
+    private Fixtures() {
+    }
+
+    /**
+     * @return a USGS GeoJSON response with the given number of features
+     */
+    public static byte[] usgsGeoJson(int featureCount) throws IOException {
+        String fixture = new String(readResource(FIXTURE), UTF_8);
+        int featuresStart = fixture.indexOf(FEATURES_START) + FEATURES_START.length();
+        int featuresEnd = fixture.indexOf("],\"bbox\"");
+        String[] features = fixture.substring(featuresStart, featuresEnd).split(",(?=\\{\"type\":\"Feature\",)");
+        if (!features[0].startsWith(FEATURE_START)) {
+            throw new IOException("Unexpected fixture format");
+        }
+
+        StringBuilder json = new StringBuilder(fixture.length() * (featureCount / features.length + 1));
+        json.append(fixture, 0, featuresStart);
+        for (int i = 0; i < featureCount; i++) {
+            String feature = features[i % features.length];
+            int copy = i / features.length;
+            if (copy > 0) {
+                // Every reference to the event id (url, detail, ids, id) gets the copy number
+                int idStart = feature.lastIndexOf(ID_START) + ID_START.length();
+                String id = feature.substring(idStart, feature.indexOf('"', idStart));
+                feature = feature.replace(id, id + copy);
+            }
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(feature);
+        }
+        json.append(fixture, featuresEnd, fixture.length());
+        return json.toString().getBytes(UTF_8);
+    }
+
+    /**
+     * @return a USGS CSV response with the events of {@link #usgsGeoJson(int)}
+     */
+    public static byte[] usgsCsv(int featureCount) throws IOException {
+        EarthquakeTable earthquakes = QueryUtils.readEarthquakes(new ByteArrayInputStream(usgsGeoJson(featureCount)));
+        SimpleDateFormat iso = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+        iso.setTimeZone(TimeZone.getTimeZone("UTC"));
+        StringBuilder csv = new StringBuilder(CSV_HEADER);
+        for (int row = 0; row < earthquakes.size(); row++) {
+            String id = earthquakes.getId(row);
+            csv.append(iso.format(new Date(earthquakes.getTime(row)))).append(',')
+                    .append(earthquakes.getLatitude(row)).append(',')
+                    .append(earthquakes.getLongitude(row)).append(',')
+                    .append(earthquakes.getDepth(row)).append(',')
+                    .append(earthquakes.getMag(row)).append(",mww,,17,1.471,0.93,")
+                    .append(id.substring(0, 2)).append(',')
+                    .append(id).append(',')
+                    .append(iso.format(new Date(earthquakes.getUpdated(row)))).append(",\"")
+                    .append(earthquakes.getPlace(row).replace("\"", "\"\"")).append("\",earthquake,")
+                    .append("7.6,1.8,0.065,23,reviewed,us,us\n");
+        }
+        return csv.toString().getBytes(UTF_8);
+    }
+
+    private static byte[] readResource(String name) throws IOException {
+        InputStream in = Fixtures.class.getResourceAsStream(name);
+        if (in == null) {
+            throw new IOException("Missing fixture " + name);
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
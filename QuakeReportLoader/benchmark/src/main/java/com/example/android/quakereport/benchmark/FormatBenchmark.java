@@ -0,0 +1,61 @@
+package com.example.android.quakereport.benchmark;
+
+import com.example.android.quakereport.EarthquakeTable;
+import com.example.android.quakereport.Info;
+import com.example.android.quakereport.QueryUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.text.DecimalFormat;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The text work of binding every row of a result, as done by InfoAdapter.onBindViewHolder:
+ * the magnitude, the split location and the lazily formatted time.
+ *
+ * Throughput is in full passes over the rows per second and SampleTime reports the p99 latency
+ * of one pass; divide gc.alloc.rate.norm (from -prof gc) by {@code features} for the
+ * allocation per bound row.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormatBenchmark {
+
+    @Param({"10", "1000", "20000"})
+    public int features;
+
+    private EarthquakeTable mEarthquakes;
+    private final DecimalFormat mMagnitudeFormatter = new DecimalFormat("0.0");
+
+    @Setup
+    public void setUp() throws IOException {
+        mEarthquakes = QueryUtils.extractEarthquakes(new String(Fixtures.usgsGeoJson(features), "UTF-8"));
+    }
+
+    @Benchmark
+    public void bindRows(Blackhole blackhole) {
+        for (int i = 0; i < mEarthquakes.size(); i++) {
+            Info earthquake = mEarthquakes.get(i);
+            blackhole.consume(mMagnitudeFormatter.format(earthquake.getMag()));
+            blackhole.consume(earthquake.getLocationOffset());
+            blackhole.consume(earthquake.getPrimaryLocation());
+            blackhole.consume(earthquake.getTime());
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.android.quakereport.benchmark;
+
+import com.example.android.quakereport.EarthquakeTable;
+import com.example.android.quakereport.QueryUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing a whole USGS response, from the body stream and from an in-memory string, and the
+ * same events as a CSV response.
+ *
+ * Throughput is in responses per second and SampleTime reports the p99 latency of one response;
+ * divide gc.alloc.rate.norm (from -prof gc) by {@code features} for the allocation per event.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+
+    @Param({"10", "1000", "20000"})
+    public int features;
+
+    private byte[] mBody;
+    private String mJson;
+    private byte[] mCsv;
+
+    @Setup
+    public void setUp() throws IOException {
+        mBody = Fixtures.usgsGeoJson(features);
+        mJson = new String(mBody, Charset.forName("UTF-8"));
+        int parsed = QueryUtils.extractEarthquakes(mJson).size();
+        if (parsed != features) {
+            throw new IllegalStateException("Parsed " + parsed + " of " + features + " features");
+        }
+        mCsv = Fixtures.usgsCsv(features);
+        parsed = QueryUtils.readEarthquakesCsv(new ByteArrayInputStream(mCsv)).size();
+        if (parsed != features) {
+            throw new IllegalStateException("Parsed " + parsed + " of " + features + " CSV rows");
+        }
+    }
+
+    /**
+     * The network path: parse while reading the body stream.
+     */
+    @Benchmark
+    public EarthquakeTable readEarthquakes() {
+        return QueryUtils.readEarthquakes(new ByteArrayInputStream(mBody));
+    }
+
+    /**
+     * The path for a response that is already a String.
+     */
+    @Benchmark
+    public EarthquakeTable extractEarthquakes() {
+        return QueryUtils.extractEarthquakes(mJson);
+    }
+
+    /**
+     * The lean path: the same events from a CSV body stream.
+     */
+    @Benchmark
+    public EarthquakeTable readEarthquakesCsv() {
+        return QueryUtils.readEarthquakesCsv(new ByteArrayInputStream(mCsv));
+    }
+}